@@ -0,0 +1,186 @@
+package core;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared effect bus, also known as a return
+ * <br>
+ * Any number of tracks (or other buses) send to a bus through {@link Send}s,
+ * their signals are summed, run once through the bus's effects, then mixed
+ * into the output at <i>volume</i> and passed on through the bus's own sends.
+ * One reverb bus can therefore serve every track instead of each track
+ * needing its own copy.
+ * <br>
+ * Buses belong to the root {@link TrackLayerCompound}, which evaluates them
+ * in dependency order each block. Sends between buses may not form a cycle.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class Bus implements Serializable, Named {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Changes whenever sends between buses change, so cached
+	 * processing orders know to rebuild
+	 */
+	private static final AtomicInteger topologyVersion = new AtomicInteger();
+
+	/**
+	 * Effects processing the summed input
+	 */
+	public final EffectChain effects = new EffectChain();
+	/**
+	 * Sends from this bus to other buses, use {@link #addSend(Bus, double)}
+	 * so cycles are rejected and {@link #removeSend(Send)} so processing
+	 * orders are updated
+	 */
+	public final ArrayList<Send> sends = new ArrayList<>();
+	/**
+	 * Return level in B
+	 */
+	public volatile double volume;
+	/**
+	 * The name of this bus. Use getter and setter instead of direct access.
+	 */
+	protected String name;
+
+	/**
+	 * Seconds since the bus last received any input
+	 */
+	protected transient double silentFor = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Blank constructor
+	 */
+	public Bus(){
+	}
+
+	/**
+	 * Add a send to another bus
+	 *
+	 * @param target bus to send to
+	 * @param volume send level in B
+	 * @return the send, or null if it would make a cycle
+	 */
+	public Send addSend(Bus target,double volume){
+		if(target==this || target.feeds(this))return null;
+		Send send = new Send(target,volume);
+		sends.add(send);
+		topologyChanged();
+		return send;
+	}
+
+	/**
+	 * Remove a send to another bus
+	 *
+	 * @param send the send
+	 * @return true if it was there
+	 */
+	public boolean removeSend(Send send){
+		boolean removed = sends.remove(send);
+		if(removed)topologyChanged();
+		return removed;
+	}
+
+	/**
+	 * Mark cached processing orders as outdated, call after changing
+	 * <i>sends</i> of any bus directly
+	 */
+	public static void topologyChanged(){
+		topologyVersion.incrementAndGet();
+	}
+
+	/**
+	 * @return a number which changes whenever sends between buses change
+	 */
+	public static int getTopologyVersion(){
+		return topologyVersion.get();
+	}
+
+	/**
+	 * Check if signal from this bus reaches another bus
+	 *
+	 * @param other the other bus
+	 * @return true if there is a path of sends to it
+	 */
+	public boolean feeds(Bus other){
+		Set<Bus> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		ArrayDeque<Bus> queue = new ArrayDeque<>();
+		queue.add(this);
+		while(!queue.isEmpty()){
+			Bus bus = queue.poll();
+			for(Send send:bus.sends){
+				Bus next = send.target;
+				if(next==other)return true;
+				if(visited.add(next))queue.add(next);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return tail length of the bus's effects in seconds
+	 */
+	public double getTailLength(){
+		return effects.getTailLength();
+	}
+
+	/**
+	 * @return true if the bus still has to be processed despite
+	 * having no input, because its effects are still ringing
+	 */
+	public boolean isRinging(){
+		return silentFor<=getTailLength();
+	}
+
+	@Override
+	public String getName(){
+		if(name==null || name.length()==0)return Track.defaultNameAny("Bus", this);
+		return name;
+	}
+
+	@Override
+	public boolean setName(String newName){
+		name = newName;
+		return true;
+	}
+
+	/**
+	 * Sort buses so every bus comes after all buses sending to it
+	 * <br>
+	 * Buses in a cycle, which should not exist, are left out
+	 *
+	 * @param buses buses to sort
+	 * @return buses in processing order
+	 */
+	public static List<Bus> topologicalOrder(List<Bus> buses){
+		IdentityHashMap<Bus,Integer> incoming = new IdentityHashMap<>();
+		for(Bus bus:buses)incoming.put(bus, 0);
+		for(Bus bus:buses){
+			for(Send send:bus.sends){
+				Integer count = incoming.get(send.target);
+				if(count!=null)incoming.put(send.target, count+1);
+			}
+		}
+		ArrayList<Bus> result = new ArrayList<>(buses.size());
+		ArrayDeque<Bus> ready = new ArrayDeque<>();
+		for(Bus bus:buses){
+			if(incoming.get(bus)==0)ready.add(bus);
+		}
+		while(!ready.isEmpty()){
+			Bus bus = ready.poll();
+			result.add(bus);
+			for(Send send:bus.sends){
+				Integer count = incoming.get(send.target);
+				if(count!=null){
+					incoming.put(send.target, count-1);
+					if(count==1)ready.add(send.target);
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -32,4 +32,17 @@ public interface Curve extends Serializable, DoubleUnaryOperator, VarDouble {
 	public default double get(double time){
 		return valueAtPosition(time);
 	}
+	
+	/**
+	 * Get a copy which nothing else holds, equal to this curve
+	 * <br>
+	 * Used as a cache key by {@link CurveTable}, so a curve which
+	 * is later edited doesn't change the key. Curves which can't
+	 * be copied return null and are never cached.
+	 * 
+	 * @return the copy, or null
+	 */
+	public default Curve snapshot(){
+		return null;
+	}
 }
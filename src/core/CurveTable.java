@@ -0,0 +1,273 @@
+package core;
+
+import util.ds.LhmCache;
+import util.hash.*;
+
+/**
+ * Curve baked into evenly spaced points, read back with linear interpolation
+ * <br>
+ * Evaluating a curve once per sample is expensive, a polynomial walks its
+ * boxed coefficient list every time. A table is baked once and reads cost
+ * a multiply and an interpolation regardless of the curve.
+ * <br>
+ * Tables are shared through a bounded cache keyed by a snapshot of the
+ * curve (see {@link Curve#snapshot()}), the range and the resolution, so
+ * editing a curve makes a new key and the old table eventually gets evicted.
+ * Keys compare the curves themselves, not just their hashes, so curves with
+ * colliding hashes never share a table. Only curves whose class overrides
+ * {@link Object#equals(Object)}, {@link Object#hashCode()} and
+ * {@link Curve#snapshot()} can be cached, since otherwise changes can't be
+ * detected. {@link Samples} is never baked, it already is a table.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class CurveTable {
+
+	/**
+	 * Maximum number of cached tables
+	 */
+	public static final int CACHE_LIMIT = 1<<8;
+	/**
+	 * Samples per baked point used by {@link Samples#applyCurveTo(Curve, double, double[])}
+	 */
+	public static final int SAMPLES_PER_POINT = 1<<5;
+
+	/**
+	 * Hash key for <i>Key.hashCode()</i>
+	 */
+	public static final long HK_KEY = QuickKeyGen.next64();
+
+	/**
+	 * Position of the first point
+	 */
+	public final double start;
+	/**
+	 * Position of the last point
+	 */
+	public final double end;
+	/**
+	 * Number of intervals, there is one more point than this
+	 */
+	public final int resolution;
+	/**
+	 * The baked values
+	 */
+	private final double[] values;
+	/**
+	 * Intervals per unit position
+	 */
+	private final double scale;
+
+	/**
+	 * Bake a curve, bypassing the cache
+	 *
+	 * @param curve the curve
+	 * @param start first position
+	 * @param end last position
+	 * @param resolution number of intervals
+	 */
+	public CurveTable(Curve curve,double start,double end,int resolution){
+		if(!(end>start))throw new IllegalArgumentException("Range ("+start+", "+end+") is empty");
+		if(resolution<1)throw new IllegalArgumentException("Resolution ("+resolution+") must be positive");
+		this.start = start;
+		this.end = end;
+		this.resolution = resolution;
+		double step = (end-start)/resolution;
+		values = new double[resolution+1];
+		for(int i=0;i<resolution;i++){
+			values[i] = curve.valueAtPosition(start+i*step);
+		}
+		values[resolution] = curve.valueAtPosition(end);
+		scale = resolution/(end-start);
+	}
+
+	/**
+	 * Get an interpolated value, positions outside the range
+	 * get the value at the nearest end
+	 *
+	 * @param position position to read
+	 * @return the value
+	 */
+	public double valueAt(double position){
+		double index = (position-start)*scale;
+		if(!(index>0d))return values[0];
+		if(index>=resolution)return values[resolution];
+		int left = (int)index;
+		double a = values[left];
+		return a+(index-left)*(values[left+1]-a);
+	}
+
+	/**
+	 * Read many evenly spaced values at once
+	 *
+	 * @param position first position to read
+	 * @param step distance between positions
+	 * @param out array to write to
+	 * @param offset index in <i>out</i> of the first value
+	 * @param count number of values
+	 */
+	public void fill(double position,double step,double[] out,int offset,int count){
+		double index = (position-start)*scale, indexStep = step*scale;
+		double[] lvalues = values;
+		int lresolution = resolution;
+		for(int i=offset,end=offset+count;i<end;i++,index+=indexStep){
+			if(!(index>0d)){
+				out[i] = lvalues[0];
+			}else if(index>=lresolution){
+				out[i] = lvalues[lresolution];
+			}else{
+				int left = (int)index;
+				double a = lvalues[left];
+				out[i] = a+(index-left)*(lvalues[left+1]-a);
+			}
+		}
+	}
+
+	/**
+	 * Get a table from the cache, baking it if needed
+	 *
+	 * @param curve the curve
+	 * @param start first position
+	 * @param end last position
+	 * @param resolution number of intervals
+	 * @return the table, or null if the curve can't be cached
+	 */
+	public static CurveTable get(Curve curve,double start,double end,int resolution){
+		if(!isBakeable(curve) || !(end>start) || resolution<1)return null;
+		Key key = new Key(curve,start,end,resolution);
+		CurveTable result;
+		synchronized(Cache.tables){
+			result = Cache.tables.get(key);
+		}
+		if(result==null){
+			// Bake outside the lock, a duplicate bake is harmless
+			result = new CurveTable(curve,start,end,resolution);
+			// The stored key must not change if the caller edits its curve later
+			Curve snapshot = curve.snapshot();
+			if(snapshot!=null && snapshot.equals(curve)){
+				synchronized(Cache.tables){
+					Cache.tables.put(new Key(snapshot,key), result);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Check if a curve's tables can be cached
+	 *
+	 * @param curve the curve
+	 * @return true if it can
+	 */
+	public static boolean isBakeable(Curve curve){
+		return curve!=null && !(curve instanceof Samples) && Cache.contentHashed.get(curve.getClass());
+	}
+
+	/**
+	 * Drop all cached tables
+	 */
+	public static void clear(){
+		synchronized(Cache.tables){
+			Cache.tables.clear();
+		}
+	}
+
+	/**
+	 * Holds the shared cache
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	private static final class Cache{
+		//Disallow invoking constructor
+		private Cache(){}
+
+		/**
+		 * Cached tables, least recently used evicted first
+		 */
+		static final LhmCache<Key,CurveTable> tables = new LhmCache<>(CACHE_LIMIT,true);
+		/**
+		 * Whether each class overrides equals, hashCode and snapshot
+		 */
+		static final ClassValue<Boolean> contentHashed = new ClassValue<Boolean>(){
+			@Override
+			protected Boolean computeValue(Class<?> type){
+				try{
+					return type.getMethod("equals", Object.class).getDeclaringClass()!=Object.class
+							&& type.getMethod("hashCode").getDeclaringClass()!=Object.class
+							&& type.getMethod("snapshot").getDeclaringClass()!=Curve.class;
+				}catch(NoSuchMethodException e){
+					return false;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Cache key
+	 * <br>
+	 * Keys used for lookup hold the caller's curve, keys stored
+	 * in the cache hold a snapshot of it
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	private static final class Key{
+		final Class<?> type;
+		final Curve curve;
+		final int curveHash;
+		final double start, end;
+		final int resolution;
+
+		Key(Curve curve,double start,double end,int resolution){
+			type = curve.getClass();
+			this.curve = curve;
+			curveHash = curve.hashCode();
+			this.start = start;
+			this.end = end;
+			this.resolution = resolution;
+		}
+
+		/**
+		 * Same key with an equal curve in place of the original
+		 *
+		 * @param curve the replacement curve
+		 * @param source the key to copy the rest from
+		 */
+		Key(Curve curve,Key source){
+			type = source.type;
+			this.curve = curve;
+			curveHash = source.curveHash;
+			start = source.start;
+			end = source.end;
+			resolution = source.resolution;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if(o==this)return true;
+			if(o==null || !(o instanceof Key))return false;
+			Key other = (Key) o;
+			return type==other.type && curveHash==other.curveHash && resolution==other.resolution
+					&& Double.compare(start, other.start)==0 && Double.compare(end, other.end)==0
+					&& curve.equals(other.curve);
+		}
+
+		@Override
+		public int hashCode(){
+			HashTriArx hash = new HashTriArx(HK_KEY);
+			hash.absorb(curveHash);
+			hash.absorb(resolution);
+			hash.absorb(start);
+			hash.absorb(end);
+			hash.absorbObj(type.getName());
+			return hash.squeezeInt();
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "<CurveTable ["+start+", "+end+"] in "+resolution+" steps>";
+	}
+}
@@ -0,0 +1,70 @@
+package core;
+
+import java.io.Serializable;
+
+/**
+ * Insert effect, processes a block of audio in place
+ * <br>
+ * Effects are owned by an {@link EffectChain} on a track. All state
+ * (delay lines, filter memory, envelopes) is allocated in
+ * {@link #prepare(int)}, which happens before playback and whenever the
+ * sample rate changes, so {@link #process(double[], int, int)} never allocates.
+ * <br>
+ * The chain calls <i>prepare</i> from {@link EffectChain#prepare(int)},
+ * never from the audio thread.
+ * <br>
+ * State should be transient, it gets rebuilt by <i>prepare</i> after loading.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public interface Effect extends Serializable, Named {
+
+	/**
+	 * Allocate state for some sample rate, and clear it
+	 *
+	 * @param sampleRate sample rate in Hz
+	 */
+	public void prepare(int sampleRate);
+
+	/**
+	 * Process samples in place
+	 *
+	 * @param buffer samples to process
+	 * @param offset index of first sample
+	 * @param count number of samples
+	 */
+	public void process(double[] buffer,int offset,int count);
+
+	/**
+	 * Clear state without reallocating, as if there was silence before
+	 */
+	public void reset();
+
+	/**
+	 * How long the effect can keep producing sound after its input
+	 * goes silent, used so tracks aren't skipped while an effect
+	 * is still ringing
+	 *
+	 * @return tail length in seconds, may be infinite
+	 */
+	public default double getTailLength(){
+		return 0d;
+	}
+
+	/**
+	 * @return true if the effect is currently skipped
+	 */
+	public boolean isBypassed();
+
+	/**
+	 * Turn bypass on or off, may be called from any thread
+	 * <br>
+	 * Should only set a flag, the {@link EffectChain} resets the effect
+	 * on the audio thread when it comes out of bypass so stale audio
+	 * isn't heard
+	 *
+	 * @param bypassed true to skip the effect
+	 */
+	public void setBypassed(boolean bypassed);
+}
@@ -0,0 +1,250 @@
+package core;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Ordered list of insert effects on a track
+ * <br>
+ * Runs each effect in turn on the same buffer. Bypassed effects are
+ * skipped entirely, and a chain with nothing active reports itself
+ * inactive so the track can render straight into its output.
+ * <br>
+ * The chain must be prepared with {@link #prepare(int)} when playback
+ * starts or the sample rate changes, never on the audio thread. Effects
+ * added to a prepared chain through {@link #add(Effect)} are prepared
+ * right away, others are skipped until the next prepare.
+ * <br>
+ * Changes are copy-on-write: adding, removing or preparing publishes a new
+ * immutable snapshot, and the audio thread only ever iterates a snapshot,
+ * so the chain can be edited during playback. Effects coming out of bypass
+ * are reset by the audio thread right before their next block, not by
+ * whoever turned bypass off.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class EffectChain implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The effects, in processing order, only changed while synchronized
+	 * and always followed by a new snapshot
+	 */
+	private final ArrayList<Effect> effects = new ArrayList<>();
+	/**
+	 * What the audio thread reads, null until first prepared
+	 */
+	protected transient volatile Snapshot snapshot;
+
+	/**
+	 * Immutable view of the chain, apart from <i>active</i>
+	 * which only the audio thread writes
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	protected static final class Snapshot{
+		/**
+		 * Sample rate the effects were prepared for, 0 if never
+		 */
+		final int rate;
+		/**
+		 * The effects, in processing order
+		 */
+		final Effect[] effects;
+		/**
+		 * Whether each effect was prepared at <i>rate</i>
+		 */
+		final boolean[] prepared;
+		/**
+		 * Whether each effect was active the last time the audio thread ran it
+		 */
+		final boolean[] active;
+
+		Snapshot(int rate,Effect[] effects,boolean[] prepared,boolean[] active){
+			this.rate = rate;
+			this.effects = effects;
+			this.prepared = prepared;
+			this.active = active;
+		}
+
+		/**
+		 * Find an effect by identity
+		 *
+		 * @param effect the effect
+		 * @return its index, or -1
+		 */
+		int indexOf(Effect effect){
+			for(int i=0;i<effects.length;i++){
+				if(effects[i]==effect)return i;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Publish a new snapshot of the current list, carrying over what the
+	 * old one knew about effects in both
+	 *
+	 * @param rate sample rate for the new snapshot
+	 * @param fresh an effect just prepared at <i>rate</i>, or null
+	 * @param all true if every effect was just prepared at <i>rate</i>
+	 */
+	private void publish(int rate,Effect fresh,boolean all){
+		Snapshot old = snapshot;
+		int n = effects.size();
+		Effect[] next = effects.toArray(new Effect[n]);
+		boolean[] prepared = new boolean[n], active = new boolean[n];
+		for(int i=0;i<n;i++){
+			Effect effect = next[i];
+			int j = old==null?-1:old.indexOf(effect);
+			if(all || effect==fresh){
+				prepared[i] = true;
+				active[i] = j<0 || old.rate!=rate?!effect.isBypassed():old.active[j];
+			}else if(j>=0 && old.rate==rate){
+				prepared[i] = old.prepared[j];
+				active[i] = old.active[j];
+			}
+		}
+		snapshot = new Snapshot(rate,next,prepared,active);
+	}
+
+	/**
+	 * Add an effect to the end of the chain, preparing it
+	 * if the chain is already prepared
+	 *
+	 * @param effect the effect to add
+	 */
+	public synchronized void add(Effect effect){
+		int rate = getPreparedRate();
+		if(rate>0)effect.prepare(rate);
+		effects.add(effect);
+		publish(rate,rate>0?effect:null,false);
+	}
+
+	/**
+	 * Prepare every effect for a sample rate, including bypassed ones
+	 * since they may be turned back on during playback
+	 * <br>
+	 * Call when playback starts or the sample rate changes, it allocates
+	 * and clears all effect state
+	 *
+	 * @param sampleRate sample rate in Hz
+	 */
+	public synchronized void prepare(int sampleRate){
+		for(Effect effect:effects){
+			effect.prepare(sampleRate);
+		}
+		publish(sampleRate,null,true);
+	}
+
+	/**
+	 * @return sample rate the chain was last prepared for, 0 if never
+	 */
+	public int getPreparedRate(){
+		Snapshot lsnapshot = snapshot;
+		return lsnapshot==null?0:lsnapshot.rate;
+	}
+
+	/**
+	 * Remove an effect
+	 *
+	 * @param effect the effect to remove
+	 * @return true if it was in the chain
+	 */
+	public synchronized boolean remove(Effect effect){
+		if(!effects.remove(effect))return false;
+		publish(getPreparedRate(),null,false);
+		return true;
+	}
+
+	/**
+	 * Get the effects
+	 *
+	 * @return a read only copy, in processing order
+	 */
+	public synchronized List<Effect> getEffects(){
+		return Collections.unmodifiableList(new ArrayList<>(effects));
+	}
+
+	/**
+	 * Get the effects without copying when possible
+	 *
+	 * @return the effects in the latest snapshot, do not modify
+	 */
+	private Effect[] current(){
+		Snapshot lsnapshot = snapshot;
+		if(lsnapshot!=null)return lsnapshot.effects;
+		synchronized(this){
+			return effects.toArray(new Effect[effects.size()]);
+		}
+	}
+
+	/**
+	 * @return true if there is at least one prepared effect which isn't bypassed
+	 */
+	public boolean isActive(){
+		Snapshot lsnapshot = snapshot;
+		if(lsnapshot==null)return false;
+		Effect[] leffects = lsnapshot.effects;
+		for(int i=0;i<leffects.length;i++){
+			if(lsnapshot.prepared[i] && !leffects[i].isBypassed())return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Run all active effects which were prepared for this sample rate,
+	 * safe for the audio thread since it never prepares anything
+	 * <br>
+	 * Only one thread may process a chain at a time
+	 *
+	 * @param buffer samples to process in place
+	 * @param offset index of first sample
+	 * @param count number of samples
+	 * @param sampleRate sample rate in Hz
+	 */
+	public void process(double[] buffer,int offset,int count,int sampleRate){
+		Snapshot lsnapshot = snapshot;
+		if(lsnapshot==null || lsnapshot.rate!=sampleRate)return;
+		Effect[] leffects = lsnapshot.effects;
+		boolean[] lprepared = lsnapshot.prepared, lactive = lsnapshot.active;
+		for(int i=0;i<leffects.length;i++){
+			if(!lprepared[i])continue;
+			Effect effect = leffects[i];
+			boolean on = !effect.isBypassed();
+			if(on){
+				// Coming out of bypass, drop whatever was left from before
+				if(!lactive[i])effect.reset();
+				effect.process(buffer, offset, count);
+			}
+			lactive[i] = on;
+		}
+	}
+
+	/**
+	 * Clear the state of all effects
+	 * <br>
+	 * Not for use during playback, the audio thread may be reading the state
+	 */
+	public void reset(){
+		for(Effect effect:current()){
+			effect.reset();
+		}
+	}
+
+	/**
+	 * Total tail length, counting bypassed effects too since they
+	 * may be turned back on
+	 *
+	 * @return tail length in seconds
+	 */
+	public double getTailLength(){
+		double sum = 0d;
+		for(Effect effect:current()){
+			sum += effect.getTailLength();
+		}
+		return sum;
+	}
+}
@@ -60,9 +60,13 @@ public class MetaSamples extends Samples {
 	 * @param original {@link Samples} to copy from
 	 */
 	public MetaSamples(Samples original){
-		super(original.sampleRate,original.sampleData);
+		super(original.sampleRate,original.toArray());
 		spectrumReal = original.spectrumReal;
 		spectrumImag = original.spectrumImag;
+		if(!original.isSpectrumStale() && !original.isSampleDataStale()){
+			syncedSampleVersion = sampleVersion;
+			syncedSpectrumVersion = spectrumVersion;
+		}
 		vars=new HashMap<>();
 		varDict=new PyDictionary();
 		updatePyDict();
@@ -130,7 +134,7 @@ public class MetaSamples extends Samples {
 	 * @return a new {@link MetaSamples} object
 	 */
 	public static MetaSamples blankSamplesFrom(MetaSamples original){
-		MetaSamples result = new MetaSamples(original);
+		MetaSamples result = new MetaSamples(original.sampleRate,new double[original.sampleData.length]);
 		result.composition=original.composition;
 		result.startPos=original.startPos;
 		result.endPos=original.endPos;
@@ -0,0 +1,107 @@
+package core;
+
+import java.util.*;
+
+/**
+ * Reference counted audio buffer, borrowed from a {@link Pool}
+ * <br>
+ * Used while mixing buses: a buffer is taken when its first signal arrives,
+ * retained by everything still going to read it, and goes back to the pool
+ * when the last reader releases it, so buffers are reused across buses
+ * and blocks instead of allocated.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class MixBuffer {
+
+	/**
+	 * The samples, may be longer than what is in use
+	 */
+	public final double[] data;
+	/**
+	 * Pool to return to
+	 */
+	private final Pool pool;
+	/**
+	 * Number of holders
+	 */
+	private int references;
+
+	private MixBuffer(Pool pool,int length){
+		this.pool = pool;
+		data = new double[length];
+	}
+
+	/**
+	 * Add a holder
+	 *
+	 * @return this
+	 */
+	public MixBuffer retain(){
+		if(references<=0)throw new IllegalStateException("Buffer was already released");
+		references++;
+		return this;
+	}
+
+	/**
+	 * @return true if more than one holder has it, in which case
+	 * it must not be modified
+	 */
+	public boolean isShared(){
+		return references>1;
+	}
+
+	/**
+	 * Remove a holder, returning the buffer to the pool if it was the last
+	 */
+	public void release(){
+		if(references<=0)throw new IllegalStateException("Buffer was already released");
+		if(--references==0)pool.free.push(this);
+	}
+
+	/**
+	 * Buffers available for reuse, not thread safe
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static final class Pool{
+		/**
+		 * Released buffers
+		 */
+		private final ArrayDeque<MixBuffer> free = new ArrayDeque<>();
+
+		/**
+		 * Take a zeroed buffer with one reference
+		 *
+		 * @param length minimum length
+		 * @return the buffer
+		 */
+		public MixBuffer acquire(int length){
+			MixBuffer result = null;
+			while(!free.isEmpty()){
+				MixBuffer candidate = free.pop();
+				// Block sizes rarely change, so drop buffers which are too short
+				if(candidate.data.length>=length){
+					result = candidate;
+					break;
+				}
+			}
+			if(result==null){
+				result = new MixBuffer(this,length);
+			}else{
+				Arrays.fill(result.data, 0, length, 0d);
+			}
+			result.references = 1;
+			return result;
+		}
+
+		/**
+		 * Drop all free buffers
+		 */
+		public void clear(){
+			free.clear();
+		}
+	}
+}
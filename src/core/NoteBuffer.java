@@ -0,0 +1,255 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Flat, reusable buffer of note events passed to
+ * {@link Synthesizer#spawnVoices(NoteBuffer, TrackLayerSimple, Session)}
+ * <br>
+ * Each note takes up <i>stride</i> consecutive doubles in one array:
+ * start frame, end frame, pitch, volume, then the clip properties.
+ * Frames are sample offsets relative to the start of the current block,
+ * may be fractional, and may be negative for notes which started earlier.
+ * Notes with fewer properties than the stride are padded with
+ * {@link Clip#DEFAULT_VALUE}.
+ * <br>
+ * Owned by whoever schedules notes (see {@link TrackLayerSimple}) and
+ * cleared between uses, so once it has grown large enough no further
+ * allocation happens. Synthesizers should read it during the call
+ * and not keep a reference.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class NoteBuffer {
+
+	/**
+	 * Offset of the start frame within a note
+	 */
+	public static final int START = 0;
+	/**
+	 * Offset of the end frame within a note
+	 */
+	public static final int END = 1;
+	/**
+	 * Offset of the pitch within a note
+	 */
+	public static final int PITCH = 2;
+	/**
+	 * Offset of the volume within a note
+	 */
+	public static final int VOLUME = 3;
+	/**
+	 * Offset of the first property within a note
+	 */
+	public static final int PROPERTIES = 4;
+
+	/**
+	 * Note data, <i>stride</i> values per note
+	 */
+	protected double[] data;
+	/**
+	 * Actual property count of each note
+	 */
+	protected int[] propertyCounts;
+	/**
+	 * Number of doubles per note
+	 */
+	protected int stride;
+	/**
+	 * Number of notes currently held
+	 */
+	protected int count;
+	/**
+	 * Frames per second, used to convert frames to seconds
+	 */
+	public int sampleRate;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param capacity how many notes to make room for
+	 * @param propertyCount how many properties to make room for
+	 * @param sampleRate frames per second
+	 */
+	public NoteBuffer(int capacity,int propertyCount,int sampleRate){
+		if(capacity<1)capacity=1;
+		if(propertyCount<0)propertyCount=0;
+		stride = PROPERTIES+propertyCount;
+		data = new double[capacity*stride];
+		propertyCounts = new int[capacity];
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Remove all notes, keeping the allocated space
+	 */
+	public void clear(){
+		count = 0;
+	}
+
+	/**
+	 * @return number of notes
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * @return number of doubles per note
+	 */
+	public int stride(){
+		return stride;
+	}
+
+	/**
+	 * Get the backing array for direct reads
+	 * <br>
+	 * Note <i>i</i> starts at <i>i*stride()</i>. Only valid until
+	 * the next call which adds notes.
+	 *
+	 * @return the backing array
+	 */
+	public double[] data(){
+		return data;
+	}
+
+	/**
+	 * Add a note whose properties are taken from a clip
+	 *
+	 * @param clip clip supplying pitch, volume and properties
+	 * @param startFrame start, in frames relative to the block
+	 * @param endFrame end, in frames relative to the block
+	 * @return index of the new note
+	 */
+	public int add(Clip clip,double startFrame,double endFrame){
+		int nproperties = clip.countProperties();
+		int index = add(startFrame,endFrame,clip.pitch,clip.volume,nproperties);
+		int offset = index*stride+PROPERTIES;
+		for(int i=0;i<nproperties;i++){
+			data[offset+i] = clip.getProperty(i);
+		}
+		return index;
+	}
+
+	/**
+	 * Add a note, properties are set to the default value
+	 *
+	 * @param startFrame start, in frames relative to the block
+	 * @param endFrame end, in frames relative to the block
+	 * @param pitch pitch in semitones from A4
+	 * @param volume volume offset
+	 * @param propertyCount number of properties the note has
+	 * @return index of the new note
+	 */
+	public int add(double startFrame,double endFrame,double pitch,double volume,int propertyCount){
+		ensureCapacity(count+1,propertyCount);
+		int index = count++;
+		int offset = index*stride;
+		data[offset+START] = startFrame;
+		data[offset+END] = endFrame;
+		data[offset+PITCH] = pitch;
+		data[offset+VOLUME] = volume;
+		Arrays.fill(data, offset+PROPERTIES, offset+stride, Clip.DEFAULT_VALUE);
+		propertyCounts[index] = propertyCount;
+		return index;
+	}
+
+	/**
+	 * Make room for some number of notes with some number of properties
+	 *
+	 * @param notes minimum note capacity
+	 * @param propertyCount minimum property capacity
+	 */
+	public void ensureCapacity(int notes,int propertyCount){
+		int newStride = Math.max(stride, PROPERTIES+propertyCount);
+		int capacity = propertyCounts.length;
+		if(newStride!=stride){
+			// Re-stride existing notes
+			int newCapacity = Math.max(capacity, notes);
+			double[] newData = new double[newCapacity*newStride];
+			for(int i=0;i<count;i++){
+				int from = i*stride, to = i*newStride;
+				System.arraycopy(data, from, newData, to, stride);
+				Arrays.fill(newData, to+stride, to+newStride, Clip.DEFAULT_VALUE);
+			}
+			data = newData;
+			stride = newStride;
+			if(newCapacity!=capacity)propertyCounts = Arrays.copyOf(propertyCounts, newCapacity);
+		}else if(notes>capacity){
+			int newCapacity = Math.max(notes, capacity<<1);
+			data = Arrays.copyOf(data, newCapacity*stride);
+			propertyCounts = Arrays.copyOf(propertyCounts, newCapacity);
+		}
+	}
+
+	/**
+	 * @param note note index
+	 * @return start frame
+	 */
+	public double getStart(int note){
+		return data[note*stride+START];
+	}
+
+	/**
+	 * @param note note index
+	 * @return end frame
+	 */
+	public double getEnd(int note){
+		return data[note*stride+END];
+	}
+
+	/**
+	 * @param note note index
+	 * @return pitch in semitones from A4
+	 */
+	public double getPitch(int note){
+		return data[note*stride+PITCH];
+	}
+
+	/**
+	 * @param note note index
+	 * @return volume offset
+	 */
+	public double getVolume(int note){
+		return data[note*stride+VOLUME];
+	}
+
+	/**
+	 * @param note note index
+	 * @param key property index
+	 * @return property value, or the default if it is outside the stride
+	 */
+	public double getProperty(int note,int key){
+		return key<stride-PROPERTIES?data[note*stride+PROPERTIES+key]:Clip.DEFAULT_VALUE;
+	}
+
+	/**
+	 * @param note note index
+	 * @return how many properties the note actually has
+	 */
+	public int getPropertyCount(int note){
+		return propertyCounts[note];
+	}
+
+	/**
+	 * Legacy adapter, converts to the array of arrays format
+	 * used by {@link Synthesizer#spawnVoices(double[][], TrackLayerSimple, Session)}
+	 * <br>
+	 * Times are converted back to seconds relative to the block
+	 *
+	 * @return [start,end,pitch,volume,other parameters] for each note
+	 */
+	public double[][] toArrays(){
+		double invRate = 1d/sampleRate;
+		double[][] result = new double[count][];
+		for(int i=0;i<count;i++){
+			int offset = i*stride;
+			double[] row = Arrays.copyOfRange(data, offset, offset+PROPERTIES+propertyCounts[i]);
+			row[START] *= invRate;
+			row[END] *= invRate;
+			result[i] = row;
+		}
+		return result;
+	}
+}
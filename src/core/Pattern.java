@@ -86,14 +86,21 @@ public class Pattern implements Destructable, TransientContainer<Composition>, N
 	 * {@link util.ds.NamedMap#nextName(String, int, boolean, Session)}.
 	 * <br>
 	 * Note that for the default synthesizer this creates an instance of
-	 * {@link SynthNOsc} and adds it to the composition's synthesizers for use.
+	 * {@link SynthNOsc} (or if that was not discovered, the first
+	 * {@link SynthesizerProvider} available) and adds it to the
+	 * composition's synthesizers for use.
 	 * 
 	 * @param session
 	 * @return
 	 */
 	public static Pattern makeDefaultPattern(Session session){
 		// synth
-		Synthesizer synth = SynthNOsc.makeDefaultSynth(session);
+		SynthesizerProvider provider = SynthesizerProvider.getProvider(SynthNOsc.class);
+		if(provider==null){
+			List<SynthesizerProvider> providers = SynthesizerProvider.getProviders();
+			if(!providers.isEmpty())provider = providers.get(0);
+		}
+		Synthesizer synth = provider==null?SynthNOsc.makeDefaultSynth(session):provider.create(session);
 		String synthName = synth.getName();
 		Synthesizer.Specification synthSpec = Synthesizer.specWrap(synth);
 		session.composition.addSynth(synthName, synth, synthSpec);
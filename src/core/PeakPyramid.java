@@ -0,0 +1,292 @@
+package core;
+
+/**
+ * Minimum, maximum and RMS of a {@link Samples} at every power of 2 zoom level,
+ * for drawing waveforms
+ * <br>
+ * Level 0 summarizes blocks of <i>2^BASE_SHIFT</i> samples, and each level
+ * above combines pairs of blocks from the one below, so any zoom level can
+ * be drawn by reading about one block per pixel regardless of the length.
+ * Zooming in closer than level 0 reads the samples directly, which is
+ * also cheap since few are visible.
+ * <br>
+ * Built on first use, and afterwards only the blocks covering the samples'
+ * modified range (see {@link Samples#getModifiedRange(long)}) and their
+ * ancestors are recomputed. Memory is under 1/64 of the samples.
+ * <br>
+ * Thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class PeakPyramid {
+
+	/**
+	 * Log base 2 of the samples per level 0 block
+	 */
+	public static final int BASE_SHIFT = 8;
+	/**
+	 * Samples per level 0 block
+	 */
+	public static final int BASE_SIZE = 1<<BASE_SHIFT;
+
+	/**
+	 * The samples summarized
+	 */
+	public final Samples samples;
+	/**
+	 * Length of the samples when last built
+	 */
+	protected int length;
+	/**
+	 * Sample version last built from, or -1 if never built
+	 */
+	protected long version = -1;
+	/**
+	 * Block minimums and maximums, indexed by level then block
+	 */
+	protected float[][] minimum, maximum;
+	/**
+	 * Block sums of squares, indexed by level then block
+	 */
+	protected double[][] squares;
+
+	/**
+	 * Standard constructor, nothing is built until used
+	 *
+	 * @param samples the samples to summarize
+	 */
+	public PeakPyramid(Samples samples){
+		this.samples = samples;
+	}
+
+	/**
+	 * Bring up to date with the samples, recomputing only what changed
+	 * <br>
+	 * Called automatically by {@link #query(double, double, int, float[], float[], float[])}
+	 */
+	public synchronized void update(){
+		synchronized(samples){
+			int newLength = samples.length();
+			long newVersion = samples.getSampleVersion();
+			int start, end;
+			if(version<0 || newLength!=length){
+				allocate(newLength);
+				start = 0;
+				end = newLength;
+			}else{
+				int[] range = samples.getModifiedRange(version);
+				if(range==null)return;
+				start = range[0];
+				end = range[1];
+			}
+			version = newVersion;
+			if(end>start)rebuild(start>>>BASE_SHIFT, ((end-1)>>>BASE_SHIFT)+1);
+		}
+	}
+
+	/**
+	 * Make empty levels for some length
+	 *
+	 * @param newLength number of samples
+	 */
+	protected void allocate(int newLength){
+		length = newLength;
+		int levels = 1;
+		for(long blocks=blockCount(newLength,0);blocks>1;blocks=(blocks+1)>>1)levels++;
+		minimum = new float[levels][];
+		maximum = new float[levels][];
+		squares = new double[levels][];
+		for(int level=0;level<levels;level++){
+			int blocks = blockCount(newLength,level);
+			minimum[level] = new float[blocks];
+			maximum[level] = new float[blocks];
+			squares[level] = new double[blocks];
+		}
+	}
+
+	/**
+	 * @param length number of samples
+	 * @param level level
+	 * @return number of blocks in the level
+	 */
+	protected static int blockCount(int length,int level){
+		int shift = BASE_SHIFT+level;
+		return (int)((((long)length)+(1L<<shift)-1)>>>shift);
+	}
+
+	/**
+	 * Recompute some level 0 blocks and everything above them
+	 *
+	 * @param first first level 0 block
+	 * @param last level 0 block after the last one
+	 */
+	protected void rebuild(int first,int last){
+		SampleStorage storage = samples.getStorage();
+		float[] lmin = minimum[0], lmax = maximum[0];
+		double[] lsquares = squares[0];
+		// Read several blocks at a time
+		double[] buffer = new double[Math.min(last-first, 1<<6)<<BASE_SHIFT];
+		for(int b=first;b<last;){
+			int from = b<<BASE_SHIFT;
+			int count = Math.min(buffer.length, length-from);
+			storage.read(from, buffer, 0, count);
+			for(int i=0;i<count;b++){
+				int end = Math.min(i+BASE_SIZE, count);
+				double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY, sum = 0d;
+				for(;i<end;i++){
+					double v = buffer[i];
+					if(v<low)low = v;
+					if(v>high)high = v;
+					sum += v*v;
+				}
+				lmin[b] = (float)low;
+				lmax[b] = (float)high;
+				lsquares[b] = sum;
+			}
+		}
+		for(int level=1;level<minimum.length;level++){
+			first >>>= 1;
+			last = ((last-1)>>>1)+1;
+			float[] cmin = minimum[level-1], cmax = maximum[level-1];
+			double[] csquares = squares[level-1];
+			lmin = minimum[level];
+			lmax = maximum[level];
+			lsquares = squares[level];
+			int children = cmin.length;
+			for(int p=first;p<last;p++){
+				int a = p<<1, b = a+1;
+				if(b<children){
+					lmin[p] = Math.min(cmin[a], cmin[b]);
+					lmax[p] = Math.max(cmax[a], cmax[b]);
+					lsquares[p] = csquares[a]+csquares[b];
+				}else{
+					lmin[p] = cmin[a];
+					lmax[p] = cmax[a];
+					lsquares[p] = csquares[a];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of levels, 0 if not built yet
+	 */
+	public synchronized int getLevels(){
+		return minimum==null?0:minimum.length;
+	}
+
+	/**
+	 * Pick the level to draw at some zoom
+	 *
+	 * @param samplesPerPixel samples covered by each pixel
+	 * @return the coarsest level with blocks no larger than a pixel,
+	 * or -1 if even level 0 is too coarse and samples should be read directly
+	 */
+	public static int levelFor(double samplesPerPixel){
+		if(!(samplesPerPixel>=BASE_SIZE))return -1;
+		int level = 0;
+		while(level<30-BASE_SHIFT && (double)(BASE_SIZE<<(level+1))<=samplesPerPixel)level++;
+		return level;
+	}
+
+	/**
+	 * Get the waveform for a row of pixels
+	 * <br>
+	 * Pixel <i>i</i> covers samples from <i>start+i*samplesPerPixel</i>
+	 * up to the next pixel. Pixels outside the samples are 0.
+	 *
+	 * @param start first sample index, may be fractional
+	 * @param samplesPerPixel samples covered by each pixel
+	 * @param pixels number of pixels
+	 * @param min array for each pixel's minimum, or null
+	 * @param max array for each pixel's maximum, or null
+	 * @param rms array for each pixel's RMS, or null
+	 */
+	public void query(double start,double samplesPerPixel,int pixels,float[] min,float[] max,float[] rms){
+		update();
+		int level = levelFor(samplesPerPixel);
+		if(level<0){
+			queryDirect(start,samplesPerPixel,pixels,min,max,rms);
+			return;
+		}
+		synchronized(this){
+			if(level>=minimum.length)level = minimum.length-1;
+			float[] lmin = minimum[level], lmax = maximum[level];
+			double[] lsquares = squares[level];
+			int shift = BASE_SHIFT+level, blocks = lmin.length;
+			for(int i=0;i<pixels;i++){
+				double from = start+i*samplesPerPixel, to = from+samplesPerPixel;
+				long first = (long)Math.floor(from)>>shift, last = ((long)Math.ceil(to)-1)>>shift;
+				if(first<0)first = 0;
+				if(last>=blocks)last = blocks-1;
+				float low = 0f, high = 0f;
+				double sum = 0d;
+				long count = 0;
+				if(first<=last){
+					low = Float.POSITIVE_INFINITY;
+					high = Float.NEGATIVE_INFINITY;
+					for(int b=(int)first;b<=last;b++){
+						if(lmin[b]<low)low = lmin[b];
+						if(lmax[b]>high)high = lmax[b];
+						sum += lsquares[b];
+					}
+					count = Math.min((last+1)<<shift, length)-(first<<shift);
+				}
+				if(min!=null)min[i] = low;
+				if(max!=null)max[i] = high;
+				if(rms!=null)rms[i] = count>0?(float)Math.sqrt(sum/count):0f;
+			}
+		}
+	}
+
+	/**
+	 * Query by reading the samples, for zooms closer than level 0
+	 *
+	 * @param start first sample index, may be fractional
+	 * @param samplesPerPixel samples covered by each pixel
+	 * @param pixels number of pixels
+	 * @param min array for each pixel's minimum, or null
+	 * @param max array for each pixel's maximum, or null
+	 * @param rms array for each pixel's RMS, or null
+	 */
+	protected void queryDirect(double start,double samplesPerPixel,int pixels,float[] min,float[] max,float[] rms){
+		double[] data;
+		int offset;
+		synchronized(samples){
+			int total = samples.length();
+			offset = (int)Math.max(0d, Math.floor(start));
+			int end = (int)Math.min(total, Math.ceil(start+samplesPerPixel*pixels)+1d);
+			data = new double[Math.max(0, end-offset)];
+			if(data.length>0)samples.getStorage().read(offset, data, 0, data.length);
+		}
+		for(int i=0;i<pixels;i++){
+			double from = start+i*samplesPerPixel, to = from+samplesPerPixel;
+			int first = (int)Math.floor(from)-offset, last = (int)Math.ceil(to)-1-offset;
+			// Always cover at least the sample the pixel is in, when zoomed past 1 sample per pixel
+			if(last<first)last = first;
+			if(first<0)first = 0;
+			if(last>=data.length)last = data.length-1;
+			double low = 0d, high = 0d, sum = 0d;
+			if(first<=last){
+				low = Double.POSITIVE_INFINITY;
+				high = Double.NEGATIVE_INFINITY;
+				for(int j=first;j<=last;j++){
+					double v = data[j];
+					if(v<low)low = v;
+					if(v>high)high = v;
+					sum += v*v;
+				}
+			}
+			int count = last-first+1;
+			if(min!=null)min[i] = (float)low;
+			if(max!=null)max[i] = (float)high;
+			if(rms!=null)rms[i] = count>0?(float)Math.sqrt(sum/count):0f;
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "<PeakPyramid of "+length+" samples, "+getLevels()+" levels>";
+	}
+}
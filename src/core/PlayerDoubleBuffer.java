@@ -155,7 +155,11 @@ public class PlayerDoubleBuffer implements Player {
 						long timeout = (long)(secondLength*1000d)+1;
 						MetaSamples copySamples = MetaSamples.blankSamples(44100,bufferSize);
 						doubleBuffer[1] = copySamples.sampleData;
+						//Effects allocate here, not while rendering
+						track.prepareEffects((int)sampleRate);
 						copySamples.composition = track.parentComposition();
+						//Drop anything sent to buses before, a track other than the root leaves sends unmixed
+						if(copySamples.composition!=null)copySamples.composition.tracks.clearBuses();
 						copySamples.length = secondLength;
 						copySamples.endPos = timeBounds[0];
 						copySamples.pushToNext();
@@ -220,13 +224,13 @@ public class PlayerDoubleBuffer implements Player {
 		boolean bigEndian = true;
 		
 		int bufferSize = session.getBufferSize();
-		int bufferBytes = bufferSize*2;
-		double timeMult = 0.5d/sampleRate;// halved because 2 bytes per sample
+		double timeMult = 1d/sampleRate;
 		
-		double[] audioDataDouble = samples.sampleData;
-		int sampleCount = audioDataDouble.length;
-		int sampleBytes = sampleCount*2;
-		byte[] audioData = new byte[sampleBytes];
+		//Converted a block at a time, so samples which aren't on the heap stay there
+		SampleStorage storage = samples.getStorage();
+		int sampleCount = storage.length();
+		double[] block = new double[bufferSize];
+		byte[] audioData = new byte[bufferSize*2];
 		
 		ByteBuffer byteBuffer;
 		ShortBuffer shortBuffer;
@@ -234,10 +238,6 @@ public class PlayerDoubleBuffer implements Player {
 		byteBuffer = ByteBuffer.wrap(audioData);
 		shortBuffer = byteBuffer.asShortBuffer();
 		
-		for(double v:audioDataDouble){
-			shortBuffer.put((short) (v*volume));
-		}
-		
 		audioFormat = new AudioFormat(sampleRate,sampleSizeInBits,channels,signed,bigEndian);
 		DataLine.Info dataLineInfo = new DataLine.Info(SourceDataLine.class,audioFormat);
 		//Get a SourceDataLine object
@@ -249,13 +249,15 @@ public class PlayerDoubleBuffer implements Player {
 				sourceDataLine.start();
 
 				while(cont){
-					int start = 0, end = 0;
-					while(start<sampleBytes){
-						start=end;
-						end=Math.min(sampleBytes, start+bufferBytes);
-						int transferBytes = end-start;
+					for(int start=0;start<sampleCount;start+=bufferSize){
+						int count = Math.min(bufferSize, sampleCount-start);
+						storage.read(start, block, 0, count);
+						shortBuffer.clear();
+						for(int i=0;i<count;i++){
+							shortBuffer.put((short) (block[i]*volume));
+						}
 						currentTime=start*timeMult;// keep time updated
-						sourceDataLine.write(audioData, start, transferBytes);
+						sourceDataLine.write(audioData, 0, count*2);
 					}
 					if(!loop){
 						break;
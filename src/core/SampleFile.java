@@ -0,0 +1,374 @@
+package core;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sampled sound backed by a memory-mapped file rather than the heap
+ * <br>
+ * Supports WAV (integer PCM of 8, 16, 24 or 32 bits, or 32/64 bit float)
+ * and headerless raw PCM. Multiple channels are mixed down to mono when read.
+ * <br>
+ * The first few frames (the attack) are decoded onto the heap when the file is
+ * opened, so a note can start without touching the disk. Everything after is
+ * read straight from the mapping, and {@link #prefetch(long, int)} lets a voice
+ * ask a background thread to fault in the pages it will need next.
+ * <br>
+ * Instances are shared: {@link #open(Path, int)} returns the same object for the
+ * same file while it is in use, and {@link #release()} unmaps it once nobody holds
+ * it. Reading is thread safe.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class SampleFile {
+
+	/**
+	 * Default number of frames to keep on the heap
+	 */
+	public static final int DEFAULT_ATTACK_FRAMES = 1<<13;
+	/**
+	 * Bytes per mapped segment, files larger than this are
+	 * mapped in multiple pieces
+	 */
+	private static final int SEGMENT_BYTES = 1<<30;
+	/**
+	 * Assumed page size for prefetching
+	 */
+	private static final int PAGE_BYTES = 1<<12;
+
+	/**
+	 * Open files by absolute path
+	 */
+	private static final HashMap<Path,SampleFile> shared = new HashMap<>();
+
+	/**
+	 * Background thread which touches pages ahead of playback
+	 */
+	private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SampleFile prefetch");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	/**
+	 * Source file
+	 */
+	public final Path path;
+	/**
+	 * Sample rate in Hz
+	 */
+	public final int sampleRate;
+	/**
+	 * Number of interleaved channels
+	 */
+	public final int channels;
+	/**
+	 * Bytes per sample of one channel
+	 */
+	public final int sampleBytes;
+	/**
+	 * True if samples are IEEE floats rather than integers
+	 */
+	public final boolean isFloat;
+	/**
+	 * Number of frames
+	 */
+	public final long frames;
+	/**
+	 * Frames mixed down and decoded onto the heap
+	 */
+	protected final double[] attack;
+
+	/**
+	 * Mapped data, each segment covering <i>framesPerSegment</i> frames
+	 */
+	protected final MappedByteBuffer[] segments;
+	/**
+	 * Frames covered by each segment
+	 */
+	protected final int framesPerSegment;
+	/**
+	 * Bytes per frame
+	 */
+	protected final int frameBytes;
+	/**
+	 * Multiplier to bring integer samples into [-1, 1], also
+	 * divides by the channel count to mix down
+	 */
+	protected final double scale;
+	/**
+	 * Number of users, unmapped when this reaches 0
+	 */
+	protected int references;
+
+	/**
+	 * Map part of a file
+	 *
+	 * @param path the file
+	 * @param dataOffset byte offset of the first frame
+	 * @param dataLength length of the sample data in bytes
+	 * @param sampleRate sample rate in Hz
+	 * @param channels number of interleaved channels
+	 * @param sampleBytes bytes per sample, 1 to 4, or 8 for doubles
+	 * @param isFloat true for IEEE float data
+	 * @param bigEndian byte order
+	 * @param attackFrames number of frames to keep on the heap
+	 * @throws IOException if reading or mapping fails
+	 */
+	protected SampleFile(Path path,long dataOffset,long dataLength,int sampleRate,int channels,int sampleBytes,boolean isFloat,boolean bigEndian,int attackFrames) throws IOException{
+		if(channels<1)throw new IllegalArgumentException("Channel count ("+channels+") must be positive");
+		if(isFloat?(sampleBytes!=4&&sampleBytes!=8):(sampleBytes<1||sampleBytes>4))
+			throw new IllegalArgumentException("Unsupported sample size ("+sampleBytes+" bytes"+(isFloat?", float)":")"));
+		this.path = path;
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.sampleBytes = sampleBytes;
+		this.isFloat = isFloat;
+		frameBytes = channels*sampleBytes;
+		frames = dataLength/frameBytes;
+		framesPerSegment = SEGMENT_BYTES/frameBytes;
+		scale = (isFloat?1d:Math.pow(2d, 1-8*sampleBytes))/channels;
+		int nsegments = (int)((frames+framesPerSegment-1)/framesPerSegment);
+		segments = new MappedByteBuffer[nsegments];
+		ByteOrder order = bigEndian?ByteOrder.BIG_ENDIAN:ByteOrder.LITTLE_ENDIAN;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			for(int i=0;i<nsegments;i++){
+				long first = (long)i*framesPerSegment;
+				long count = Math.min(framesPerSegment, frames-first);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset+first*frameBytes, count*frameBytes);
+				segments[i].order(order);
+			}
+		}
+		int nattack = (int)Math.min(Math.max(attackFrames, 0), frames);
+		attack = new double[nattack];
+		for(int i=0;i<nattack;i++)
+			attack[i] = readMapped(i);
+	}
+
+	/**
+	 * Open a WAV file, or get the already open instance
+	 * <br>
+	 * Each successful call must be matched by a call to {@link #release()}
+	 *
+	 * @param path the file
+	 * @param attackFrames number of frames to keep on the heap, only used if
+	 * the file is not already open
+	 * @return the shared instance
+	 * @throws IOException if the file can't be read or isn't a supported WAV file
+	 */
+	public static SampleFile open(Path path,int attackFrames) throws IOException{
+		Path key = path.toAbsolutePath().normalize();
+		synchronized(shared){
+			SampleFile result = shared.get(key);
+			if(result==null){
+				result = readWav(key,attackFrames);
+				shared.put(key, result);
+			}
+			result.references++;
+			return result;
+		}
+	}
+
+	/**
+	 * Open a headerless PCM file, or get the already open instance
+	 * <br>
+	 * Each successful call must be matched by a call to {@link #release()}
+	 *
+	 * @param path the file
+	 * @param sampleRate sample rate in Hz
+	 * @param channels number of interleaved channels
+	 * @param sampleBytes bytes per sample
+	 * @param isFloat true for IEEE float data
+	 * @param bigEndian byte order
+	 * @param attackFrames number of frames to keep on the heap
+	 * @return the shared instance
+	 * @throws IOException if the file can't be read
+	 */
+	public static SampleFile openRaw(Path path,int sampleRate,int channels,int sampleBytes,boolean isFloat,boolean bigEndian,int attackFrames) throws IOException{
+		Path key = path.toAbsolutePath().normalize();
+		synchronized(shared){
+			SampleFile result = shared.get(key);
+			if(result==null){
+				result = new SampleFile(key,0,Files.size(key),sampleRate,channels,sampleBytes,isFloat,bigEndian,attackFrames);
+				shared.put(key, result);
+			}
+			result.references++;
+			return result;
+		}
+	}
+
+	/**
+	 * Stop using this file, the mapping is dropped
+	 * once every user has released it
+	 */
+	public void release(){
+		synchronized(shared){
+			if(references>0 && --references==0){
+				shared.remove(path);
+			}
+		}
+	}
+
+	/**
+	 * Parse the RIFF header and map the data chunk
+	 *
+	 * @param path the file
+	 * @param attackFrames number of frames to keep on the heap
+	 * @return new instance
+	 * @throws IOException if the file can't be read or isn't a supported WAV file
+	 */
+	protected static SampleFile readWav(Path path,int attackFrames) throws IOException{
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			long size = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			if(header.getInt(0)!=0x46464952 || header.getInt(8)!=0x45564157)// "RIFF", "WAVE"
+				throw new IOException(path+" is not a WAV file");
+			ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			int format = -1, channels = 0, sampleRate = 0, bits = 0;
+			long position = 12;
+			while(position+8<=size){
+				chunk.clear();
+				readFully(channel, chunk, position);
+				int id = chunk.getInt(0);
+				long length = chunk.getInt(4)&0xffffffffL;
+				position += 8;
+				if(id==0x20746d66){// "fmt "
+					ByteBuffer fmt = ByteBuffer.allocate((int)Math.min(length, 40)).order(ByteOrder.LITTLE_ENDIAN);
+					readFully(channel, fmt, position);
+					format = fmt.getShort(0)&0xffff;
+					channels = fmt.getShort(2)&0xffff;
+					sampleRate = fmt.getInt(4);
+					bits = fmt.getShort(14)&0xffff;
+					if(format==0xfffe && fmt.capacity()>=26)// WAVE_FORMAT_EXTENSIBLE, real format is in the GUID
+						format = fmt.getShort(24)&0xffff;
+				}else if(id==0x61746164){// "data"
+					if(format<0)throw new IOException(path+" has no format chunk before its data");
+					if(format!=1&&format!=3)throw new IOException(path+" uses unsupported WAV format "+format);
+					length = Math.min(length, size-position);
+					return new SampleFile(path,position,length,sampleRate,channels,bits>>3,format==3,false,attackFrames);
+				}
+				position += length+(length&1);// Chunks are word aligned
+			}
+			throw new IOException(path+" has no data chunk");
+		}
+	}
+
+	/**
+	 * Fill a buffer from a channel at some position
+	 *
+	 * @param channel channel to read from
+	 * @param buffer buffer to fill
+	 * @param position position in the channel
+	 * @throws IOException if the end is reached first
+	 */
+	private static void readFully(FileChannel channel,ByteBuffer buffer,long position) throws IOException{
+		while(buffer.hasRemaining()){
+			int read = channel.read(buffer, position);
+			if(read<0)throw new EOFException();
+			position += read;
+		}
+	}
+
+	/**
+	 * Get one frame, mixed down to mono
+	 * <br>
+	 * Returns 0 outside of the file
+	 *
+	 * @param frame frame index
+	 * @return sample value
+	 */
+	public double frameAt(long frame){
+		if(frame<0||frame>=frames)return 0d;
+		if(frame<attack.length)return attack[(int)frame];
+		return readMapped(frame);
+	}
+
+	/**
+	 * Copy consecutive frames, mixed down to mono
+	 * <br>
+	 * Frames outside of the file are 0
+	 *
+	 * @param frame first frame index
+	 * @param target array to write to
+	 * @param offset index in <i>target</i> to start at
+	 * @param count number of frames
+	 */
+	public void read(long frame,double[] target,int offset,int count){
+		int i = 0;
+		for(;i<count && frame+i<0;i++)target[offset+i] = 0d;
+		int nattack = attack.length;
+		for(;i<count && frame+i<nattack;i++)target[offset+i] = attack[(int)(frame+i)];
+		for(;i<count && frame+i<frames;i++)target[offset+i] = readMapped(frame+i);
+		for(;i<count;i++)target[offset+i] = 0d;
+	}
+
+	/**
+	 * Ask the background thread to fault in the pages
+	 * for some range of frames, returns immediately
+	 *
+	 * @param frame first frame index
+	 * @param count number of frames
+	 */
+	public void prefetch(long frame,int count){
+		long first = Math.max(frame, attack.length), last = Math.min(frame+count, frames);
+		if(first>=last)return;
+		prefetcher.execute(() -> {
+			int step = Math.max(1, PAGE_BYTES/frameBytes);
+			for(long i=first;i<last;i+=step){
+				segments[(int)(i/framesPerSegment)].get((int)(i%framesPerSegment)*frameBytes);
+			}
+		});
+	}
+
+	/**
+	 * Decode one frame from the mapping
+	 *
+	 * @param frame frame index, must be valid
+	 * @return sample value
+	 */
+	protected double readMapped(long frame){
+		ByteBuffer segment = segments[(int)(frame/framesPerSegment)];
+		int index = (int)(frame%framesPerSegment)*frameBytes;
+		double sum = 0d;
+		for(int c=0;c<channels;c++,index+=sampleBytes){
+			switch(sampleBytes){
+			case 1:{// 8 bit WAV is unsigned
+				sum += (segment.get(index)&0xff)-128;
+				break;
+			}
+			case 2:{
+				sum += segment.getShort(index);
+				break;
+			}
+			case 3:{
+				int b0 = segment.get(index)&0xff, b1 = segment.get(index+1)&0xff, b2 = segment.get(index+2);
+				sum += segment.order()==ByteOrder.LITTLE_ENDIAN
+						?(b2<<16|b1<<8|b0)
+						:((b0<<24>>8)|b1<<8|(b2&0xff));
+				break;
+			}
+			case 4:{
+				sum += isFloat?segment.getFloat(index):segment.getInt(index);
+				break;
+			}
+			case 8:{
+				sum += segment.getDouble(index);
+				break;
+			}
+			}
+		}
+		return sum*scale;
+	}
+
+	@Override
+	public String toString(){
+		return "<SampleFile "+path+" ("+frames+" frames at "+sampleRate+"Hz)>";
+	}
+}
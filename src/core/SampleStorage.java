@@ -0,0 +1,116 @@
+package core;
+
+import java.io.Closeable;
+
+/**
+ * Where the sample data of a {@link Samples} lives
+ * <br>
+ * Data on the heap is fastest to access, but long recordings on the heap
+ * make garbage collection slow since they end up in the old generation
+ * and get copied around. Other storages keep the data off the heap
+ * (see {@link core.storage.DirectStorage}) or in a file mapped into
+ * memory (see {@link core.storage.MappedStorage}).
+ * <br>
+ * Access is by index, single values or blocks. Blocks should be preferred,
+ * single values from storage off the heap are much slower than array reads.
+ * <br>
+ * Not thread safe for writes, reads may happen from any number of threads
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public interface SampleStorage extends Closeable {
+
+	/**
+	 * @return number of samples
+	 */
+	public int length();
+
+	/**
+	 * Read one sample
+	 *
+	 * @param index sample index
+	 * @return the value
+	 */
+	public double get(int index);
+
+	/**
+	 * Write one sample
+	 *
+	 * @param index sample index
+	 * @param value the value
+	 */
+	public void set(int index,double value);
+
+	/**
+	 * Read a block of samples
+	 *
+	 * @param index index of the first sample to read
+	 * @param target array to write to
+	 * @param offset index in <i>target</i> of the first sample
+	 * @param count number of samples
+	 */
+	public void read(int index,double[] target,int offset,int count);
+
+	/**
+	 * Write a block of samples
+	 *
+	 * @param index index of the first sample to write
+	 * @param source array to read from
+	 * @param offset index in <i>source</i> of the first sample
+	 * @param count number of samples
+	 */
+	public void write(int index,double[] source,int offset,int count);
+
+	/**
+	 * Add a block to the samples
+	 *
+	 * @param index index of the first sample to add to
+	 * @param source array to read from
+	 * @param offset index in <i>source</i> of the first sample
+	 * @param count number of samples
+	 */
+	public default void add(int index,double[] source,int offset,int count){
+		double[] block = new double[Math.min(count, Samples.LAYER_BLOCK_SIZE)];
+		while(count>0){
+			int piece = Math.min(count, block.length);
+			read(index, block, 0, piece);
+			for(int i=0;i<piece;i++){
+				block[i] += source[offset+i];
+			}
+			write(index, block, 0, piece);
+			index += piece;
+			offset += piece;
+			count -= piece;
+		}
+	}
+
+	/**
+	 * @return the backing array if the data is on the heap, otherwise null
+	 */
+	public default double[] array(){
+		return null;
+	}
+
+	/**
+	 * Copy all samples into a new array on the heap,
+	 * or get the backing array if there is one
+	 *
+	 * @return the samples
+	 */
+	public default double[] toArray(){
+		double[] result = array();
+		if(result==null){
+			result = new double[length()];
+			read(0, result, 0, result.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Release the storage, it can't be used after
+	 */
+	@Override
+	public default void close(){
+	}
+}
@@ -1,7 +1,10 @@
 package core;
 
+import java.io.*;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
+import core.storage.*;
 import util.*;
 import util.hash.HashTriArx;
 import util.hash.QuickKeyGen;
@@ -9,6 +12,12 @@ import util.math.*;
 
 /**
  * Sampled sound
+ * <br>
+ * Usually the samples are an array on the heap, <i>sampleData</i>. Long
+ * recordings can instead live in a {@link SampleStorage} off the heap,
+ * in which case <i>sampleData</i> is null and all methods here go through
+ * the storage. Code which may get such samples should use
+ * {@link #getStorage()} or {@link #toArray()} instead of the field.
  * 
  * @author EPICI
  * @version 1.0
@@ -22,24 +31,64 @@ public class Samples implements Curve {
 	public int sampleRate;
 	/**
 	 * Sample data
+	 * <br>
+	 * Code writing to this directly must call {@link #markModified(int, int)}
+	 * afterwards so the spectrum and other derived data get updated
+	 * <br>
+	 * Null if the samples are not on the heap, see {@link #getStorage()}
 	 */
 	public double[] sampleData;
+	/**
+	 * Where the samples are, wraps <i>sampleData</i> if that is not null
+	 */
+	protected transient SampleStorage storage;
+	/**
+	 * Waveform summary, made on first use
+	 */
+	protected transient PeakPyramid peaks;
 	/**
 	 * Spectrum (real component)
+	 * <br>
+	 * Only the non-negative frequencies are kept, since the rest mirror them,
+	 * so for N samples there are N/2+1 bins with bin <i>k</i> at
+	 * <i>k*sampleRate/N</i> Hz
 	 */
 	public transient double[] spectrumReal;
 	/**
-	 * Spectrum (imaginary component)
+	 * Spectrum (imaginary component), same layout as <i>spectrumReal</i>
 	 */
 	public transient double[] spectrumImag;
 	/**
-	 * Hash of sample data, when it's different the spectrum gets updated to match
+	 * Incremented every time the sample data is modified
 	 */
-	protected transient int sampleHash = 0;
+	protected transient long sampleVersion = 1;
 	/**
-	 * Hash of spectrum data, when it's different the samples gets updated to match
+	 * Incremented every time the spectrum is modified
 	 */
-	protected transient int spectrumHash = 0;
+	protected transient long spectrumVersion;
+	/**
+	 * Sample version the spectrum was last synchronized with
+	 */
+	protected transient long syncedSampleVersion;
+	/**
+	 * Spectrum version the samples were last synchronized with
+	 */
+	protected transient long syncedSpectrumVersion;
+	/**
+	 * Recent modifications, circular, version and range of each
+	 */
+	protected transient long[] modifiedVersions;
+	protected transient int[] modifiedStarts, modifiedEnds;
+	/**
+	 * Total modifications recorded, the next goes at this modulo the log size
+	 */
+	protected transient int modifiedCount;
+	
+	/**
+	 * Number of recent modifications remembered individually,
+	 * asking about anything older gets the whole range
+	 */
+	public static final int MODIFICATION_LOG_SIZE = 1<<5;
 	
 	/**
 	 * Hash key for <i>sampleHash()</i>
@@ -49,6 +98,18 @@ public class Samples implements Curve {
 	 * Hash key for <i>spectrumHash()</i>
 	 */
 	public static final long HK_PH = QuickKeyGen.next64();
+	/**
+	 * Samples converted at a time when layering at a different sample rate
+	 */
+	public static final int LAYER_BLOCK_SIZE = 1<<12;
+	/**
+	 * Default frame size for ranged spectrum edits, about 46ms at 44100Hz
+	 */
+	public static final int SPECTRUM_EDIT_SIZE = 1<<11;
+	/**
+	 * Default frames overlapping each sample for ranged spectrum edits
+	 */
+	public static final int SPECTRUM_EDIT_OVERLAP = 4;
 	
 	/**
 	 * Clean constructor
@@ -61,14 +122,124 @@ public class Samples implements Curve {
 		sampleData = sampledata;
 	}
 	
+	/**
+	 * Constructor for samples in any storage
+	 * 
+	 * @param samplerate sample rate in Hz
+	 * @param storage where the samples are, not copied
+	 */
+	public Samples(int samplerate, SampleStorage storage){
+		sampleRate = samplerate;
+		sampleData = storage.array();
+		this.storage = storage;
+	}
+	
 	/**
 	 * Copy constructor
+	 * <br>
+	 * Samples in a {@link ChunkedStorage} are copied by sharing chunks,
+	 * copy on write, otherwise the copy is on the heap
 	 * 
 	 * @param copyFrom the {@link Samples} object to copy from
 	 */
 	public Samples(Samples copyFrom){
 		sampleRate = copyFrom.sampleRate;
-		sampleData = Arrays.copyOf(copyFrom.sampleData, copyFrom.sampleData.length);
+		if(copyFrom.sampleData!=null){
+			sampleData = Arrays.copyOf(copyFrom.sampleData, copyFrom.sampleData.length);
+		}else if(copyFrom.storage instanceof ChunkedStorage){
+			synchronized(copyFrom){
+				storage = ((ChunkedStorage)copyFrom.storage).copy();
+			}
+		}else{
+			sampleData = copyFrom.storage.toArray();
+		}
+	}
+	
+	/**
+	 * @return number of samples
+	 */
+	public int length(){
+		double[] data = sampleData;
+		return data!=null?data.length:storage.length();
+	}
+	
+	/**
+	 * Get where the samples are, for code which should work
+	 * wherever they are
+	 * 
+	 * @return the storage
+	 */
+	public SampleStorage getStorage(){
+		double[] data = sampleData;
+		SampleStorage result = storage;
+		if(data!=null && (result==null || result.array()!=data)){
+			// The field may have been reassigned directly
+			storage = result = new HeapStorage(data);
+		}
+		return result;
+	}
+	
+	/**
+	 * Get the samples as an array, copying them onto the heap
+	 * if they aren't already there
+	 * <br>
+	 * Only the array from heap samples is <i>sampleData</i> itself,
+	 * so writes to it only count if {@link #isOnHeap()}
+	 * 
+	 * @return the samples
+	 */
+	public double[] toArray(){
+		double[] data = sampleData;
+		return data!=null?data:storage.toArray();
+	}
+	
+	/**
+	 * Get the waveform summary for drawing, which keeps itself up to date
+	 * 
+	 * @return the summary
+	 */
+	public synchronized PeakPyramid getPeaks(){
+		if(peaks==null)peaks = new PeakPyramid(this);
+		return peaks;
+	}
+	
+	/**
+	 * @return true if the samples are in <i>sampleData</i>
+	 */
+	public boolean isOnHeap(){
+		return sampleData!=null;
+	}
+	
+	/**
+	 * Read one sample from wherever it is
+	 * 
+	 * @param index sample index
+	 * @return the value
+	 */
+	private double sample(int index){
+		double[] data = sampleData;
+		return data!=null?data[index]:storage.get(index);
+	}
+	
+	/**
+	 * Store heap copies of samples which are elsewhere
+	 * 
+	 * @param out output stream
+	 * @throws IOException if writing fails
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		if(sampleData!=null){
+			out.defaultWriteObject();
+		}else{
+			synchronized(this){
+				sampleData = storage.toArray();
+				try{
+					out.defaultWriteObject();
+				}finally{
+					sampleData = null;
+				}
+			}
+		}
 	}
 	
 	public double valueAtPosition(double position){
@@ -77,15 +248,15 @@ public class Samples implements Curve {
 				return 0d;
 			}else{
 				double index = position*sampleRate;
-				int cap = sampleData.length-1;
+				int cap = length()-1;
 				if(index>cap){
 					return 0d;
 				}else{
-					int left = (int) position;
-					if(Floats.isNear(left, position)){
-						return sampleData[left];
+					int left = (int) index;
+					if(Floats.isNear(left, index)){
+						return sample(left);
 					}else{
-						return Bezier.bezier2to4(sampleData[left], sampleData[left+1], position-left);
+						return Bezier.bezier2to4(sample(left), sample(left+1), index-left);
 					}
 				}
 			}
@@ -94,6 +265,55 @@ public class Samples implements Curve {
 		}
 	}
 	
+	/**
+	 * Read many evenly spaced values at once
+	 * <br>
+	 * Redirect using cubic Hermite interpolation, filling all of <i>out</i>
+	 * 
+	 * @param start index of the first value to read, may be fractional
+	 * @param step distance in indices between consecutive values
+	 * @param out array to write to
+	 */
+	public void valuesAt(double start,double step,double[] out){
+		valuesAt(start,step,out,0,out.length,Interpolation.HERMITE);
+	}
+	
+	/**
+	 * Read many evenly spaced values at once
+	 * <br>
+	 * Positions are in indices, not seconds, so a step of 2 plays
+	 * back an octave up. Values outside the data are 0.
+	 * <br>
+	 * Much cheaper than calling {@link #valueAtPosition(double)} repeatedly,
+	 * and a step of exactly 1 needs no per sample interpolation
+	 * 
+	 * @param start index of the first value to read, may be fractional
+	 * @param step distance in indices between consecutive values
+	 * @param out array to write to
+	 * @param offset index in <i>out</i> of the first value
+	 * @param count number of values to write
+	 * @param kernel interpolation to use
+	 */
+	public void valuesAt(double start,double step,double[] out,int offset,int count,Interpolation kernel){
+		double[] data = sampleData;
+		if(data!=null){
+			kernel.fill(data, start, step, out, offset, count);
+			return;
+		}
+		if(count<=0)return;
+		// Read just the span covered, with room for the kernel on either side
+		double end = start+step*(count-1);
+		double low = Math.floor(Math.min(start, end))-4d, high = Math.ceil(Math.max(start, end))+4d;
+		int from = (int)Math.max(0d, low), to = (int)Math.min(length(), high);
+		if(to<=from){
+			Arrays.fill(out, offset, offset+count, 0d);
+			return;
+		}
+		double[] window = new double[to-from];
+		storage.read(from, window, 0, window.length);
+		kernel.fill(window, start-from, step, out, offset, count);
+	}
+	
 	/**
 	 * Layer another sample onto this one lazily
 	 * <br>
@@ -122,10 +342,24 @@ public class Samples implements Curve {
 	public synchronized void layerOnThisLazy(Samples toLayer,int offset1,int offset2){
 		double[] layerData = toLayer.sampleData;
 		int combined = offset2-offset1;
-		int cap = Math.min(layerData.length-combined, sampleData.length);
-		for(int i=offset1;i<cap;i++){
-			sampleData[i]+=layerData[i+combined];
+		int cap = Math.min(toLayer.length()-combined, length());
+		if(cap<=offset1)return;
+		if(layerData!=null && sampleData!=null){
+			for(int i=offset1;i<cap;i++){
+				sampleData[i]+=layerData[i+combined];
+			}
+		}else if(layerData!=null){
+			storage.add(offset1, layerData, offset1+combined, cap-offset1);
+		}else{
+			SampleStorage target = getStorage(), source = toLayer.getStorage();
+			double[] block = new double[Math.min(cap-offset1, LAYER_BLOCK_SIZE)];
+			for(int i=offset1;i<cap;i+=block.length){
+				int count = Math.min(cap-i, block.length);
+				source.read(i+combined, block, 0, count);
+				target.add(i, block, 0, count);
+			}
 		}
+		markModified(offset1,cap);
 	}
 	/**
 	 * Layer another sample onto this one
@@ -152,15 +386,145 @@ public class Samples implements Curve {
 		}else{
 			double thisRateCopy = sampleRate;
 			double layerRateCopy = toLayer.sampleRate;
-			double invRate = 1d/layerRateCopy;
 			int position = (int)(offset1*thisRateCopy);
-			//Possible room for micro-optimization here?
-			int cap = position+(int)(thisRateCopy*Math.min(sampleData.length/thisRateCopy-offset1, toLayer.sampleData.length/layerRateCopy-offset2));
-			for(int i=position;i<cap;i++){
-				double doublePosition = (i-position)*invRate+offset2;
-				sampleData[i]+=toLayer.valueAtPosition(doublePosition);
+			int layerLength = toLayer.length();
+			int cap = position+(int)(thisRateCopy*Math.min(length()/thisRateCopy-offset1, layerLength/layerRateCopy-offset2));
+			int first = (int)(offset2*layerRateCopy);
+			if(cap<=position || first>=layerLength)return;
+			//Convert whole blocks instead of interpolating sample by sample
+			Resampler resampler = new Resampler(layerRateCopy, thisRateCopy, Resampler.Quality.MEDIUM);
+			double[] layerData = toLayer.sampleData;
+			SampleStorage source = layerData!=null?null:toLayer.getStorage();
+			double[] input = layerData!=null?null:new double[Math.min(layerLength-first, LAYER_BLOCK_SIZE)];
+			double[] block = new double[Math.min(cap-position, LAYER_BLOCK_SIZE)];
+			int read = first;
+			boolean flushed = false;
+			for(int i=position;i<cap;){
+				int count = resampler.pull(block, 0, Math.min(cap-i, block.length));
+				if(count==0){
+					//Only feed input once the output so far is used, so memory stays at a block
+					if(read<layerLength){
+						int feed = Math.min(layerLength-read, LAYER_BLOCK_SIZE);
+						if(layerData!=null){
+							resampler.push(layerData, read, feed);
+						}else{
+							source.read(read, input, 0, feed);
+							resampler.push(input, 0, feed);
+						}
+						read += feed;
+					}else if(!flushed){
+						resampler.flush();
+						flushed = true;
+					}else{
+						break;
+					}
+					continue;
+				}
+				if(sampleData!=null){
+					for(int j=0;j<count;j++,i++){
+						sampleData[i]+=block[j];
+					}
+				}else{
+					storage.add(i, block, 0, count);
+					i += count;
+				}
 			}
+			markModified(position,cap);
+		}
+	}
+	
+	/**
+	 * Record that all sample data was modified
+	 */
+	public void markModified(){
+		markModified(0,length());
+	}
+	
+	/**
+	 * Record that some of the sample data was modified
+	 * <br>
+	 * Called by every method which changes the samples, and must be called
+	 * by anything else that writes to {@link #sampleData}
+	 * 
+	 * @param start first modified index
+	 * @param end index after the last modified index
+	 */
+	public synchronized void markModified(int start,int end){
+		if(start<0)start=0;
+		int length = length();
+		if(end>length)end=length;
+		if(modifiedVersions==null){
+			modifiedVersions = new long[MODIFICATION_LOG_SIZE];
+			modifiedStarts = new int[MODIFICATION_LOG_SIZE];
+			modifiedEnds = new int[MODIFICATION_LOG_SIZE];
 		}
+		int index = modifiedCount++&(MODIFICATION_LOG_SIZE-1);
+		modifiedVersions[index] = ++sampleVersion;
+		modifiedStarts[index] = start;
+		modifiedEnds[index] = end;
+	}
+	
+	/**
+	 * Record that the spectrum was modified
+	 */
+	public synchronized void markSpectrumModified(){
+		spectrumVersion++;
+	}
+	
+	/**
+	 * @return current sample data version, changes whenever the samples do
+	 */
+	public long getSampleVersion(){
+		return sampleVersion;
+	}
+	
+	/**
+	 * @return current spectrum version, changes whenever the spectrum does
+	 */
+	public long getSpectrumVersion(){
+		return spectrumVersion;
+	}
+	
+	/**
+	 * Get the range of sample data modified after some version,
+	 * for updating data derived from the samples
+	 * <br>
+	 * If that version is too old to be in the log, the whole range is returned
+	 * 
+	 * @param version sample version the caller last saw
+	 * @return {start, end} covering all modifications since, or null if none
+	 */
+	public synchronized int[] getModifiedRange(long version){
+		if(version>=sampleVersion)return null;
+		int logged = Math.min(modifiedCount, MODIFICATION_LOG_SIZE);
+		int start = Integer.MAX_VALUE, end = Integer.MIN_VALUE;
+		long oldest = sampleVersion;
+		for(int i=0;i<logged;i++){
+			int index = (modifiedCount-1-i)&(MODIFICATION_LOG_SIZE-1);
+			long entry = modifiedVersions[index];
+			if(entry<=version)break;
+			oldest = entry;
+			if(modifiedStarts[index]<start)start = modifiedStarts[index];
+			if(modifiedEnds[index]>end)end = modifiedEnds[index];
+		}
+		// Anything not covered by the log counts as a full modification
+		int length = length();
+		if(oldest>version+1 || start>end)return new int[]{0,length};
+		return new int[]{Math.max(start, 0),Math.min(end, length)};
+	}
+	
+	/**
+	 * @return true if the spectrum does not match the sample data
+	 */
+	public boolean isSpectrumStale(){
+		return spectrumReal==null || syncedSampleVersion!=sampleVersion;
+	}
+	
+	/**
+	 * @return true if the sample data does not match the spectrum
+	 */
+	public boolean isSampleDataStale(){
+		return spectrumReal!=null && syncedSpectrumVersion!=spectrumVersion;
 	}
 	
 	/**
@@ -168,7 +532,7 @@ public class Samples implements Curve {
 	 */
 	public int sampleHash(){
 		HashTriArx hash = new HashTriArx(HK_AH);
-		hash.absorbSkip(sampleData);
+		hash.absorbSkip(toArray());
 		return hash.squeezeInt();
 	}
 	
@@ -188,13 +552,88 @@ public class Samples implements Curve {
 	 * first array is real component, second is imaginary
 	 */
 	public synchronized double[][] getSpectrum(){
-		int newHash = sampleHash();
-		if(sampleHash!=newHash){
-			fft(newHash);
+		if(isSpectrumStale()){
+			fft();
 		}
 		return new double[][]{spectrumReal,spectrumImag};
 	}
 	
+	/**
+	 * Change the length and pitch independently, using a {@link PhaseVocoder}
+	 * 
+	 * @param stretch output length divided by current length
+	 * @param pitch output frequency divided by current frequency
+	 * @return new {@link Samples} with the result
+	 */
+	public synchronized Samples stretchAndShift(double stretch,double pitch){
+		return new Samples(sampleRate,PhaseVocoder.process(toArray(), stretch, pitch));
+	}
+	
+	/**
+	 * Change the length to fit some duration without changing the pitch,
+	 * such as a number of measures from {@link Composition#measuresToSeconds(double)}
+	 * 
+	 * @param seconds desired length in seconds
+	 * @param pitch output frequency divided by current frequency
+	 * @return new {@link Samples} with the result
+	 */
+	public synchronized Samples fitToDuration(double seconds,double pitch){
+		return stretchAndShift(seconds*sampleRate/length(),pitch);
+	}
+	
+	/**
+	 * Get the magnitude spectrum of each short frame, using {@link STFT}
+	 * <br>
+	 * Unlike {@link #getSpectrum()}, which is one transform of everything,
+	 * this shows how the spectrum changes over time
+	 * <br>
+	 * Frames are independent, so long samples are analyzed on all cores,
+	 * see {@link FFT#runBatch(int, int, ForkJoinPool, FFT.BatchRange)}
+	 * 
+	 * @param size frame size
+	 * @param hop samples between frames
+	 * @param window window function
+	 * @return magnitudes, indexed by frame then bin
+	 */
+	public synchronized double[][] getSpectrogram(int size,int hop,STFT.Window window){
+		STFT stft = new STFT(size,hop,window);
+		int bins = stft.getBins(), length = length();
+		double[][] result = new double[(int)stft.frameCount(length)][bins];
+		double[] data = sampleData, windowTable = window.table(size);
+		SampleStorage source = storage;
+		// Same frames as streaming through the STFT, see STFT.frameStart
+		FFT.runBatch(result.length, size, ForkJoinPool.commonPool(), (from,to)->{
+			double[] frame = new double[size], real = new double[bins], imag = new double[bins];
+			double[] workReal = new double[size>>1], workImag = new double[size>>1];
+			double[] block = data;
+			long blockStart = 0;
+			int perBlock = data!=null?to-from:Math.max(1, LAYER_BLOCK_SIZE/hop);
+			for(int k0=from;k0<to;k0+=perBlock){
+				int k1 = Math.min(to, k0+perBlock);
+				if(data==null){
+					// Off the heap, read only what these frames cover
+					blockStart = Math.max(0L, stft.frameStart(k0));
+					long blockEnd = Math.min(length, stft.frameStart(k1-1)+size);
+					block = new double[(int)Math.max(0L, blockEnd-blockStart)];
+					source.read((int)blockStart, block, 0, block.length);
+				}
+				for(int k=k0;k<k1;k++){
+					long start = stft.frameStart(k)-blockStart;
+					for(int i=0;i<size;i++){
+						long j = start+i;
+						frame[i] = j>=0 && j<block.length?block[(int)j]*windowTable[i]:0d;
+					}
+					FFT.realFft(frame, real, imag, workReal, workImag);
+					double[] magnitudes = result[k];
+					for(int j=0;j<bins;j++){
+						magnitudes[j] = Math.hypot(real[j], imag[j]);
+					}
+				}
+			}
+		});
+		return result;
+	}
+	
 	/**
 	 * Check for discrepancy, automatically choose FFT or IFFT
 	 * <br>
@@ -203,68 +642,62 @@ public class Samples implements Curve {
 	 * <b>Use via API is discouraged, know whether you want
 	 * FFT or IFFT and call that instead</b>
 	 */
-	public void autoUpdate(){
-		int newSampleHash = sampleHash();
-		int newSpectrumHash = spectrumHash();
-		if(newSampleHash!=sampleHash){
-			if(newSpectrumHash==spectrumHash){
-				fft(newSampleHash);
+	public synchronized void autoUpdate(){
+		boolean samplesChanged = isSpectrumStale();
+		boolean spectrumChanged = isSampleDataStale();
+		if(samplesChanged){
+			if(!spectrumChanged){
+				fft();
 			}
-		}else if(newSpectrumHash!=spectrumHash){
-			ifft(newSpectrumHash);
+		}else if(spectrumChanged){
+			ifft();
 		}
 	}
 	
 	/**
 	 * Check if samples changed, do FFT if so
 	 */
-	public void checkFft(){
-		int newHash = sampleHash();
-		if(newHash!=sampleHash){
-			fft(newHash);
+	public synchronized void checkFft(){
+		if(isSpectrumStale()){
+			fft();
 		}
 	}
 	
 	/**
 	 * Check if spectrum changed, do IFFT if so
 	 */
-	public void checkIfft(){
-		int newHash = spectrumHash();
-		if(newHash!=spectrumHash){
-			ifft(newHash);
+	public synchronized void checkIfft(){
+		if(isSampleDataStale()){
+			ifft();
 		}
 	}
 	
 	/**
-	 * Single argument passed is precalculated sample hash
-	 * <br>
-	 * Spectrum hash will be updated after to match
-	 * 
-	 * @param newHash sample hash
+	 * Recompute the spectrum from the sample data
 	 */
-	public synchronized void fft(int newHash){
-		int total = sampleData.length;
-		spectrumReal = Arrays.copyOf(sampleData, total);
-		spectrumImag = new double[total];
-		FFT.adaptiveFft(spectrumReal,spectrumImag);
-		sampleHash = newHash;
-		spectrumHash = spectrumHash();
+	public synchronized void fft(){
+		int bins = (length()>>1)+1;
+		spectrumReal = new double[bins];
+		spectrumImag = new double[bins];
+		FFT.realFft(toArray(),spectrumReal,spectrumImag);
+		syncedSampleVersion = sampleVersion;
+		syncedSpectrumVersion = ++spectrumVersion;
 	}
 	
 	/**
-	 * Single argument passed is precalculated spectrum hash
-	 * <br>
-	 * Sample hash will be updated after to match
-	 * 
-	 * @param newHash spectrum hash
+	 * Recompute the sample data from the spectrum
 	 */
-	public synchronized void ifft(int newHash){
-		int total = spectrumReal.length;
-		sampleData = Arrays.copyOf(spectrumReal, total);
-		double[] sampleImag = Arrays.copyOf(spectrumImag, total);
-		FFT.adaptiveFft(sampleData,sampleImag);
-		spectrumHash = newHash;
-		sampleHash = sampleHash();
+	public synchronized void ifft(){
+		if(sampleData!=null){
+			FFT.realIfft(spectrumReal,spectrumImag,sampleData);
+		}else{
+			double[] result = new double[storage.length()];
+			FFT.realIfft(spectrumReal,spectrumImag,result);
+			storage.write(0, result, 0, result.length);
+		}
+		markModified();
+		syncedSampleVersion = sampleVersion;
+		syncedSpectrumVersion = spectrumVersion;
 	}
 	
 	/**
@@ -278,8 +711,42 @@ public class Samples implements Curve {
 		return new Samples(samplerate,new double[count]);
 	}
 	
+	/**
+	 * Create a blank {@link Samples} object in a {@link ChunkedStorage},
+	 * which uses no memory for samples until they are written
+	 * 
+	 * @param samplerate sample rate in Hz
+	 * @param count length/sample count
+	 * @return new {@link Samples} object
+	 */
+	public static Samples blankSamplesChunked(int samplerate,int count){
+		return new Samples(samplerate,new ChunkedStorage(count));
+	}
+	
+	/**
+	 * Copy into a {@link ChunkedStorage}, so silent parts take no memory
+	 * and further copies share the rest
+	 * 
+	 * @return new {@link Samples} object
+	 */
+	public synchronized Samples toChunked(){
+		SampleStorage from = getStorage();
+		if(from instanceof ChunkedStorage)return new Samples(this);
+		ChunkedStorage result = new ChunkedStorage(from.length());
+		double[] block = new double[Math.min(from.length(), ChunkedStorage.CHUNK_SIZE)];
+		for(int i=0,length=from.length();i<length;i+=block.length){
+			int count = Math.min(length-i, block.length);
+			from.read(i, block, 0, count);
+			result.write(i, block, 0, count);
+		}
+		return new Samples(sampleRate,result);
+	}
+	
 	/**
 	 * Apply curve to some array as an envelope
+	 * <br>
+	 * Long arrays use a cached {@link CurveTable} instead of evaluating
+	 * the curve for every sample
 	 * 
 	 * @param curve the curve to multiply pointwisely
 	 * @param sampleRate sample rate in Hz, determines mapping multiplier
@@ -288,6 +755,13 @@ public class Samples implements Curve {
 	public static void applyCurveTo(Curve curve,double sampleRate,double[] target){
 		int total = target.length;
 		double rateMult = 1d/sampleRate;
+		CurveTable table = bakeFor(curve,rateMult,total);
+		if(table!=null){
+			for(int i=0;i<total;i++){
+				target[i]*=table.valueAt(rateMult*i);
+			}
+			return;
+		}
 		for(int i=0;i<total;i++){
 			double position = rateMult*i;
 			target[i]*=curve.valueAtPosition(position);
@@ -304,22 +778,53 @@ public class Samples implements Curve {
 		int arrays = targets.length;
 		int total = targets[0].length;
 		double rateMult = 1d/sampleRate;
+		CurveTable table = bakeFor(curve,rateMult,total);
 		for(int i=0;i<total;i++){
 			double position = rateMult*i;
-			double value = curve.valueAtPosition(position);
+			double value = table!=null?table.valueAt(position):curve.valueAtPosition(position);
 			for(int j=0;j<arrays;j++){
 				targets[j][i]*=value;
 			}
 		}
 	}
 	
+	/**
+	 * Get a baked table for applying a curve, if it's worth it
+	 * 
+	 * @param curve the curve
+	 * @param rateMult position of each sample
+	 * @param total number of samples
+	 * @return the table, or null to evaluate the curve directly
+	 */
+	private static CurveTable bakeFor(Curve curve,double rateMult,int total){
+		if(total<CurveTable.SAMPLES_PER_POINT<<1)return null;
+		return CurveTable.get(curve, 0d, rateMult*(total-1), (total-1)/CurveTable.SAMPLES_PER_POINT);
+	}
+	
 	/**
 	 * Apply curve as envelope to sample data
 	 * 
 	 * @param curve the curve to apply
 	 */
 	public synchronized void applyCurveToData(Curve curve){
-		applyCurveTo(curve,sampleRate,sampleData);
+		if(sampleData!=null){
+			applyCurveTo(curve,sampleRate,sampleData);
+		}else{
+			int total = storage.length();
+			double rateMult = 1d/sampleRate;
+			CurveTable table = bakeFor(curve,rateMult,total);
+			double[] block = new double[Math.min(total, LAYER_BLOCK_SIZE)];
+			for(int start=0;start<total;start+=block.length){
+				int count = Math.min(total-start, block.length);
+				storage.read(start, block, 0, count);
+				for(int i=0;i<count;i++){
+					double position = rateMult*(start+i);
+					block[i]*=table!=null?table.valueAt(position):curve.valueAtPosition(position);
+				}
+				storage.write(start, block, 0, count);
+			}
+		}
+		markModified();
 	}
 	/**
 	 * Apply curve as envelope to spectrum correctly
@@ -327,11 +832,84 @@ public class Samples implements Curve {
 	 * <b>Doing the extra calculation is necessary, otherwise the mapping
 	 * will be wrong. Do not ever pass the spectrum directly to
 	 * applyCurveToInParallel. Use this method.</b>
+	 * <br>
+	 * The curve's position is the frequency in Hz, from 0 to the Nyquist frequency
 	 * 
 	 * @param curve the curve to apply
 	 */
 	public synchronized void applyCurveToSpectrum(Curve curve){
-		applyCurveToInParallel(curve,((double)sampleData.length)/sampleRate,spectrumReal,spectrumImag);
+		applyCurveToInParallel(curve,((double)length())/sampleRate,spectrumReal,spectrumImag);
+		markSpectrumModified();
+	}
+	
+	/**
+	 * Edit the spectrum of part of the sample data in place, using {@link STFT}
+	 * <br>
+	 * Only frames centered in the range are transformed, so small edits
+	 * are fast regardless of the total length
+	 * 
+	 * @param start start of the range in seconds
+	 * @param end end of the range in seconds
+	 * @param size frame size
+	 * @param hop samples between frames
+	 * @param window window function
+	 * @param editor modifies each frame's spectrum
+	 */
+	public synchronized void editSpectrum(double start,double end,int size,int hop,STFT.Window window,STFT.FrameEditor editor){
+		int from = (int)Math.max(0d, Math.ceil(start*sampleRate));
+		int length = length();
+		int to = (int)Math.min(length, Math.ceil(end*sampleRate));
+		STFT stft = new STFT(size,hop,window);
+		if(sampleData!=null){
+			int[] range = stft.edit(sampleData, from, to, editor);
+			if(range!=null)markModified(range[0],range[1]);
+			return;
+		}
+		if(to<=from)return;
+		// Edit a copy of just the region, starting on a frame boundary so the frames line up
+		int base = (int)Math.max(0L, Math.floorDiv((long)from-size, hop)*hop);
+		int limit = (int)Math.min(length, (long)to+size);
+		double[] region = new double[limit-base];
+		storage.read(base, region, 0, region.length);
+		int[] range = stft.edit(region, from-base, to-base, editor);
+		if(range!=null){
+			storage.write(base+range[0], region, range[0], range[1]-range[0]);
+			markModified(base+range[0],base+range[1]);
+		}
+	}
+	
+	/**
+	 * Apply curve as envelope to the spectrum of part of the sample data
+	 * <br>
+	 * Unlike {@link #applyCurveToSpectrum(Curve)}, this works on short frames
+	 * and only transforms the ones in the range
+	 * <br>
+	 * The curve's position is the frequency in Hz, from 0 to the Nyquist frequency
+	 * 
+	 * @param curve the curve to apply
+	 * @param start start of the range in seconds
+	 * @param end end of the range in seconds
+	 */
+	public void applyCurveToSpectrum(Curve curve,double start,double end){
+		applyCurveToSpectrum(curve,start,end,SPECTRUM_EDIT_SIZE,SPECTRUM_EDIT_SIZE/SPECTRUM_EDIT_OVERLAP);
+	}
+	/**
+	 * Apply curve as envelope to the spectrum of part of the sample data,
+	 * with a chosen frame size and hop
+	 * <br>
+	 * The curve's position is the frequency in Hz, from 0 to the Nyquist frequency
+	 * 
+	 * @param curve the curve to apply
+	 * @param start start of the range in seconds
+	 * @param end end of the range in seconds
+	 * @param size frame size
+	 * @param hop samples between frames
+	 */
+	public synchronized void applyCurveToSpectrum(Curve curve,double start,double end,int size,int hop){
+		double binRate = (double)size/sampleRate;
+		editSpectrum(start,end,size,hop,STFT.Window.HANN,(frame,real,imag)->{
+			applyCurveToInParallel(curve,binRate,real,imag);
+		});
 	}
 	
 	/**
@@ -344,6 +922,9 @@ public class Samples implements Curve {
 	 * @return that particular slice
 	 */
 	public double[] slice(int start,int end){
-		return Arrays.copyOfRange(sampleData, start, end);
+		if(sampleData!=null)return Arrays.copyOfRange(sampleData, start, end);
+		double[] result = new double[end-start];
+		storage.read(start, result, 0, Math.min(end, storage.length())-start);
+		return result;
 	}
 }
@@ -0,0 +1,46 @@
+package core;
+
+import java.io.Serializable;
+
+/**
+ * Routes a copy of a track's or bus's output to a {@link Bus}
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class Send implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Bus receiving the signal
+	 */
+	public final Bus target;
+	/**
+	 * Send level in B
+	 */
+	public volatile double volume;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param target bus receiving the signal
+	 * @param volume send level in B
+	 */
+	public Send(Bus target,double volume){
+		if(target==null)throw new NullPointerException("Send target cannot be null");
+		this.target = target;
+		this.volume = volume;
+	}
+
+	/**
+	 * @return linear gain
+	 */
+	public double getGain(){
+		return Math.pow(10d, volume);
+	}
+
+	@Override
+	public String toString(){
+		return "<Send to "+target.getName()+" at "+volume+"B>";
+	}
+}
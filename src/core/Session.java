@@ -194,7 +194,9 @@ public class Session {
 		commonNames.put(Curve.class, "1D Curve");
 		commonNames.put(Pattern.class, "Pattern");
 		commonNames.put(Synthesizer.class, "Synthesizer");
-		commonNames.put(SynthNOsc.class, "Nx Osc Synth");
+		for(SynthesizerProvider provider:SynthesizerProvider.getProviders()){
+			commonNames.put(provider.getSynthClass(), provider.getCommonName());
+		}
 	}
 	
 	/**
@@ -33,6 +33,23 @@ public interface Synthesizer extends Named, Destructable, TransientContainer<Com
 	 */
 	public void spawnVoices(double[][] clips,TrackLayerSimple target,Session session);
 	
+	/**
+	 * Same as above, but reads notes from a flat, reusable buffer
+	 * <br>
+	 * This is what the scheduler actually calls. The default converts
+	 * to the array of arrays format (in seconds) and redirects, synthesizers
+	 * should override this to avoid the allocation.
+	 * 
+	 * @param notes the notes to create voices for, frames are relative to
+	 * the current block
+	 * @param target the target {@link TrackLayerSimple} to add voices to
+	 * @param session current session, from which other data can be derived
+	 * @see NoteBuffer
+	 */
+	public default void spawnVoices(NoteBuffer notes,TrackLayerSimple target,Session session){
+		spawnVoices(notes.toArrays(),target,session);
+	}
+	
 	/**
 	 * Create a single live voice with the specified pitch
 	 * <br>
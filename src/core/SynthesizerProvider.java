@@ -0,0 +1,179 @@
+package core;
+
+import java.util.*;
+import core.synth.*;
+
+/**
+ * Plugin interface for Java synthesizers
+ * <br>
+ * Implementations are discovered with {@link ServiceLoader}, so a synthesizer
+ * packaged in its own jar only needs a public no-argument provider class listed in
+ * <i>META-INF/services/core.SynthesizerProvider</i> to show up, no changes
+ * to core are needed. Discovered providers get their common name registered
+ * with each {@link Session}. The built-in synthesizers are always registered,
+ * even if the service file isn't on the classpath.
+ * <br>
+ * Render contract: voices are driven through {@link Voice#renderTo(double[], int, int)},
+ * which adds one block into a buffer owned by the caller. Voices of a provider which
+ * reports {@link #CAPABILITY_BLOCK_RENDER} promise to override it and not allocate
+ * per block, which is what keeps large polyphony cheap.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public interface SynthesizerProvider {
+
+	/**
+	 * Capability flag, can play more than one note at a time
+	 */
+	public static final int CAPABILITY_POLYPHONIC = 1;
+	/**
+	 * Capability flag, voices render in place without allocating
+	 */
+	public static final int CAPABILITY_BLOCK_RENDER = 1<<1;
+	/**
+	 * Capability flag, supports live voices for previews
+	 */
+	public static final int CAPABILITY_LIVE = 1<<2;
+
+	/**
+	 * @return the class of synthesizer this creates
+	 */
+	public Class<? extends Synthesizer> getSynthClass();
+
+	/**
+	 * @return human-readable name for the synthesizer type
+	 */
+	public String getCommonName();
+
+	/**
+	 * Create a synthesizer according to default settings,
+	 * it should be named using the session but not added to the
+	 * composition
+	 *
+	 * @param session current session
+	 * @return new synthesizer
+	 */
+	public Synthesizer create(Session session);
+
+	/**
+	 * @return capability flags, a combination of the <i>CAPABILITY_</i> constants
+	 */
+	public default int getCapabilities(){
+		return CAPABILITY_POLYPHONIC;
+	}
+
+	/**
+	 * Check for a capability
+	 *
+	 * @param capability one of the <i>CAPABILITY_</i> constants
+	 * @return true if it has that capability
+	 */
+	public default boolean hasCapability(int capability){
+		return (getCapabilities()&capability)==capability;
+	}
+
+	/**
+	 * @return maximum number of notes at once, or
+	 * {@link Integer#MAX_VALUE} if unlimited
+	 */
+	public default int getMaxPolyphony(){
+		return hasCapability(CAPABILITY_POLYPHONIC)?Integer.MAX_VALUE:1;
+	}
+
+	/**
+	 * Upper bound on how long voices can keep sounding after
+	 * the note ends, used to decide when a track is silent
+	 *
+	 * @return tail length in seconds
+	 */
+	public default double getTailLength(){
+		return 0d;
+	}
+
+	/**
+	 * Get all discovered providers, discovering them on first use
+	 *
+	 * @return unmodifiable list of providers
+	 */
+	public static List<SynthesizerProvider> getProviders(){
+		synchronized(Registry.providers){
+			if(!Registry.loaded)reloadProviders();
+			return Collections.unmodifiableList(new ArrayList<>(Registry.providers));
+		}
+	}
+
+	/**
+	 * Discover providers again, useful after adding jars at runtime
+	 * <br>
+	 * Built-in providers which weren't discovered are added after the others
+	 */
+	public static void reloadProviders(){
+		synchronized(Registry.providers){
+			List<SynthesizerProvider> providers = Registry.providers;
+			providers.clear();
+			Iterator<SynthesizerProvider> iter = ServiceLoader.load(SynthesizerProvider.class).iterator();
+			while(true){
+				try{
+					if(!iter.hasNext())break;
+					providers.add(iter.next());
+				}catch(ServiceConfigurationError e){
+					// A broken plugin shouldn't hide the rest
+					e.printStackTrace();
+				}
+			}
+			for(SynthesizerProvider builtIn:Registry.builtIn()){
+				boolean found = false;
+				for(SynthesizerProvider provider:providers){
+					if(provider.getSynthClass()==builtIn.getSynthClass()){
+						found = true;
+						break;
+					}
+				}
+				if(!found)providers.add(builtIn);
+			}
+			Registry.loaded = true;
+		}
+	}
+
+	/**
+	 * Get the provider for a synthesizer class
+	 *
+	 * @param cls synthesizer class
+	 * @return the provider, or null if none was discovered
+	 */
+	public static SynthesizerProvider getProvider(Class<? extends Synthesizer> cls){
+		for(SynthesizerProvider provider:getProviders()){
+			if(provider.getSynthClass()==cls)return provider;
+		}
+		return null;
+	}
+
+	/**
+	 * Holds discovered providers
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	static final class Registry{
+		//Disallow invoking constructor
+		private Registry(){}
+
+		/**
+		 * All discovered providers, in discovery order
+		 */
+		private static final List<SynthesizerProvider> providers = new ArrayList<>();
+
+		/**
+		 * True once discovery has run, even if it found nothing
+		 */
+		private static boolean loaded;
+
+		/**
+		 * @return new instances of the providers shipped with core
+		 */
+		private static SynthesizerProvider[] builtIn(){
+			return new SynthesizerProvider[]{new SynthNOsc.Provider(),new SynthSampler.Provider()};
+		}
+	}
+}
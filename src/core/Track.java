@@ -1,6 +1,8 @@
 package core;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 import javax.swing.*;
 import org.apache.pivot.wtk.*;
 
@@ -35,6 +37,29 @@ public interface Track extends Serializable, Named {
 	 */
 	public double[] getTimeBounds();
 	
+	/**
+	 * Get the sends from this track to buses
+	 * <br>
+	 * Tracks which can't send return an empty list
+	 * 
+	 * @return the sends, modifiable if sending is supported
+	 * @see Bus
+	 */
+	public default List<Send> getSends(){
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Prepare this track's effects, and those of anything under it,
+	 * see {@link EffectChain#prepare(int)}
+	 * <br>
+	 * Called before rendering starts, not from the audio thread
+	 * 
+	 * @param sampleRate sample rate in Hz
+	 */
+	public default void prepareEffects(int sampleRate){
+	}
+	
 	/**
 	 * Convenience method
 	 * Get parent composition, do whatever it takes to find it
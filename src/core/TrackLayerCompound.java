@@ -24,6 +24,50 @@ public class TrackLayerCompound implements Track, TransientContainer<TLCParent>,
 	 * All contained tracks
 	 */
 	public ArrayList<Track> tracks = new ArrayList<>();
+	/**
+	 * Insert effects applied to the mix of all contained tracks
+	 */
+	public EffectChain effects = new EffectChain();
+	/**
+	 * Sends from this track to buses, ignored for the root
+	 */
+	public ArrayList<Send> sends = new ArrayList<>();
+	/**
+	 * Shared effect buses, only used by the root
+	 */
+	public ArrayList<Bus> buses = new ArrayList<>();
+	/**
+	 * Buffers for bus mixing
+	 */
+	protected transient MixBuffer.Pool pool;
+	/**
+	 * Summed input of each bus from track sends, for the current block
+	 */
+	protected transient IdentityHashMap<Bus,MixBuffer> busInputs;
+	/**
+	 * Outputs of other buses waiting to be read by each bus, for the current block
+	 */
+	protected transient IdentityHashMap<Bus,ArrayList<Pending>> busPending;
+	/**
+	 * Number of items in <i>busPending</i> not yet read
+	 */
+	protected transient int pendingCount;
+	/**
+	 * Unused items for <i>busPending</i>
+	 */
+	protected transient ArrayList<Pending> pendingFree;
+	/**
+	 * Cached processing order of the buses, see {@link #getBusOrder()}
+	 */
+	protected transient Bus[] busOrder;
+	/**
+	 * The bus list the order was computed from
+	 */
+	protected transient Bus[] busOrderSource;
+	/**
+	 * {@link Bus#getTopologyVersion()} when the order was computed
+	 */
+	protected transient int busOrderVersion;
 	/**
 	 * If this is the root {@link TrackLayerCompound}, the parent composition
 	 */
@@ -53,7 +97,8 @@ public class TrackLayerCompound implements Track, TransientContainer<TLCParent>,
 	
 	@Override
 	public void applyTo(MetaSamples current) {
-		if(tracks.size()>0){
+		boolean mixBuses = parentIsComposition && !buses.isEmpty();
+		if(tracks.size()>0 || mixBuses){
 			MetaSamples toAdd = MetaSamples.blankSamplesFrom(current);
 			for(Track track:tracks){
 				double[] trackTimeBounds = track.getTimeBounds();
@@ -61,10 +106,208 @@ public class TrackLayerCompound implements Track, TransientContainer<TLCParent>,
 					track.applyTo(toAdd);
 				}
 			}
+			double[] data = toAdd.sampleData;
+			if(effects.isActive()){
+				effects.process(data, 0, data.length, toAdd.sampleRate);
+			}
+			if(parentIsComposition){
+				//All sends are in, now run the buses
+				mixBuses(data, data.length, toAdd.sampleRate);
+			}else if(!sends.isEmpty()){
+				TrackLayerCompound root = parentComposition().tracks;
+				for(Send send:sends){
+					root.send(send.target, data, data.length, send.getGain());
+				}
+			}
 			current.layerOnThisMeta(toAdd);
 		}
 	}
 	
+	/**
+	 * Send a track's signal to a bus for the current block,
+	 * should only be called on the root
+	 * 
+	 * @param bus bus to send to
+	 * @param data the signal
+	 * @param count number of samples
+	 * @param gain linear send gain
+	 */
+	public void send(Bus bus,double[] data,int count,double gain){
+		MixBuffer input = busInputs.get(bus);
+		if(input==null){
+			input = pool.acquire(count);
+			busInputs.put(bus, input);
+		}
+		double[] target = input.data;
+		for(int i=0;i<count;i++){
+			target[i] += data[i]*gain;
+		}
+	}
+	
+	/**
+	 * Run all buses in dependency order and mix their returns in
+	 * <br>
+	 * Each bus is processed once. Its output is shared by reference with
+	 * every bus it sends to, and a bus whose only input is an unshared buffer
+	 * at unity gain processes that buffer in place instead of copying it.
+	 * Buses without input keep running until their effect tails finish.
+	 * 
+	 * @param mix the mix to add the returns to
+	 * @param count number of samples
+	 * @param sampleRate sample rate in Hz
+	 */
+	protected void mixBuses(double[] mix,int count,int sampleRate){
+		double seconds = (double)count/sampleRate;
+		for(Bus bus:getBusOrder()){
+			MixBuffer input = busInputs.remove(bus);
+			ArrayList<Pending> pending = busPending.get(bus);
+			if(pending!=null){
+				for(int j=0,n=pending.size();j<n;j++){
+					Pending item = pending.get(j);
+					MixBuffer buffer = item.buffer;
+					double gain = item.gain;
+					item.buffer = null;
+					pendingFree.add(item);
+					if(input==null && gain==1d && !buffer.isShared()){
+						//Sole reader, take it over
+						input = buffer;
+						continue;
+					}
+					if(input==null)input = pool.acquire(count);
+					double[] source = buffer.data, target = input.data;
+					for(int i=0;i<count;i++){
+						target[i] += source[i]*gain;
+					}
+					buffer.release();
+				}
+				pendingCount -= pending.size();
+				//Kept for the next block
+				pending.clear();
+			}
+			if(input==null){
+				bus.silentFor += seconds;
+				if(!bus.isRinging())continue;
+				input = pool.acquire(count);
+			}else{
+				bus.silentFor = 0d;
+			}
+			double[] data = input.data;
+			bus.effects.process(data, 0, count, sampleRate);
+			ArrayList<Send> lsends = bus.sends;
+			for(int j=0,n=lsends.size();j<n;j++){
+				Send send = lsends.get(j);
+				ArrayList<Pending> targetPending = busPending.get(send.target);
+				if(targetPending==null){
+					targetPending = new ArrayList<>();
+					busPending.put(send.target, targetPending);
+				}
+				int last = pendingFree.size()-1;
+				Pending item = last<0?new Pending():pendingFree.remove(last);
+				item.buffer = input.retain();
+				item.gain = send.getGain();
+				targetPending.add(item);
+				pendingCount++;
+			}
+			double gain = Math.pow(10d, bus.volume);
+			for(int i=0;i<count;i++){
+				mix[i] += data[i]*gain;
+			}
+			input.release();
+		}
+		//Anything sent to a bus which isn't in the list is dropped
+		if(!busInputs.isEmpty() || pendingCount>0)clearBuses();
+	}
+	
+	/**
+	 * Drop everything sent to buses and not yet mixed
+	 * <br>
+	 * Called when playback starts, so nothing sent while the root wasn't
+	 * mixing buses, like when playing a single track, is heard later
+	 */
+	public void clearBuses(){
+		for(MixBuffer buffer:busInputs.values())buffer.release();
+		busInputs.clear();
+		for(ArrayList<Pending> pending:busPending.values()){
+			for(Pending item:pending){
+				item.buffer.release();
+				item.buffer = null;
+				pendingFree.add(item);
+			}
+			pending.clear();
+		}
+		pendingCount = 0;
+	}
+	
+	/**
+	 * Get the buses in processing order, only sorting them
+	 * again when the list or the sends between them changed
+	 * 
+	 * @return buses in processing order, do not modify
+	 */
+	protected Bus[] getBusOrder(){
+		Bus[] source = busOrderSource;
+		int version = Bus.getTopologyVersion();
+		boolean valid = busOrder!=null && version==busOrderVersion && source.length==buses.size();
+		for(int i=0;valid && i<source.length;i++){
+			valid = source[i]==buses.get(i);
+		}
+		if(!valid){
+			source = buses.toArray(new Bus[buses.size()]);
+			List<Bus> order = Bus.topologicalOrder(Arrays.asList(source));
+			busOrder = order.toArray(new Bus[order.size()]);
+			busOrderSource = source;
+			busOrderVersion = version;
+		}
+		return busOrder;
+	}
+	
+	/**
+	 * Remove a bus, and every send to it from tracks and other buses
+	 * 
+	 * @param bus the bus to remove
+	 * @return true if it was there
+	 */
+	public boolean removeBus(Bus bus){
+		boolean removed = buses.remove(bus);
+		for(Bus other:buses){
+			other.sends.removeIf(send -> send.target==bus);
+		}
+		removeSendsTo(this,bus);
+		Bus.topologyChanged();
+		return removed;
+	}
+	
+	/**
+	 * Recursively remove sends to a bus
+	 * 
+	 * @param track track to start at
+	 * @param bus the bus
+	 */
+	private static void removeSendsTo(Track track,Bus bus){
+		track.getSends().removeIf(send -> send.target==bus);
+		if(track instanceof TrackLayerCompound){
+			for(Track child:((TrackLayerCompound)track).tracks){
+				removeSendsTo(child,bus);
+			}
+		}
+	}
+	
+	@Override
+	public void prepareEffects(int sampleRate){
+		effects.prepare(sampleRate);
+		for(Track track:tracks){
+			track.prepareEffects(sampleRate);
+		}
+		for(Bus bus:buses){
+			bus.effects.prepare(sampleRate);
+		}
+	}
+	
+	@Override
+	public List<Send> getSends(){
+		return sends;
+	}
+	
 	public double[] getTimeBounds(){
 		double min = Double.MAX_VALUE;
 		double max = Double.MIN_VALUE;
@@ -79,11 +322,30 @@ public class TrackLayerCompound implements Track, TransientContainer<TLCParent>,
 				max=end;
 			}
 		}
+		if(max!=Double.MIN_VALUE){
+			//Keep playing while effects ring out
+			double tail = 0d;
+			if(parentIsComposition){
+				for(Bus bus:buses){
+					tail = Math.max(tail, bus.getTailLength());
+				}
+			}
+			max += effects.getTailLength()+tail;
+		}
 		return new double[]{min,max};
 	}
 
 	@Override
 	public void initTransient(TLCParent parent) {
+		if(effects==null)effects = new EffectChain();
+		if(sends==null)sends = new ArrayList<>();
+		if(buses==null)buses = new ArrayList<>();
+		pool = new MixBuffer.Pool();
+		busInputs = new IdentityHashMap<>();
+		busPending = new IdentityHashMap<>();
+		pendingFree = new ArrayList<>();
+		pendingCount = 0;
+		busOrder = null;
 		parentIsComposition=parent instanceof Composition;
 		if(parentIsComposition){
 			parentComposition = (Composition) parent;
@@ -163,4 +425,16 @@ public class TrackLayerCompound implements Track, TransientContainer<TLCParent>,
 		return true;
 	}
 
+	/**
+	 * A bus output waiting to be read, with the gain to read it at,
+	 * reused between blocks
+	 * 
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	protected static final class Pending{
+		MixBuffer buffer;
+		double gain;
+	}
+	
 }
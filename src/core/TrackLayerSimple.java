@@ -27,10 +27,27 @@ public class TrackLayerSimple implements Track, TransientContainer<TrackLayerCom
 	 * List of active voices, used for playback
 	 */
 	protected transient ArrayList<Voice> voices;
+	/**
+	 * Reused to pass notes to synthesizers without allocating
+	 */
+	protected transient NoteBuffer notes;
+	/**
+	 * Scratch buffer to render into when there are effects, so they
+	 * only process this track
+	 */
+	protected transient double[] effectBuffer;
 	/**
 	 * Parent {@link TrackLayerCompound}
 	 */
 	protected transient TrackLayerCompound parentTLC;
+	/**
+	 * Insert effects applied to this track's output
+	 */
+	public EffectChain effects = new EffectChain();
+	/**
+	 * Sends from this track to buses
+	 */
+	public ArrayList<Send> sends = new ArrayList<>();
 	/**
 	 * The name of this track.
 	 */
@@ -66,43 +83,44 @@ public class TrackLayerSimple implements Track, TransientContainer<TrackLayerCom
 					double end = composition.measuresToSeconds(delay+pattern.length);
 					if(start<=current.endPos&&end>=current.startPos){
 						double invDivisions = 1d/pattern.divisions;
-						ArrayList<double[]> toSendList = new ArrayList<double[]>();
+						double rate = current.sampleRate;
+						NoteBuffer notes = this.notes;
+						notes.clear();
+						notes.sampleRate = current.sampleRate;
 						for(Clip clip:pattern.clips){
 							double clipStart = composition.measuresToSeconds(delay+clip.delay*invDivisions);
 							double clipEnd = composition.measuresToSeconds(delay+(clip.delay+clip.length)*invDivisions);
 							if(clipStart<=current.endPos&&clipEnd>=current.startPos){
-								int nproperties = clip.countProperties();
-								double[] clipData = new double[nproperties+4];
-								clipData[0] = clipStart-current.startPos;
-								clipData[1] = clipEnd-current.startPos;
-								clipData[2] = clip.pitch;
-								clipData[3] = clip.volume;
-								for(int i=0;i<nproperties;i++){
-									clipData[i+4] = clip.getProperty(i);
-								}
-								toSendList.add(clipData);
+								notes.add(clip, (clipStart-current.startPos)*rate, (clipEnd-current.startPos)*rate);
 							}
 						}
-						int numToSend = toSendList.size();
-						if(numToSend>0){
-							double[][] toSend = toSendList.toArray(new double[numToSend][]);
+						if(notes.size()>0){
 							pattern.synthesizer.setGlobals(current.vars);
-							pattern.synthesizer.spawnVoices(toSend, this, session);
+							pattern.synthesizer.spawnVoices(notes, this, session);
 						}
 					}
 				}
 			}
 		}
+		double[] target = current.sampleData;
+		int sampleCount = target.length;
+		boolean useEffects = effects.isActive();
+		boolean separate = useEffects || !sends.isEmpty();
+		double[] render = target;
+		if(separate){
+			//Render separately so the effects and sends only see this track
+			render = effectBuffer;
+			if(render==null || render.length<sampleCount){
+				render = effectBuffer = new double[sampleCount];
+			}else{
+				Arrays.fill(render, 0, sampleCount, 0d);
+			}
+		}
 		if(voices.size()>0){
-			//Process existing voices
-			int sampleCount = current.sampleData.length;
-			Samples toLayer = Samples.blankSamples(current.sampleRate, sampleCount);
+			//Process existing voices, they add straight onto the buffer
 			for(Voice voice:voices){
-				Samples toAdd = voice.nextSegment(sampleCount);
-				toLayer.layerOnThisLazy(toAdd);
+				voice.renderTo(render, 0, sampleCount);
 			}
-			//Do layering
-			current.layerOnThisLazy(toLayer);
 			//Remove dead voices
 			Iterator<Voice> viter = voices.iterator();
 			while(viter.hasNext()){
@@ -112,14 +130,39 @@ public class TrackLayerSimple implements Track, TransientContainer<TrackLayerCom
 				}
 			}
 		}
+		if(separate){
+			//Effects still run on silence so their tails are heard
+			if(useEffects)effects.process(render, 0, sampleCount, current.sampleRate);
+			TrackLayerCompound root = composition.tracks;
+			for(Send send:sends){
+				root.send(send.target, render, sampleCount, send.getGain());
+			}
+			for(int i=0;i<sampleCount;i++){
+				target[i] += render[i];
+			}
+		}
+		current.markModified();
 	}
 
 	@Override
 	public void initTransient(TrackLayerCompound parent) {
 		voices = new ArrayList<Voice>();
+		notes = new NoteBuffer(16,0,44100);
+		if(effects==null)effects = new EffectChain();
+		if(sends==null)sends = new ArrayList<>();
 		parentTLC = parent;
 	}
 	
+	@Override
+	public void prepareEffects(int sampleRate){
+		effects.prepare(sampleRate);
+	}
+	
+	@Override
+	public List<Send> getSends(){
+		return sends;
+	}
+	
 	public Composition parentComposition(){
 		return parentTLC.parentComposition();
 	}
@@ -247,7 +290,8 @@ public class TrackLayerSimple implements Track, TransientContainer<TrackLayerCom
 			if(first<min)min=first;
 			if(last>max)max=last;
 		}
-		return new double[]{composition.measuresToSeconds(min),composition.measuresToSeconds(max)};
+		//Keep playing while effects ring out
+		return new double[]{composition.measuresToSeconds(min),composition.measuresToSeconds(max)+effects.getTailLength()};
 	}
 
 	@Override
@@ -14,6 +14,29 @@ public interface Voice extends Destructable {
 	 * @return a {@link Samples} object with that length
 	 */
 	public Samples nextSegment(int sampleCount);
+	/**
+	 * Render the next bit of audio directly into a buffer
+	 * <br>
+	 * Output is added onto what is already there, so many voices
+	 * can share one buffer
+	 * <br>
+	 * Advances the voice the same way <i>nextSegment</i> does, so for
+	 * each block exactly one of the two should be called
+	 * <br>
+	 * The default redirects to <i>nextSegment</i>, voices which can write
+	 * in place should override this. This is especially important for
+	 * Python voices, since one call fills the whole Java array instead of
+	 * building a {@link Samples} object on the other side of the bridge.
+	 * 
+	 * @param target the buffer to add onto
+	 * @param offset index of the first sample to write
+	 * @param count number of samples to write
+	 */
+	public default void renderTo(double[] target,int offset,int count){
+		double[] data = nextSegment(count).sampleData;
+		for(int i=0;i<count;i++)
+			target[offset+i]+=data[i];
+	}
 	/**
 	 * Check if the voice is still alive or if it should be removed
 	 * 
@@ -80,6 +103,12 @@ public interface Voice extends Destructable {
 				data.layerOnThisLazy(voices[i].nextSegment(sampleCount));
 			return data;
 		}
+		
+		@Override
+		public void renderTo(double[] target,int offset,int count) {
+			for(Voice voice:voices)
+				voice.renderTo(target, offset, count);
+		}
 
 		@Override
 		public boolean isAlive() {
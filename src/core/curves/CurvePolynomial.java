@@ -204,6 +204,11 @@ public class CurvePolynomial implements Curve {
 		return result;
 	}
 	
+	@Override
+	public Curve snapshot(){
+		return new CurvePolynomial(this);
+	}
+	
 	@Override
 	public boolean equals(Object o){
 		if(o==this)return true;
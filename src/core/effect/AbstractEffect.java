@@ -0,0 +1,60 @@
+package core.effect;
+
+import core.*;
+
+/**
+ * Common bookkeeping for effects: name, bypass and sample rate
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public abstract class AbstractEffect implements Effect {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The name of this effect. Use getter and setter instead of direct access.
+	 */
+	protected String name;
+	/**
+	 * Skipped?
+	 */
+	protected volatile boolean bypassed;
+	/**
+	 * Sample rate from the last <i>prepare</i>, 0 if not prepared
+	 */
+	protected transient int sampleRate;
+
+	@Override
+	public void prepare(int sampleRate){
+		this.sampleRate = sampleRate;
+		reset();
+	}
+
+	@Override
+	public boolean isBypassed(){
+		return bypassed;
+	}
+
+	@Override
+	public void setBypassed(boolean bypassed){
+		// The chain resets it on the audio thread when it comes back
+		this.bypassed = bypassed;
+	}
+
+	/**
+	 * @return type name used for the default name
+	 */
+	protected abstract String getTypeName();
+
+	@Override
+	public String getName(){
+		if(name==null || name.length()==0)return Track.defaultNameAny(getTypeName(), this);
+		return name;
+	}
+
+	@Override
+	public boolean setName(String newName){
+		name = newName;
+		return true;
+	}
+}
@@ -0,0 +1,107 @@
+package core.effect;
+
+import core.*;
+import util.math.*;
+
+/**
+ * Convolution reverb or cabinet, plays the input through an impulse response
+ * <br>
+ * Uses a partitioned {@link Convolver}, so even impulse responses several seconds
+ * long are cheap. The convolved signal lags by <i>blockSize</i> samples, which
+ * for reverb works as a small pre-delay. The impulse response is resampled
+ * to the output rate when prepared.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class EffectConvolution extends AbstractEffect {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Default block size, 256 is about 6ms at 44.1kHz
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1<<8;
+
+	/**
+	 * The impulse response
+	 */
+	protected final double[] impulse;
+	/**
+	 * Sample rate of the impulse response
+	 */
+	protected final int impulseRate;
+	/**
+	 * Base block size, a power of 2, also the latency
+	 */
+	protected final int blockSize;
+	/**
+	 * Portion of the convolved signal added to the output
+	 */
+	public volatile double wet;
+	/**
+	 * Portion of the original signal kept
+	 */
+	public volatile double dry = 1d;
+
+	/**
+	 * The convolution engine for the current sample rate
+	 */
+	protected transient Convolver convolver;
+
+	/**
+	 * Convolution with default block size
+	 *
+	 * @param impulse the impulse response, is not copied
+	 * @param wet portion of the convolved signal heard
+	 */
+	public EffectConvolution(Samples impulse,double wet){
+		this(impulse.toArray(),impulse.sampleRate,DEFAULT_BLOCK_SIZE,wet);
+	}
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param impulse the impulse response, is not copied
+	 * @param impulseRate sample rate of the impulse response
+	 * @param blockSize block size, a power of 2
+	 * @param wet portion of the convolved signal heard
+	 */
+	public EffectConvolution(double[] impulse,int impulseRate,int blockSize,double wet){
+		this.impulse = impulse;
+		this.impulseRate = impulseRate;
+		this.blockSize = blockSize;
+		this.wet = wet;
+	}
+
+	@Override
+	public void prepare(int sampleRate){
+		if(convolver==null || this.sampleRate!=sampleRate){
+			double[] limpulse = impulse;
+			if(impulseRate!=sampleRate){
+				limpulse = Resampler.resample(limpulse, impulseRate, sampleRate, Resampler.Quality.HIGH);
+			}
+			convolver = new Convolver(limpulse,blockSize);
+		}
+		super.prepare(sampleRate);
+	}
+
+	@Override
+	public void reset(){
+		if(convolver!=null)convolver.reset();
+	}
+
+	@Override
+	public void process(double[] buffer,int offset,int count){
+		convolver.process(buffer, offset, buffer, offset, count, dry, wet);
+	}
+
+	@Override
+	public double getTailLength(){
+		return (double)impulse.length/impulseRate+(sampleRate>0?(double)blockSize/sampleRate:0d);
+	}
+
+	@Override
+	protected String getTypeName(){
+		return "Convolution";
+	}
+}
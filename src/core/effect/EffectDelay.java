@@ -0,0 +1,125 @@
+package core.effect;
+
+import java.util.Arrays;
+
+/**
+ * Feedback delay (echo)
+ * <br>
+ * The delay line is sized for <i>maxDelay</i> when prepared, so the
+ * delay time can be changed freely up to that without allocating
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class EffectDelay extends AbstractEffect {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Level the tail is considered silent at, -60dB
+	 */
+	public static final double SILENCE = 1e-3d;
+
+	/**
+	 * Longest allowed delay in seconds, fixed at construction
+	 */
+	public final double maxDelay;
+	/**
+	 * Delay time in seconds
+	 */
+	public volatile double delay;
+	/**
+	 * Portion of the delayed signal fed back, magnitude less than 1
+	 */
+	public volatile double feedback;
+	/**
+	 * Portion of the delayed signal added to the output
+	 */
+	public volatile double wet;
+	/**
+	 * Portion of the original signal kept
+	 */
+	public volatile double dry = 1d;
+
+	/**
+	 * Delay line
+	 */
+	protected transient double[] line;
+	/**
+	 * Write position in the delay line
+	 */
+	protected transient int cursor;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param maxDelay longest allowed delay in seconds
+	 * @param delay delay time in seconds
+	 * @param feedback portion fed back
+	 * @param wet portion of the delayed signal heard
+	 */
+	public EffectDelay(double maxDelay,double delay,double feedback,double wet){
+		if(!(maxDelay>0))throw new IllegalArgumentException("Maximum delay ("+maxDelay+") must be positive");
+		this.maxDelay = maxDelay;
+		this.delay = delay;
+		this.feedback = feedback;
+		this.wet = wet;
+	}
+
+	@Override
+	public void prepare(int sampleRate){
+		int length = (int)Math.ceil(maxDelay*sampleRate)+1;
+		if(line==null || line.length!=length)line = new double[length];
+		super.prepare(sampleRate);
+	}
+
+	@Override
+	public void reset(){
+		if(line!=null)Arrays.fill(line, 0d);
+		cursor = 0;
+	}
+
+	@Override
+	public void process(double[] buffer,int offset,int count){
+		double[] lline = line;
+		int length = lline.length;
+		int lag = (int)Math.round(Math.min(Math.max(delay, 0d), maxDelay)*sampleRate);
+		if(lag<1)lag = 1;
+		double lfeedback = clampFeedback(feedback), lwet = wet, ldry = dry;
+		int write = cursor, read = write-lag;
+		if(read<0)read += length;
+		for(int i=offset,end=offset+count;i<end;i++){
+			double x = buffer[i];
+			double delayed = lline[read];
+			lline[write] = x+delayed*lfeedback;
+			buffer[i] = x*ldry+delayed*lwet;
+			if(++write==length)write = 0;
+			if(++read==length)read = 0;
+		}
+		cursor = write;
+	}
+
+	@Override
+	public double getTailLength(){
+		double lfeedback = Math.abs(clampFeedback(feedback));
+		double ldelay = Math.min(Math.max(delay, 0d), maxDelay);
+		if(lfeedback<SILENCE)return ldelay;
+		// Repeats until the echoes drop below the silence level
+		return ldelay*(1d+Math.ceil(Math.log(SILENCE)/Math.log(lfeedback)));
+	}
+
+	/**
+	 * Keep feedback stable
+	 *
+	 * @param feedback requested feedback
+	 * @return feedback with magnitude below 1
+	 */
+	protected static double clampFeedback(double feedback){
+		double limit = 0.999d;
+		return feedback>limit?limit:feedback<-limit?-limit:feedback;
+	}
+
+	@Override
+	protected String getTypeName(){
+		return "Delay";
+	}
+}
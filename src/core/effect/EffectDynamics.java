@@ -0,0 +1,92 @@
+package core.effect;
+
+/**
+ * Compressor/limiter
+ * <br>
+ * Follows the peak level with separate attack and release times and
+ * reduces anything over the threshold by the ratio. Levels are in B,
+ * like volumes elsewhere.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class EffectDynamics extends AbstractEffect {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Level above which gain is reduced, in B relative to 1
+	 */
+	public volatile double threshold;
+	/**
+	 * Compression ratio, infinite for a limiter
+	 */
+	public volatile double ratio;
+	/**
+	 * Attack time in seconds
+	 */
+	public volatile double attack = 0.005d;
+	/**
+	 * Release time in seconds
+	 */
+	public volatile double release = 0.1d;
+	/**
+	 * Gain applied after compression, in B
+	 */
+	public volatile double makeup;
+
+	/**
+	 * Current envelope level, linear
+	 */
+	protected transient double envelope;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param threshold threshold in B
+	 * @param ratio compression ratio
+	 */
+	public EffectDynamics(double threshold,double ratio){
+		this.threshold = threshold;
+		this.ratio = ratio;
+	}
+
+	@Override
+	public void reset(){
+		envelope = 0d;
+	}
+
+	@Override
+	public void process(double[] buffer,int offset,int count){
+		double rate = sampleRate;
+		double attackCoef = Math.exp(-1d/(Math.max(attack, 1e-6d)*rate));
+		double releaseCoef = Math.exp(-1d/(Math.max(release, 1e-6d)*rate));
+		double thresholdLinear = Math.pow(10d, threshold);
+		double slope = 1d-1d/Math.max(ratio, 1d);
+		double makeupLinear = Math.pow(10d, makeup);
+		double lenvelope = envelope;
+		for(int i=offset,end=offset+count;i<end;i++){
+			double x = buffer[i];
+			double level = Math.abs(x);
+			double coef = level>lenvelope?attackCoef:releaseCoef;
+			lenvelope = level+coef*(lenvelope-level);
+			double gain = makeupLinear;
+			if(lenvelope>thresholdLinear){
+				// Over by some factor, keep only 1/ratio of it in log scale
+				gain *= Math.pow(thresholdLinear/lenvelope, slope);
+			}
+			buffer[i] = x*gain;
+		}
+		envelope = lenvelope<1e-30d?0d:lenvelope;
+	}
+
+	@Override
+	public double getTailLength(){
+		// No tail of its own, just holds the gain reduction during release
+		return 0d;
+	}
+
+	@Override
+	protected String getTypeName(){
+		return "Dynamics";
+	}
+}
@@ -0,0 +1,180 @@
+package core.effect;
+
+/**
+ * Resonant biquad filter
+ * <br>
+ * Coefficients follow the
+ * <a href="https://www.w3.org/TR/audio-eq-cookbook/">Audio EQ Cookbook</a>
+ * and are only recomputed when a parameter changes
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class EffectFilter extends AbstractEffect {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Filter response
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static enum Type{
+		LOWPASS,
+		HIGHPASS,
+		BANDPASS,
+		NOTCH
+	}
+
+	/**
+	 * Response type
+	 */
+	public volatile Type type;
+	/**
+	 * Cutoff or center frequency in Hz
+	 */
+	public volatile double cutoff;
+	/**
+	 * Resonance (Q), 1/sqrt(2) is flat
+	 */
+	public volatile double resonance;
+
+	/**
+	 * Parameters the coefficients were computed for
+	 */
+	protected transient Type lastType;
+	protected transient double lastCutoff, lastResonance;
+	/**
+	 * Normalized coefficients
+	 */
+	protected transient double b0, b1, b2, a1, a2;
+	/**
+	 * Filter state
+	 */
+	protected transient double z1, z2;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param type response type
+	 * @param cutoff cutoff frequency in Hz
+	 * @param resonance Q factor
+	 */
+	public EffectFilter(Type type,double cutoff,double resonance){
+		this.type = type;
+		this.cutoff = cutoff;
+		this.resonance = resonance;
+	}
+
+	@Override
+	public void prepare(int sampleRate){
+		lastType = null;
+		super.prepare(sampleRate);
+	}
+
+	@Override
+	public void reset(){
+		z1 = 0d;
+		z2 = 0d;
+	}
+
+	/**
+	 * Recompute coefficients if parameters changed
+	 */
+	protected void updateCoefficients(){
+		Type ltype = type;
+		double lcutoff = cutoff, lresonance = resonance;
+		if(ltype==lastType && lcutoff==lastCutoff && lresonance==lastResonance)return;
+		lastType = ltype;
+		lastCutoff = lcutoff;
+		lastResonance = lresonance;
+		double w = omega(lcutoff);
+		double cosw = Math.cos(w);
+		double alpha = alpha(w, lresonance);
+		double nb0, nb1, nb2;
+		switch(ltype){
+		case HIGHPASS:
+			nb1 = -(1d+cosw);
+			nb0 = nb2 = -0.5d*nb1;
+			break;
+		case BANDPASS:
+			nb0 = alpha;
+			nb1 = 0d;
+			nb2 = -alpha;
+			break;
+		case NOTCH:
+			nb0 = nb2 = 1d;
+			nb1 = -2d*cosw;
+			break;
+		default:
+			nb1 = 1d-cosw;
+			nb0 = nb2 = 0.5d*nb1;
+			break;
+		}
+		double inva0 = 1d/(1d+alpha);
+		b0 = nb0*inva0;
+		b1 = nb1*inva0;
+		b2 = nb2*inva0;
+		a1 = -2d*cosw*inva0;
+		a2 = (1d-alpha)*inva0;
+	}
+
+	/**
+	 * Angular frequency of a cutoff, kept below Nyquist
+	 *
+	 * @param cutoff cutoff in Hz
+	 * @return radians per sample
+	 */
+	protected double omega(double cutoff){
+		double nyquist = 0.5d*sampleRate;
+		return 2d*Math.PI*Math.min(Math.max(cutoff, 1d), nyquist*0.99d)/sampleRate;
+	}
+
+	/**
+	 * Bandwidth term of the biquad
+	 *
+	 * @param w angular frequency
+	 * @param resonance the Q
+	 * @return alpha
+	 */
+	protected static double alpha(double w,double resonance){
+		return Math.sin(w)/(2d*Math.max(resonance, 1e-3d));
+	}
+
+	@Override
+	public void process(double[] buffer,int offset,int count){
+		updateCoefficients();
+		double lb0 = b0, lb1 = b1, lb2 = b2, la1 = a1, la2 = a2;
+		double lz1 = z1, lz2 = z2;
+		for(int i=offset,end=offset+count;i<end;i++){
+			double x = buffer[i];
+			double y = lb0*x+lz1;
+			lz1 = lb1*x-la1*y+lz2;
+			lz2 = lb2*x-la2*y;
+			buffer[i] = y;
+		}
+		// Flush denormals once the filter has rung out
+		if(Math.abs(lz1)<1e-30d)lz1 = 0d;
+		if(Math.abs(lz2)<1e-30d)lz2 = 0d;
+		z1 = lz1;
+		z2 = lz2;
+	}
+
+	@Override
+	public double getTailLength(){
+		if(sampleRate<=0)return 0.1d;
+		// Computed here, not through the coefficient fields process is reading
+		double alpha = alpha(omega(cutoff), resonance);
+		double la2 = (1d-alpha)/(1d+alpha);
+		// Pole radius is sqrt(a2) for complex poles, decay to -60dB
+		double radius = Math.sqrt(Math.abs(la2));
+		if(radius<=0d)return 0d;
+		if(radius>=1d)return Double.POSITIVE_INFINITY;
+		return Math.log(EffectDelay.SILENCE)/Math.log(radius)/sampleRate;
+	}
+
+	@Override
+	protected String getTypeName(){
+		return "Filter";
+	}
+}
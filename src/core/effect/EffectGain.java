@@ -0,0 +1,70 @@
+package core.effect;
+
+/**
+ * Volume change
+ * <br>
+ * Changes to the volume are ramped over one block so they don't click
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class EffectGain extends AbstractEffect {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Volume offset in B
+	 */
+	public volatile double volume;
+
+	/**
+	 * Linear gain at the end of the last block, NaN to jump
+	 * straight to the target
+	 */
+	protected transient double currentGain;
+
+	/**
+	 * Blank constructor
+	 */
+	public EffectGain(){
+		this(0d);
+	}
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param volume volume offset in B
+	 */
+	public EffectGain(double volume){
+		this.volume = volume;
+	}
+
+	@Override
+	public void reset(){
+		currentGain = Double.NaN;
+	}
+
+	@Override
+	public void process(double[] buffer,int offset,int count){
+		double target = Math.pow(10d, volume);
+		double gain = currentGain;
+		if(Double.isNaN(gain))gain = target;
+		int end = offset+count;
+		if(gain==target){
+			for(int i=offset;i<end;i++){
+				buffer[i] *= gain;
+			}
+		}else{
+			double step = (target-gain)/count;
+			for(int i=offset;i<end;i++){
+				gain += step;
+				buffer[i] *= gain;
+			}
+		}
+		currentGain = target;
+	}
+
+	@Override
+	protected String getTypeName(){
+		return "Gain";
+	}
+}
@@ -0,0 +1,128 @@
+package core.storage;
+
+import java.nio.*;
+import core.*;
+
+/**
+ * Sample storage in NIO buffers, split into chunks since a single
+ * buffer can't hold more than 2GB
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public abstract class BufferStorage implements SampleStorage {
+
+	/**
+	 * Log base 2 of the samples per chunk, 128MB chunks
+	 */
+	public static final int CHUNK_SHIFT = 24;
+	/**
+	 * Samples per chunk
+	 */
+	public static final int CHUNK_SIZE = 1<<CHUNK_SHIFT;
+	/**
+	 * Mask for the index within a chunk
+	 */
+	public static final int CHUNK_MASK = CHUNK_SIZE-1;
+
+	/**
+	 * Number of samples
+	 */
+	protected final int length;
+	/**
+	 * The chunks, all full size except possibly the last, null once closed
+	 */
+	protected DoubleBuffer[] chunks;
+
+	/**
+	 * Standard constructor, subclasses must fill in the chunks
+	 *
+	 * @param length number of samples
+	 */
+	protected BufferStorage(int length){
+		if(length<0)throw new IllegalArgumentException("Length ("+length+") cannot be negative");
+		this.length = length;
+		chunks = new DoubleBuffer[chunkCount(length)];
+	}
+
+	/**
+	 * @param length number of samples
+	 * @return number of chunks needed
+	 */
+	protected static int chunkCount(int length){
+		return (int)(((long)length+CHUNK_MASK)>>>CHUNK_SHIFT);
+	}
+
+	/**
+	 * @param chunk chunk index
+	 * @return number of samples in that chunk
+	 */
+	protected int chunkLength(int chunk){
+		return Math.min(CHUNK_SIZE, length-(chunk<<CHUNK_SHIFT));
+	}
+
+	/**
+	 * @return the chunks, throwing if closed
+	 */
+	protected DoubleBuffer[] chunks(){
+		DoubleBuffer[] result = chunks;
+		if(result==null)throw new IllegalStateException("Storage was closed");
+		return result;
+	}
+
+	@Override
+	public int length(){
+		return length;
+	}
+
+	@Override
+	public double get(int index){
+		return chunks()[index>>>CHUNK_SHIFT].get(index&CHUNK_MASK);
+	}
+
+	@Override
+	public void set(int index,double value){
+		chunks()[index>>>CHUNK_SHIFT].put(index&CHUNK_MASK, value);
+	}
+
+	@Override
+	public void read(int index,double[] target,int offset,int count){
+		if(index<0 || count<0 || index>length-count)
+			throw new IndexOutOfBoundsException("Range ["+index+", "+index+"+"+count+") outside 0 to "+length);
+		DoubleBuffer[] lchunks = chunks();
+		while(count>0){
+			int within = index&CHUNK_MASK, piece = Math.min(count, CHUNK_SIZE-within);
+			// Duplicate so concurrent readers don't share a position
+			DoubleBuffer view = lchunks[index>>>CHUNK_SHIFT].duplicate();
+			view.position(within);
+			view.get(target, offset, piece);
+			index += piece;
+			offset += piece;
+			count -= piece;
+		}
+	}
+
+	@Override
+	public void write(int index,double[] source,int offset,int count){
+		if(index<0 || count<0 || index>length-count)
+			throw new IndexOutOfBoundsException("Range ["+index+", "+index+"+"+count+") outside 0 to "+length);
+		DoubleBuffer[] lchunks = chunks();
+		while(count>0){
+			int within = index&CHUNK_MASK, piece = Math.min(count, CHUNK_SIZE-within);
+			DoubleBuffer view = lchunks[index>>>CHUNK_SHIFT].duplicate();
+			view.position(within);
+			view.put(source, offset, piece);
+			index += piece;
+			offset += piece;
+			count -= piece;
+		}
+	}
+
+	/**
+	 * Drops the buffers, the memory is freed once they are collected
+	 */
+	@Override
+	public void close(){
+		chunks = null;
+	}
+}
@@ -0,0 +1,260 @@
+package core.storage;
+
+import java.util.*;
+import core.*;
+
+/**
+ * Sample storage split into fixed size chunks, shared between copies
+ * <br>
+ * Copies share all chunks, and a chunk is only copied when one side
+ * writes to it. Chunks of silence are all the same shared array, which
+ * is never written to, so silence costs nothing. Memory therefore grows
+ * with the distinct non-silent content, not the length.
+ * <br>
+ * Writing zeroes into silence doesn't allocate, and {@link #compact()}
+ * gives back chunks which became silent later.
+ * <br>
+ * Not thread safe for writes, and making a copy counts as a write
+ * since both sides lose ownership of their chunks
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class ChunkedStorage implements SampleStorage {
+
+	/**
+	 * Log base 2 of the samples per chunk
+	 */
+	public static final int CHUNK_SHIFT = 12;
+	/**
+	 * Samples per chunk
+	 */
+	public static final int CHUNK_SIZE = 1<<CHUNK_SHIFT;
+	/**
+	 * Mask for the index within a chunk
+	 */
+	public static final int CHUNK_MASK = CHUNK_SIZE-1;
+	/**
+	 * The silent chunk, must never be written to
+	 */
+	private static final double[] ZERO = new double[CHUNK_SIZE];
+
+	/**
+	 * Number of samples
+	 */
+	private final int length;
+	/**
+	 * The chunks, all full size even past the end
+	 */
+	private final double[][] chunks;
+	/**
+	 * Which chunks only this storage has, others must be copied before writing
+	 */
+	private final boolean[] owned;
+
+	/**
+	 * Make silent storage
+	 *
+	 * @param length number of samples
+	 */
+	public ChunkedStorage(int length){
+		if(length<0)throw new IllegalArgumentException("Length ("+length+") cannot be negative");
+		this.length = length;
+		int count = (int)(((long)length+CHUNK_MASK)>>>CHUNK_SHIFT);
+		chunks = new double[count][];
+		Arrays.fill(chunks, ZERO);
+		owned = new boolean[count];
+	}
+
+	/**
+	 * Make storage holding a copy of some samples, silent chunks are skipped
+	 *
+	 * @param data the samples to copy
+	 */
+	public ChunkedStorage(double[] data){
+		this(data.length);
+		write(0, data, 0, data.length);
+	}
+
+	/**
+	 * Copy constructor, shares all chunks
+	 *
+	 * @param copyFrom storage to copy
+	 */
+	private ChunkedStorage(ChunkedStorage copyFrom){
+		length = copyFrom.length;
+		chunks = copyFrom.chunks.clone();
+		owned = new boolean[chunks.length];
+		Arrays.fill(copyFrom.owned, false);
+	}
+
+	/**
+	 * Make a copy sharing all chunks, which takes time and memory
+	 * proportional to the number of chunks rather than samples
+	 *
+	 * @return the copy
+	 */
+	public ChunkedStorage copy(){
+		return new ChunkedStorage(this);
+	}
+
+	/**
+	 * Get a chunk which can be written to, copying it if needed
+	 *
+	 * @param chunk chunk index
+	 * @return the chunk
+	 */
+	private double[] writable(int chunk){
+		double[] result = chunks[chunk];
+		if(!owned[chunk]){
+			result = result==ZERO?new double[CHUNK_SIZE]:result.clone();
+			chunks[chunk] = result;
+			owned[chunk] = true;
+		}
+		return result;
+	}
+
+	/**
+	 * Check if part of an array is all zero
+	 *
+	 * @param array the array
+	 * @param offset index of first value
+	 * @param count number of values
+	 * @return true if all are zero
+	 */
+	private static boolean isZero(double[] array,int offset,int count){
+		for(int i=offset,end=offset+count;i<end;i++){
+			if(array[i]!=0d)return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check bounds for block operations
+	 *
+	 * @param index index of the first sample
+	 * @param count number of samples
+	 */
+	private void checkRange(int index,int count){
+		if(index<0 || count<0 || index>length-count)
+			throw new IndexOutOfBoundsException("Range ["+index+", "+index+"+"+count+") outside 0 to "+length);
+	}
+
+	@Override
+	public int length(){
+		return length;
+	}
+
+	@Override
+	public double get(int index){
+		if(index>=length)throw new IndexOutOfBoundsException("Index "+index+" outside 0 to "+length);
+		return chunks[index>>>CHUNK_SHIFT][index&CHUNK_MASK];
+	}
+
+	@Override
+	public void set(int index,double value){
+		if(index>=length)throw new IndexOutOfBoundsException("Index "+index+" outside 0 to "+length);
+		int chunk = index>>>CHUNK_SHIFT;
+		if(value==0d && chunks[chunk]==ZERO)return;
+		writable(chunk)[index&CHUNK_MASK] = value;
+	}
+
+	@Override
+	public void read(int index,double[] target,int offset,int count){
+		checkRange(index, count);
+		while(count>0){
+			int within = index&CHUNK_MASK, piece = Math.min(count, CHUNK_SIZE-within);
+			double[] chunk = chunks[index>>>CHUNK_SHIFT];
+			if(chunk==ZERO){
+				Arrays.fill(target, offset, offset+piece, 0d);
+			}else{
+				System.arraycopy(chunk, within, target, offset, piece);
+			}
+			index += piece;
+			offset += piece;
+			count -= piece;
+		}
+	}
+
+	@Override
+	public void write(int index,double[] source,int offset,int count){
+		checkRange(index, count);
+		while(count>0){
+			int chunk = index>>>CHUNK_SHIFT, within = index&CHUNK_MASK, piece = Math.min(count, CHUNK_SIZE-within);
+			if(chunks[chunk]!=ZERO || !isZero(source, offset, piece)){
+				System.arraycopy(source, offset, writable(chunk), within, piece);
+			}
+			index += piece;
+			offset += piece;
+			count -= piece;
+		}
+	}
+
+	@Override
+	public void add(int index,double[] source,int offset,int count){
+		checkRange(index, count);
+		while(count>0){
+			int chunk = index>>>CHUNK_SHIFT, within = index&CHUNK_MASK, piece = Math.min(count, CHUNK_SIZE-within);
+			if(!isZero(source, offset, piece)){
+				double[] target = writable(chunk);
+				for(int i=0;i<piece;i++){
+					target[within+i] += source[offset+i];
+				}
+			}
+			index += piece;
+			offset += piece;
+			count -= piece;
+		}
+	}
+
+	/**
+	 * Check if a range is known to be silent without reading it,
+	 * may say false for silence which was written explicitly
+	 * and not yet compacted
+	 *
+	 * @param start index of the first sample
+	 * @param end index after the last sample
+	 * @return true if every chunk covering the range is the silent chunk
+	 */
+	public boolean isSilent(int start,int end){
+		if(end<=start)return true;
+		for(int c=start>>>CHUNK_SHIFT,last=(end-1)>>>CHUNK_SHIFT;c<=last;c++){
+			if(chunks[c]!=ZERO)return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Replace chunks which became silent with the shared silent chunk
+	 *
+	 * @return number of chunks freed
+	 */
+	public int compact(){
+		int result = 0;
+		for(int c=0;c<chunks.length;c++){
+			if(owned[c] && isZero(chunks[c], 0, CHUNK_SIZE)){
+				chunks[c] = ZERO;
+				owned[c] = false;
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of chunks which are not silent,
+	 * some may be shared with copies
+	 */
+	public int getAllocatedChunks(){
+		int result = 0;
+		for(double[] chunk:chunks){
+			if(chunk!=ZERO)result++;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString(){
+		return "<ChunkedStorage of "+length+" samples, "+getAllocatedChunks()+"/"+chunks.length+" chunks allocated>";
+	}
+}
@@ -0,0 +1,44 @@
+package core.storage;
+
+import java.nio.*;
+import core.*;
+
+/**
+ * Sample storage in direct buffers, off the heap
+ * <br>
+ * The garbage collector never scans or copies the samples, so long
+ * recordings don't cost anything at collection time. The memory counts
+ * against <i>-XX:MaxDirectMemorySize</i> instead of the heap.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class DirectStorage extends BufferStorage {
+
+	/**
+	 * Allocate zeroed storage
+	 *
+	 * @param length number of samples
+	 */
+	public DirectStorage(int length){
+		super(length);
+		for(int i=0;i<chunks.length;i++){
+			chunks[i] = ByteBuffer.allocateDirect(chunkLength(i)*Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+	}
+
+	/**
+	 * Allocate storage holding a copy of some samples
+	 *
+	 * @param data the samples to copy
+	 */
+	public DirectStorage(double[] data){
+		this(data.length);
+		write(0, data, 0, data.length);
+	}
+
+	@Override
+	public String toString(){
+		return "<DirectStorage of "+length+" samples>";
+	}
+}
@@ -0,0 +1,73 @@
+package core.storage;
+
+import core.*;
+
+/**
+ * Sample storage in an ordinary array on the heap
+ * <br>
+ * What every {@link Samples} used before there were other storages,
+ * the array is shared, not copied
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class HeapStorage implements SampleStorage {
+
+	/**
+	 * The samples
+	 */
+	private final double[] data;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param data the samples, shared
+	 */
+	public HeapStorage(double[] data){
+		if(data==null)throw new NullPointerException("Sample data cannot be null");
+		this.data = data;
+	}
+
+	@Override
+	public int length(){
+		return data.length;
+	}
+
+	@Override
+	public double get(int index){
+		return data[index];
+	}
+
+	@Override
+	public void set(int index,double value){
+		data[index] = value;
+	}
+
+	@Override
+	public void read(int index,double[] target,int offset,int count){
+		System.arraycopy(data, index, target, offset, count);
+	}
+
+	@Override
+	public void write(int index,double[] source,int offset,int count){
+		System.arraycopy(source, offset, data, index, count);
+	}
+
+	@Override
+	public void add(int index,double[] source,int offset,int count){
+		double[] ldata = data;
+		for(int i=0;i<count;i++){
+			ldata[index+i] += source[offset+i];
+		}
+	}
+
+	@Override
+	public double[] array(){
+		return data;
+	}
+
+	@Override
+	public String toString(){
+		return "<HeapStorage of "+data.length+" samples>";
+	}
+}
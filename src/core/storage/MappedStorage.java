@@ -0,0 +1,122 @@
+package core.storage;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import core.*;
+
+/**
+ * Sample storage in a file mapped into memory
+ * <br>
+ * The operating system pages samples in and out as they are used, so
+ * recordings longer than memory work, and a capture written here is
+ * already on disk. The file is raw little-endian doubles with no header,
+ * to play WAV files straight from disk use {@link SampleFile} instead.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class MappedStorage extends BufferStorage {
+
+	/**
+	 * The file
+	 */
+	public final Path path;
+	/**
+	 * Channel the chunks were mapped from
+	 */
+	private FileChannel channel;
+	/**
+	 * Raw mapped chunks, kept to force changes to disk
+	 */
+	private MappedByteBuffer[] mapped;
+
+	/**
+	 * Map a file
+	 *
+	 * @param path the file
+	 * @param length number of samples
+	 * @param writable true to allow writing
+	 * @throws IOException if the file can't be opened or mapped
+	 */
+	private MappedStorage(Path path,int length,boolean writable) throws IOException{
+		super(length);
+		this.path = path;
+		channel = writable
+				?FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				:FileChannel.open(path, StandardOpenOption.READ);
+		mapped = new MappedByteBuffer[chunks.length];
+		try{
+			FileChannel.MapMode mode = writable?FileChannel.MapMode.READ_WRITE:FileChannel.MapMode.READ_ONLY;
+			for(int i=0;i<chunks.length;i++){
+				long start = ((long)i<<CHUNK_SHIFT)*Double.BYTES;
+				mapped[i] = channel.map(mode, start, (long)chunkLength(i)*Double.BYTES);
+				chunks[i] = mapped[i].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+		}catch(IOException e){
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Create a file of zeroes, replacing any existing file, and map it
+	 *
+	 * @param path the file
+	 * @param length number of samples
+	 * @return the storage
+	 * @throws IOException if the file can't be created or mapped
+	 */
+	public static MappedStorage create(Path path,int length) throws IOException{
+		Files.deleteIfExists(path);
+		return new MappedStorage(path,length,true);
+	}
+
+	/**
+	 * Map an existing file
+	 *
+	 * @param path the file
+	 * @param writable true to allow writing, changes go to the file
+	 * @return the storage
+	 * @throws IOException if the file can't be opened or mapped, or is too long
+	 */
+	public static MappedStorage open(Path path,boolean writable) throws IOException{
+		long samples = Files.size(path)/Double.BYTES;
+		if(samples>Integer.MAX_VALUE)throw new IOException("File "+path+" has too many samples ("+samples+")");
+		return new MappedStorage(path,(int)samples,writable);
+	}
+
+	/**
+	 * Write changes to disk now instead of whenever the system decides to
+	 */
+	public void force(){
+		if(mapped==null)throw new IllegalStateException("Storage was closed");
+		for(MappedByteBuffer buffer:mapped){
+			if(!buffer.isReadOnly())buffer.force();
+		}
+	}
+
+	/**
+	 * Writes changes to disk and closes the file, the mapping itself
+	 * is released once the buffers are collected
+	 */
+	@Override
+	public void close(){
+		if(mapped==null)return;
+		force();
+		super.close();
+		mapped = null;
+		try{
+			channel.close();
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		channel = null;
+	}
+
+	@Override
+	public String toString(){
+		return "<MappedStorage of "+length+" samples at "+path+">";
+	}
+}
@@ -27,6 +27,28 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 	 * Simple oscillators
 	 */
 	public final List<Osc> oscillators;
+	/**
+	 * Filter applied to each note, null for none
+	 */
+	public volatile FilterBank.Mode filterMode;
+	/**
+	 * Filter cutoff in Hz, for A4 if there is key tracking
+	 */
+	public volatile double filterCutoff = 2000d;
+	/**
+	 * Filter resonance (Q), 1/sqrt(2) is flat
+	 */
+	public volatile double filterResonance = Math.sqrt(0.5d);
+	/**
+	 * How much the cutoff follows the note pitch, 1 to follow fully
+	 */
+	public volatile double filterKeyTracking;
+	
+	/**
+	 * Filtered voice group for each track, so all notes on a track share
+	 * one {@link FilterBank}
+	 */
+	protected transient IdentityHashMap<TrackLayerSimple,FilteredVoices> filterGroups;
 	
 	/**
 	 * The parent composition
@@ -53,6 +75,7 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 	@Override
 	public void initTransient(Composition parent) {
 		parentComposition = parent;
+		filterGroups = new IdentityHashMap<>();
 	}
 
 	@Override
@@ -77,14 +100,78 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 		int n = oscillators.size();
 		Osc[] losc = oscillators.toArray(new Osc[n]);
 		for(double[] clip:clips){
-			Voice[] oscvoices = new Voice[n];
-			for(int i=0;i<n;i++){
-				Osc.OscVoice added = losc[i].spawn(clip[2], clip[0], clip[1], clip[3]);
-				added.delay = clip[0];
-				oscvoices[i]=added;
-			}
-			target.addVoice(Voice.combine(oscvoices));
+			addVoice(target, spawnCombined(losc, clip[2], clip[0], clip[1], clip[3]), clip[2]);
+		}
+	}
+
+	@Override
+	public void spawnVoices(NoteBuffer notes, TrackLayerSimple target, Session session) {
+		int n = oscillators.size();
+		Osc[] losc = oscillators.toArray(new Osc[n]);
+		double[] data = notes.data();
+		int stride = notes.stride(), count = notes.size();
+		double invRate = 1d/notes.sampleRate;
+		for(int j=0,offset=0;j<count;j++,offset+=stride){
+			double start = data[offset+NoteBuffer.START]*invRate;
+			double end = data[offset+NoteBuffer.END]*invRate;
+			double pitch = data[offset+NoteBuffer.PITCH];
+			addVoice(target, spawnCombined(losc, pitch, start, end, data[offset+NoteBuffer.VOLUME]), pitch);
+		}
+	}
+	
+	/**
+	 * Add a note's voice to a track, through the track's filter group
+	 * if the filter is on
+	 * 
+	 * @param target the track
+	 * @param voice the voice
+	 * @param pitch pitch of the note, for key tracking
+	 */
+	protected void addVoice(TrackLayerSimple target,Voice voice,double pitch){
+		if(filterMode==null){
+			target.addVoice(voice);
+			return;
+		}
+		FilteredVoices group = filterGroups.get(target);
+		boolean isNew = group==null || !group.isAlive();
+		if(isNew){
+			group = new FilteredVoices();
+			filterGroups.put(target, group);
+		}
+		group.add(voice, pitch);
+		if(isNew)target.addVoice(group);
+	}
+	
+	/**
+	 * Get the filter cutoff for a note
+	 * 
+	 * @param pitch pitch as semitones from A4 (440Hz)
+	 * @return cutoff in Hz
+	 */
+	public double getFilterCutoff(double pitch){
+		double lkeyTracking = filterKeyTracking;
+		return lkeyTracking==0d?filterCutoff:filterCutoff*Math.pow(SEMITONE, pitch*lkeyTracking);
+	}
+	
+	/**
+	 * Make one voice for a note, combining a voice from each oscillator
+	 * 
+	 * @param losc the oscillators
+	 * @param pitch pitch as semitones from A4 (440Hz)
+	 * @param start start time in seconds, relative to the current block
+	 * @param end end time in seconds, relative to the current block
+	 * @param volume overall volume offset in B
+	 * @return the combined voice
+	 */
+	protected Voice spawnCombined(Osc[] losc,double pitch,double start,double end,double volume){
+		int n = losc.length;
+		Voice[] oscvoices = new Voice[n];
+		for(int i=0;i<n;i++){
+			Osc.OscVoice added = losc[i].spawn(pitch, start, end, volume);
+			added.delay = start;
+			oscvoices[i]=added;
 		}
+		return Voice.combine(oscvoices);
 	}
 
 	@Override
@@ -118,7 +205,7 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 
 	@Override
 	public Factory<Voice> getVoiceFactory() {
-		return null;//TODO
+		return new VoiceFactory();
 	}
 
 	@Override
@@ -249,9 +336,220 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 		SynthNOsc result = new SynthNOsc(parentComposition);
 		result.setName(newName);
 		result.oscillators.addAll(newOscillators);
+		result.filterMode = filterMode;
+		result.filterCutoff = filterCutoff;
+		result.filterResonance = filterResonance;
+		result.filterKeyTracking = filterKeyTracking;
 		return result;
 	}
 	
+	/**
+	 * Voice factory, takes positional arguments
+	 * pitch, start, end and volume, as in
+	 * {@link Osc#spawn(double, double, double, double)}
+	 * <br>
+	 * Missing arguments default to 0
+	 * 
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public class VoiceFactory implements Factory<Voice>{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Voice create(PyObject[] args, String[] keywords) {
+			double[] params = new double[4];
+			int positional = args.length-(keywords==null?0:keywords.length);
+			for(int i=0,n=Math.min(positional, params.length);i<n;i++){
+				params[i] = args[i].asDouble();
+			}
+			int n = oscillators.size();
+			return spawnCombined(oscillators.toArray(new Osc[n]), params[0], params[1], params[2], params[3]);
+		}
+	}
+	
+	/**
+	 * All filtered notes of this synthesizer on one track
+	 * <br>
+	 * Each note gets a channel in a shared {@link FilterBank}, notes are rendered
+	 * into a frame-major block, filtered together, then summed into the output.
+	 * Buffers are kept between blocks so nothing is allocated per note.
+	 * 
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public class FilteredVoices implements Voice{
+		
+		/**
+		 * Notes being played, voice <i>i</i> uses filter channel <i>i</i>
+		 */
+		protected final ArrayList<Voice> members = new ArrayList<>();
+		/**
+		 * Pitch of each note
+		 */
+		protected double[] pitches = new double[16];
+		/**
+		 * The filters
+		 */
+		protected FilterBank bank;
+		/**
+		 * Scratch for rendering one note
+		 */
+		protected double[] row = new double[0];
+		/**
+		 * Scratch for all notes, frame-major
+		 */
+		protected double[] block = new double[0];
+		/**
+		 * Destroyed yet?
+		 */
+		protected transient boolean destroyed = false;
+		
+		/**
+		 * Add a note
+		 * 
+		 * @param voice the note's voice
+		 * @param pitch the note's pitch
+		 */
+		public void add(Voice voice,double pitch){
+			int rate = parentComposition.currentSession.getSampleRate();
+			if(bank==null || bank.sampleRate!=rate){
+				FilterBank old = bank;
+				bank = new FilterBank(rate, filterMode==null?FilterBank.Mode.LOWPASS:filterMode, Math.max(members.size()+1, 8));
+				if(old!=null){
+					for(int i=0,n=members.size();i<n;i++){
+						bank.add(getFilterCutoff(pitches[i]), filterResonance);
+					}
+				}
+			}
+			int index = members.size();
+			if(index==pitches.length)pitches = Arrays.copyOf(pitches, index<<1);
+			pitches[index] = pitch;
+			members.add(voice);
+			bank.add(getFilterCutoff(pitch), filterResonance);
+		}
+		
+		@Override
+		public Samples nextSegment(int sampleCount) {
+			double[] data = new double[sampleCount];
+			renderTo(data,0,sampleCount);
+			return new Samples(parentComposition.currentSession.getSampleRate(),data);
+		}
+		
+		@Override
+		public void renderTo(double[] target,int offset,int count){
+			int n = members.size();
+			if(n==0 || count<=0)return;
+			FilterBank.Mode lmode = filterMode;
+			if(lmode==null){
+				//Filter turned off, play notes as they are
+				for(int i=0;i<n;i++)members.get(i).renderTo(target, offset, count);
+				removeDead();
+				return;
+			}
+			FilterBank lbank = bank;
+			lbank.mode = lmode;
+			double lresonance = filterResonance;
+			for(int c=0;c<n;c++){
+				lbank.setTarget(c, getFilterCutoff(pitches[c]), lresonance);
+			}
+			if(row.length<count)row = new double[count];
+			if(block.length<count*n)block = new double[Math.max(count*n, block.length<<1)];
+			double[] lrow = row, lblock = block;
+			for(int c=0;c<n;c++){
+				Arrays.fill(lrow, 0, count, 0d);
+				members.get(c).renderTo(lrow, 0, count);
+				for(int f=0,i=c;f<count;f++,i+=n){
+					lblock[i] = lrow[f];
+				}
+			}
+			lbank.process(lblock, 0, count);
+			for(int f=0,i=0;f<count;f++){
+				double sum = 0d;
+				for(int end=i+n;i<end;i++){
+					sum += lblock[i];
+				}
+				target[offset+f] += sum;
+			}
+			removeDead();
+		}
+		
+		/**
+		 * Drop notes which have finished, keeping voices and
+		 * filter channels in step
+		 */
+		protected void removeDead(){
+			for(int c=members.size()-1;c>=0;c--){
+				if(!members.get(c).isAlive()){
+					int last = members.size()-1;
+					members.set(c, members.get(last));
+					members.remove(last);
+					pitches[c] = pitches[last];
+					bank.remove(c);
+				}
+			}
+		}
+		
+		@Override
+		public boolean isAlive() {
+			return !destroyed && !members.isEmpty();
+		}
+		
+		@Override
+		public void requestKill() {
+			for(Voice voice:members)voice.requestKill();
+		}
+		
+		@Override
+		public void destroy() {
+			for(Voice voice:members)voice.destroy();
+			destroySelf();
+		}
+		
+		@Override
+		public void destroySelf() {
+			members.clear();
+			if(bank!=null)bank.clear();
+			destroyed = true;
+		}
+		
+		@Override
+		public boolean isDestroyed(){
+			return destroyed;
+		}
+		
+	}
+	
+	/**
+	 * Plugin entry point, see {@link SynthesizerProvider}
+	 * 
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static class Provider implements SynthesizerProvider{
+
+		@Override
+		public Class<? extends Synthesizer> getSynthClass() {
+			return SynthNOsc.class;
+		}
+
+		@Override
+		public String getCommonName() {
+			return "Nx Osc Synth";
+		}
+
+		@Override
+		public Synthesizer create(Session session) {
+			return makeDefaultSynth(session);
+		}
+		
+		@Override
+		public int getCapabilities(){
+			return CAPABILITY_POLYPHONIC | CAPABILITY_BLOCK_RENDER | CAPABILITY_LIVE;
+		}
+		
+	}
+	
 	private static final String SYNTHNOSC_CLASS_NAME = Osc.class.getCanonicalName();
 	private static final String OSC_CLASS_NAME = Osc.class.getCanonicalName();
 	private static final String[] OSC_PROPERTIES_NAMES = {
@@ -723,14 +1021,20 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 			@Override
 			public Samples nextSegment(int sampleCount) {
 				double[] data = new double[sampleCount];
-				if(step==3)return new Samples(sampleRate,data);
+				renderTo(data,0,sampleCount);
+				return new Samples(sampleRate,data);
+			}
+			
+			@Override
+			public void renderTo(double[] data,int offset,int sampleCount) {
+				if(step==3)return;
 				int ltype = type;
 				// Load values
 				double ldetune = getDetune(time), lvolume = getVolume(time), lattackConst = getAttackConst(time), lattackFrac = getAttackFrac(time), lholdConst = getHoldConst(time),
 						lholdFrac = getHoldFrac(time), ldecayConst = getDecayConst(time), ldecayFrac = getDecayFrac(time), lminVolume = getMinVolume(time);
 				double afreq = freq*Math.pow(SEMITONE, ldetune), aattack = -lminVolume/(sampleRate*(lattackConst*measure+lattackFrac*note)),
 						ahold = lholdConst*measure+lholdFrac*note, adecay = ldecayConst/measure+ldecayFrac/note, lpreMult = Math.pow(10d, lvolume+multOver);
-				for(int i=0;step<3 && i<sampleCount;i++){
+				for(int i=offset,end=offset+sampleCount;step<3 && i<end;i++){
 					if(delay>Floats.D_TINY){
 						delay-=sampleLength;
 						continue;
@@ -759,7 +1063,7 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 					switch(step){
 					case 0:{
 						double vol = lpreMult*Math.pow(10d, mult+=aattack);
-						data[i] = wf*vol;
+						data[i] += wf*vol;
 						if(mult>=lvolume){
 							step=1;
 							mult=lvolume;
@@ -769,7 +1073,7 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 					}
 					case 1:{
 						double vol = lpreMult;
-						data[i] = wf*vol;
+						data[i] += wf*vol;
 						if(time-switched>=ahold){//Not optimized away because the hold can change, and we like real time editing
 							step=2;
 						}
@@ -777,7 +1081,7 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 					}
 					case 2:{
 						double vol = lpreMult*Math.pow(10d, mult-=adecay);
-						data[i] = wf*vol;
+						data[i] += wf*vol;
 						if(mult<=lminVolume){
 							step=3;
 						}
@@ -785,7 +1089,6 @@ public class SynthNOsc implements BetterClone<SynthNOsc>, Synthesizer {
 					}
 					}
 				}
-				return new Samples(sampleRate,data);
 			}
 
 			@Override
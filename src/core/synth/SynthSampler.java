@@ -0,0 +1,536 @@
+package core.synth;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.*;
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import org.python.core.PyObject;
+import core.*;
+import util.jython.*;
+
+/**
+ * Sampler which streams notes from disk
+ * <br>
+ * The sample is a {@link SampleFile}, so only the attack is on the heap and the rest
+ * is read from a memory mapping shared by every voice (and every sampler) playing the
+ * same file. Heap usage therefore does not grow with the size of the sample library.
+ * <br>
+ * Pitch is changed by playing the file faster or slower, relative to
+ * <i>rootPitch</i>, the pitch the sample was recorded at.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class SynthSampler implements Synthesizer {
+	private static final long serialVersionUID = 1L;
+
+	private static final double SEMITONE = StrictMath.pow(2d, 1d/12d);
+
+	/**
+	 * Frames to read ahead of each voice
+	 */
+	public static final int READ_AHEAD_FRAMES = 1<<15;
+
+	/**
+	 * Path of the WAV file to play
+	 */
+	protected String fileName;
+	/**
+	 * Pitch the sample was recorded at, as semitones from A4 (440Hz)
+	 */
+	public volatile double rootPitch;
+	/**
+	 * Volume offset in B
+	 */
+	public volatile double volume;
+	/**
+	 * Fade out time after the note ends, in seconds
+	 */
+	public volatile double release = 0.05d;
+
+	/**
+	 * The open file, null if there is none or it couldn't be read
+	 */
+	protected transient SampleFile file;
+	/**
+	 * The parent composition
+	 */
+	protected transient Composition parentComposition;
+	/**
+	 * Destroyed yet?
+	 */
+	protected transient boolean destroyed = false;
+	/**
+	 * The name of this synthesizer. Use getter and setter instead of direct access.
+	 */
+	public String name;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param parent parent composition
+	 */
+	public SynthSampler(Composition parent){
+		initTransient(parent);
+	}
+
+	@Override
+	public void initTransient(Composition parent) {
+		parentComposition = parent;
+		openFile();
+	}
+
+	/**
+	 * @return path of the file being played
+	 */
+	public String getFileName(){
+		return fileName;
+	}
+
+	/**
+	 * Change the file to play, existing voices keep
+	 * playing the old one
+	 *
+	 * @param newFileName path to a WAV file
+	 * @return true if the file could be opened
+	 */
+	public synchronized boolean setFileName(String newFileName){
+		fileName = newFileName;
+		return openFile();
+	}
+
+	/**
+	 * (Re)open the file named by <i>fileName</i>
+	 *
+	 * @return true on success
+	 */
+	protected synchronized boolean openFile(){
+		SampleFile old = file;
+		file = null;
+		if(fileName!=null){
+			try{
+				file = SampleFile.open(Paths.get(fileName), SampleFile.DEFAULT_ATTACK_FRAMES);
+			}catch(IOException|RuntimeException e){
+				file = null;
+			}
+		}
+		if(old!=null)old.release();
+		return file!=null;
+	}
+
+	@Override
+	public void destroy() {
+		destroySelf();
+	}
+
+	@Override
+	public synchronized void destroySelf() {
+		if(file!=null){
+			file.release();
+			file = null;
+		}
+		destroyed = true;
+	}
+
+	@Override
+	public boolean isDestroyed(){
+		return destroyed;
+	}
+
+	@Override
+	public void spawnVoices(double[][] clips, TrackLayerSimple target, Session session) {
+		int rate = session.getSampleRate();
+		for(double[] clip:clips){
+			Voice voice = spawn(clip[2], clip[0]*rate, clip[1]*rate, clip[3], rate);
+			if(voice!=null)target.addVoice(voice);
+		}
+	}
+
+	@Override
+	public void spawnVoices(NoteBuffer notes, TrackLayerSimple target, Session session) {
+		double[] data = notes.data();
+		int stride = notes.stride(), count = notes.size();
+		for(int j=0,offset=0;j<count;j++,offset+=stride){
+			Voice voice = spawn(data[offset+NoteBuffer.PITCH], data[offset+NoteBuffer.START],
+					data[offset+NoteBuffer.END], data[offset+NoteBuffer.VOLUME], notes.sampleRate);
+			if(voice!=null)target.addVoice(voice);
+		}
+	}
+
+	@Override
+	public Voice spawnLiveVoice(int[] params, Session session) {
+		Voice voice = spawn(params[0], 0, Double.POSITIVE_INFINITY, 0, session.getSampleRate());
+		return voice==null?Voice.combine():voice;
+	}
+
+	/**
+	 * Create a voice
+	 *
+	 * @param pitch pitch as semitones from A4 (440Hz)
+	 * @param start start, in frames from now
+	 * @param end end, in frames from now
+	 * @param noteVolume additional volume offset in B
+	 * @param outputRate output sample rate
+	 * @return the voice, or null if there is no file
+	 */
+	protected Voice spawn(double pitch,double start,double end,double noteVolume,int outputRate){
+		SampleFile lfile = file;
+		if(lfile==null)return null;
+		return new SamplerVoice(lfile,pitch,start,end,noteVolume,outputRate);
+	}
+
+	@Override
+	public MetaComponent<? extends JInternalFrame> getUI() {
+		Session session = parentComposition.currentSession;
+		String group = "Sampler Editor - "+getName();
+		MetaComponent<JInternalFrame> meta = session.windowManager.getWindow(group);
+		if(meta==null||meta.component.isClosed()){
+			JInternalFrame frame = new JInternalFrame(group,true,true,true,true);
+			frame.setContentPane(new Editor());
+			frame.pack();
+			meta = new MetaComponent<>("Default Sampler Editor",group,frame,null);
+		}
+		return meta;
+	}
+
+	@Override
+	public void setGlobals(HashMap<String, Object> vars) {
+
+	}
+
+	@Override
+	public boolean isPython() {
+		return false;
+	}
+
+	@Override
+	public Factory<Voice> getVoiceFactory() {
+		return new VoiceFactory();
+	}
+
+	@Override
+	public PyObject getPvfInfo() {
+		return null;
+	}
+
+	@Override
+	public Color getColorSignature(double time){
+		int hash = Objects.hashCode(fileName);
+		return Color.getHSBColor(0x1.0p-16f*(hash&0xffff), 0.3f, 0.5f+0x1.0p-17f*(hash>>>16));
+	}
+
+	@Override
+	public String getName(){
+		if(name==null || name.length()==0)return Track.defaultNameAny("Synthesizer", this);
+		return name;
+	}
+
+	@Override
+	public boolean setName(String newName){
+		name = newName;
+		return true;
+	}
+
+	/**
+	 * Minimal editor, picks the file and sets the pitch, volume and release
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	protected class Editor extends JPanel{
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Shows the current file, or why it can't be played
+		 */
+		protected final JLabel fileLabel = new JLabel();
+
+		/**
+		 * Lay out the controls
+		 */
+		public Editor(){
+			super(new GridBagLayout());
+			GridBagConstraints c = new GridBagConstraints();
+			c.insets = new Insets(2,4,2,4);
+			c.anchor = GridBagConstraints.WEST;
+			c.fill = GridBagConstraints.HORIZONTAL;
+			JButton browse = new JButton("Open sample...");
+			browse.addActionListener(e->chooseFile());
+			c.gridx = 0;c.gridy = 0;
+			add(browse, c);
+			c.gridx = 1;c.weightx = 1d;
+			add(fileLabel, c);
+			c.weightx = 0d;
+			addSpinner(1, "Root pitch (semitones from A4)", new SpinnerNumberModel(rootPitch, -120d, 120d, 1d), v->rootPitch = v);
+			addSpinner(2, "Volume (B)", new SpinnerNumberModel(volume, -10d, 10d, 0.1d), v->volume = v);
+			addSpinner(3, "Release (s)", new SpinnerNumberModel(release, 0d, 60d, 0.01d), v->release = v);
+			updateLabel(true);
+		}
+
+		/**
+		 * Add a labelled number spinner
+		 *
+		 * @param row grid row
+		 * @param label text beside it
+		 * @param model spinner model, starting at the current value
+		 * @param setter applies a new value
+		 */
+		private void addSpinner(int row,String label,SpinnerNumberModel model,java.util.function.DoubleConsumer setter){
+			GridBagConstraints c = new GridBagConstraints();
+			c.insets = new Insets(2,4,2,4);
+			c.anchor = GridBagConstraints.WEST;
+			c.gridx = 0;c.gridy = row;
+			add(new JLabel(label), c);
+			JSpinner spinner = new JSpinner(model);
+			spinner.addChangeListener(e->setter.accept(model.getNumber().doubleValue()));
+			c.gridx = 1;
+			c.fill = GridBagConstraints.HORIZONTAL;
+			add(spinner, c);
+		}
+
+		/**
+		 * Ask for a WAV file and switch to it
+		 */
+		protected void chooseFile(){
+			JFileChooser chooser = new JFileChooser();
+			chooser.setFileFilter(new FileNameExtensionFilter("WAV files", "wav", "wave"));
+			if(fileName!=null){
+				File current = new File(fileName);
+				chooser.setCurrentDirectory(current.getParentFile());
+				chooser.setSelectedFile(current);
+			}
+			if(chooser.showOpenDialog(this)==JFileChooser.APPROVE_OPTION){
+				updateLabel(setFileName(chooser.getSelectedFile().getAbsolutePath()));
+			}
+		}
+
+		/**
+		 * Show the current file
+		 *
+		 * @param opened whether the file could be opened
+		 */
+		protected void updateLabel(boolean opened){
+			if(fileName==null){
+				fileLabel.setText("No sample");
+			}else{
+				String shown = new File(fileName).getName();
+				fileLabel.setText(opened && file!=null?shown:shown+" (could not be read)");
+			}
+			fileLabel.setToolTipText(fileName);
+		}
+	}
+
+	/**
+	 * Voice factory, takes positional arguments
+	 * pitch, start, end (in seconds) and volume
+	 * <br>
+	 * Missing arguments default to 0
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public class VoiceFactory implements Factory<Voice>{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Voice create(PyObject[] args, String[] keywords) {
+			double[] params = new double[4];
+			int positional = args.length-(keywords==null?0:keywords.length);
+			for(int i=0,n=Math.min(positional, params.length);i<n;i++){
+				params[i] = args[i].asDouble();
+			}
+			int rate = parentComposition.currentSession.getSampleRate();
+			Voice voice = spawn(params[0], params[1]*rate, params[2]*rate, params[3], rate);
+			return voice==null?Voice.combine():voice;
+		}
+	}
+
+	/**
+	 * Plugin entry point, see {@link SynthesizerProvider}
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static class Provider implements SynthesizerProvider{
+
+		@Override
+		public Class<? extends Synthesizer> getSynthClass() {
+			return SynthSampler.class;
+		}
+
+		@Override
+		public String getCommonName() {
+			return "Sampler";
+		}
+
+		@Override
+		public Synthesizer create(Session session) {
+			SynthSampler result = new SynthSampler(session.composition);
+			result.setName(
+					session.composition.synths.nextName(
+							session.getCommonName(SynthSampler.class),
+							0, false, session));
+			return result;
+		}
+
+		@Override
+		public int getCapabilities(){
+			return CAPABILITY_POLYPHONIC | CAPABILITY_BLOCK_RENDER | CAPABILITY_LIVE;
+		}
+
+		@Override
+		public double getTailLength(){
+			return 1d;
+		}
+
+	}
+
+	/**
+	 * A voice playing the file once
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public class SamplerVoice implements Voice{
+
+		/**
+		 * The file being played, kept so the voice can finish
+		 * even if the sampler changes file
+		 */
+		protected SampleFile source;
+		/**
+		 * Current read position in the file, in frames
+		 */
+		protected double position;
+		/**
+		 * Frames advanced per output sample
+		 */
+		protected final double increment;
+		/**
+		 * Output samples to wait before starting
+		 */
+		protected double delay;
+		/**
+		 * Output samples left before the release starts
+		 */
+		protected double remaining;
+		/**
+		 * Linear gain
+		 */
+		protected final double gain;
+		/**
+		 * Current release envelope, 1 until released
+		 */
+		protected double envelope = 1d;
+		/**
+		 * Envelope change per output sample once released
+		 */
+		protected final double releaseStep;
+		/**
+		 * Frames up to which a prefetch was already requested
+		 */
+		protected long prefetched;
+		/**
+		 * Dead, either finished or destroyed
+		 */
+		protected boolean dead;
+
+		/**
+		 * Destroyed yet?
+		 */
+		protected transient boolean destroyed = false;
+
+		/**
+		 * Fill in fields automatically
+		 *
+		 * @param source the file to play
+		 * @param pitch pitch as semitones from A4 (440Hz)
+		 * @param start start, in output samples from now
+		 * @param end end, in output samples from now
+		 * @param noteVolume additional volume offset in B
+		 * @param outputRate output sample rate
+		 */
+		public SamplerVoice(SampleFile source,double pitch,double start,double end,double noteVolume,int outputRate){
+			this.source = source;
+			increment = Math.pow(SEMITONE, pitch-rootPitch)*source.sampleRate/outputRate;
+			delay = Math.max(start, 0d);
+			// A note which started before this block has already played part of the file
+			position = start<0?-start*increment:0d;
+			remaining = end-Math.max(start, 0d);
+			gain = Math.pow(10d, volume+noteVolume);
+			releaseStep = 1d/Math.max(release*outputRate, 1d);
+			prefetched = (long)position;
+		}
+
+		@Override
+		public Samples nextSegment(int sampleCount) {
+			double[] data = new double[sampleCount];
+			renderTo(data,0,sampleCount);
+			return new Samples(parentComposition.currentSession.getSampleRate(),data);
+		}
+
+		@Override
+		public void renderTo(double[] target,int offset,int count){
+			if(dead)return;
+			int i = offset, end = offset+count;
+			// Skip ahead to the start of the note
+			int skip = (int)Math.min(Math.ceil(delay), count);
+			i += skip;
+			delay -= skip;
+			SampleFile lsource = source;
+			long frames = lsource.frames;
+			double lposition = position, lincrement = increment, lgain = gain, lremaining = remaining, lenvelope = envelope;
+			// Ask for the upcoming pages before they're needed
+			long ahead = (long)(lposition+count*lincrement)+(READ_AHEAD_FRAMES>>1);
+			if(ahead>prefetched && prefetched<frames){
+				lsource.prefetch(prefetched, READ_AHEAD_FRAMES);
+				prefetched += READ_AHEAD_FRAMES;
+			}
+			for(;i<end;i++){
+				long index = (long)lposition;
+				if(index>=frames || lenvelope<=0d){
+					dead = true;
+					break;
+				}
+				double frac = lposition-index;
+				double a = lsource.frameAt(index), b = lsource.frameAt(index+1);
+				target[i] += (a+(b-a)*frac)*lgain*lenvelope;
+				lposition += lincrement;
+				if(--lremaining<0d)lenvelope -= releaseStep;
+			}
+			position = lposition;
+			remaining = lremaining;
+			envelope = lenvelope;
+		}
+
+		@Override
+		public boolean isAlive() {
+			return !dead;
+		}
+
+		@Override
+		public void requestKill() {
+			if(remaining>0d)remaining = 0d;
+		}
+
+		@Override
+		public void destroy() {
+			destroySelf();
+		}
+
+		@Override
+		public void destroySelf() {
+			dead = true;
+			destroyed = true;
+		}
+
+		@Override
+		public boolean isDestroyed(){
+			return destroyed;
+		}
+
+	}
+
+}
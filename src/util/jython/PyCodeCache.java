@@ -0,0 +1,222 @@
+package util.jython;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import org.python.Version;
+import org.python.core.*;
+import util.ds.LhmCache;
+
+/**
+ * Compile-once cache for Python scripts
+ * <br>
+ * Scripts are keyed by a SHA-256 digest of their source and the Jython
+ * version, which stays the same between runs, unlike the per-run
+ * {@link PyInterpreterPool#scriptHash(String, boolean)}. Compiled code is kept
+ * in memory and the generated bytecode is also written to a local cache
+ * directory, so the next run can skip the Jython compiler entirely
+ * <br>
+ * The directory keeps at most {@link #FILE_LIMIT} files, the least recently
+ * used ones are deleted beyond that
+ * <br>
+ * The cache directory is taken from the system property {@link #DIRECTORY_PROPERTY}
+ * if set, otherwise it is <i>~/.wavelets/pycache</i>. Failing to read or write
+ * there is not an error, the script is just compiled again.
+ * <br>
+ * Thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class PyCodeCache {
+
+	//Disallow invoking constructor
+	private PyCodeCache(){}
+
+	/**
+	 * Maximum number of compiled scripts to keep in memory
+	 */
+	public static final int MEMORY_LIMIT = 1<<6;
+
+	/**
+	 * Maximum number of cached bytecode files to keep on disk
+	 */
+	public static final int FILE_LIMIT = 1<<8;
+
+	/**
+	 * System property which overrides the cache directory
+	 */
+	public static final String DIRECTORY_PROPERTY = "wavelets.pycache";
+
+	/**
+	 * File extension for cached bytecode
+	 */
+	private static final String EXTENSION = ".class";
+
+	/**
+	 * Compiled code by module name
+	 */
+	private static final LhmCache<String,PyCode> codes = new LhmCache<>(MEMORY_LIMIT,true);
+
+	/**
+	 * Cache directory, resolved lazily
+	 */
+	private static Path directory;
+
+	/**
+	 * Get compiled code for a script, compiling it only if
+	 * it isn't cached in memory or on disk
+	 *
+	 * @param source the script
+	 * @return code which can be passed to {@link org.python.util.PythonInterpreter#exec(PyObject)}
+	 */
+	public static synchronized PyCode compile(String source){
+		String name = moduleName(source);
+		PyCode code = codes.get(name);
+		if(code==null){
+			byte[] bytes = readCached(name);
+			if(bytes==null){
+				bytes = imp.compileSource(name, new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)), name);
+				writeCached(name, bytes);
+			}
+			code = BytecodeLoader.makeCode(name+"$py", bytes, name);
+			codes.put(name, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Forget everything in memory and on disk
+	 */
+	public static synchronized void clear(){
+		codes.clear();
+		Path dir = getDirectory();
+		if(dir==null)return;
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*"+EXTENSION)){
+			for(Path file:stream)
+				Files.deleteIfExists(file);
+		}catch(IOException e){
+			// Stale files are harmless
+		}
+	}
+
+	/**
+	 * Name used for the generated module, which is also the file name
+	 * <br>
+	 * The digest covers the Jython version too, so bytecode from a
+	 * different version is never loaded
+	 *
+	 * @param source the script
+	 * @return module name
+	 */
+	private static String moduleName(String source){
+		MessageDigest digest;
+		try{
+			digest = MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException e){
+			// Every Java platform is required to have it
+			throw new IllegalStateException(e);
+		}
+		digest.update(Version.PY_VERSION.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte)0);
+		byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+		StringBuilder sb = new StringBuilder("script_");
+		for(byte b:hash){
+			sb.append(Character.forDigit((b>>4)&0xf, 16)).append(Character.forDigit(b&0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the cache directory, creating it if necessary
+	 *
+	 * @return the directory, or null if it is unusable
+	 */
+	private static Path getDirectory(){
+		if(directory==null){
+			String location = System.getProperty(DIRECTORY_PROPERTY);
+			Path dir = location!=null
+					?Paths.get(location)
+					:Paths.get(System.getProperty("user.home"), ".wavelets", "pycache");
+			try{
+				directory = Files.createDirectories(dir);
+			}catch(IOException|SecurityException e){
+				return null;
+			}
+		}
+		return directory;
+	}
+
+	/**
+	 * Read bytecode from the cache directory
+	 *
+	 * @param name module name
+	 * @return the bytecode, or null if not cached
+	 */
+	private static byte[] readCached(String name){
+		Path dir = getDirectory();
+		if(dir==null)return null;
+		Path file = dir.resolve(name+EXTENSION);
+		try{
+			if(!Files.isRegularFile(file))return null;
+			byte[] result = Files.readAllBytes(file);
+			// Modification time doubles as last use, for pruning
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return result;
+		}catch(IOException|SecurityException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Write bytecode to the cache directory
+	 * <br>
+	 * Written to a temporary file first, so other
+	 * instances never see a partial file
+	 *
+	 * @param name module name
+	 * @param bytes the bytecode
+	 */
+	private static void writeCached(String name,byte[] bytes){
+		Path dir = getDirectory();
+		if(dir==null)return;
+		try{
+			Path temp = Files.createTempFile(dir, name, ".tmp");
+			Files.write(temp, bytes);
+			Files.move(temp, dir.resolve(name+EXTENSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException|SecurityException e){
+			// Not cached, it'll be compiled again next time
+		}
+		prune(dir);
+	}
+
+	/**
+	 * Delete the least recently used files beyond {@link #FILE_LIMIT}
+	 *
+	 * @param dir the cache directory
+	 */
+	private static void prune(Path dir){
+		ArrayList<Path> files = new ArrayList<>();
+		HashMap<Path,Long> times = new HashMap<>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*"+EXTENSION)){
+			for(Path file:stream){
+				files.add(file);
+				times.put(file, Files.getLastModifiedTime(file).toMillis());
+			}
+		}catch(IOException|SecurityException e){
+			return;
+		}
+		if(files.size()<=FILE_LIMIT)return;
+		files.sort((a,b)->Long.compare(times.get(a), times.get(b)));
+		for(int i=0,excess=files.size()-FILE_LIMIT;i<excess;i++){
+			try{
+				Files.deleteIfExists(files.get(i));
+			}catch(IOException|SecurityException e){
+				// Try again on the next write
+			}
+		}
+	}
+}
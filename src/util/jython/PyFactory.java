@@ -1,8 +1,6 @@
 package util.jython;
 
-import java.io.*;
 import org.python.core.*;
-import org.python.util.*;
 
 /**
  * Factory pattern for creating instances of any Java object
@@ -33,26 +31,11 @@ public class PyFactory<T> implements Factory<T> {
 	 */
 	public PyFactory(Class<T> javaClass,String a,String b,boolean asScript){
 		this.javaClass = javaClass;
-		PythonInterpreter interpreter = new PythonInterpreter();
 		/*
-		 * Import the core classes
-		 * If a scripter needs anything else, they are expected to know about
-		 * and import it
+		 * Scripts are run in a shared interpreter, so identical scripts
+		 * are only run once and give back the same class
 		 */
-		for(String packageName:new String[]{
-				"main",
-				"utils",
-				"components"
-		})
-			interpreter.exec("from "+packageName+" import *");
-		if(asScript){
-			interpreter.exec(a);
-		}else{
-			interpreter.exec("from "+a+" import "+b);
-		}
-		instanceClass = interpreter.get(b);
-		interpreter.cleanup();
-		interpreter.close();
+		instanceClass = PyInterpreterPool.resolve(a, b, asScript);
 	}
 	
 	public T create(PyObject[] args,String[] keywords){
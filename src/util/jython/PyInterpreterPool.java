@@ -0,0 +1,180 @@
+package util.jython;
+
+import java.util.*;
+import org.python.core.*;
+import org.python.util.*;
+import util.ds.LhmCache;
+import util.hash.*;
+
+/**
+ * Shared Python interpreters, one per distinct script
+ * <br>
+ * Interpreters are keyed by a hash of the script, so identical
+ * scripts are only run once and everything they define is shared,
+ * no matter how many {@link PyFactory} objects use them
+ * <br>
+ * Scripts are compiled through {@link PyCodeCache}, so even a new
+ * interpreter does not need to compile a script it has seen before
+ * <br>
+ * Least recently used interpreters are closed once there are
+ * more than {@link #POOL_LIMIT} of them
+ * <br>
+ * Thread safe, though a single interpreter is only ever used
+ * by one thread at a time
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class PyInterpreterPool {
+
+	//Disallow invoking constructor
+	private PyInterpreterPool(){}
+
+	/**
+	 * Maximum number of interpreters to keep alive
+	 */
+	public static final int POOL_LIMIT = 1<<5;
+
+	/**
+	 * Hash key for <i>scriptHash()</i>
+	 */
+	public static final long HK_SH = QuickKeyGen.next64();
+
+	/**
+	 * Packages every interpreter starts with
+	 * <br>
+	 * If a scripter needs anything else, they are expected to know about
+	 * and import it
+	 */
+	private static final String[] CORE_PACKAGES = {
+			"main",
+			"utils",
+			"components"
+	};
+
+	/**
+	 * Live interpreters by script hash, in access order
+	 */
+	private static final LhmCache<Long,Entry> pool = new LhmCache<Long,Entry>(POOL_LIMIT,true){
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long,Entry> entry){
+			boolean remove = super.removeEldestEntry(entry);
+			if(remove)entry.getValue().close();
+			return remove;
+		}
+	};
+
+	/**
+	 * Get a named object defined by a script or module,
+	 * running it only if no interpreter already has
+	 *
+	 * @param a see below
+	 * @param b the name to get, usually a class name
+	 * @param asScript if true, runs <i>a</i> as a script, otherwise
+	 * attempts to load a module or package named <i>a</i>
+	 * @return the object named <i>b</i>
+	 */
+	public static synchronized PyObject resolve(String a,String b,boolean asScript){
+		long key = scriptHash(a,asScript);
+		Entry entry = pool.get(key);
+		if(entry==null){
+			entry = new Entry(a,asScript);
+			pool.put(key, entry);
+		}
+		return entry.get(b);
+	}
+
+	/**
+	 * Close all interpreters, mostly useful to free memory
+	 * or to force scripts to be reloaded
+	 */
+	public static synchronized void clear(){
+		for(Entry entry:pool.values())
+			entry.close();
+		pool.clear();
+	}
+
+	/**
+	 * Get the key used for a script
+	 *
+	 * @param a script source or module name
+	 * @param asScript whether <i>a</i> is a script
+	 * @return 64 bit hash
+	 */
+	public static long scriptHash(String a,boolean asScript){
+		HashTriArx hash = new HashTriArx(HK_SH);
+		hash.absorb(asScript);
+		int length = a.length();
+		hash.absorb(length);
+		if(length>0)hash.absorb(a.toCharArray());
+		return hash.isqueeze();
+	}
+
+	/**
+	 * One pooled interpreter along with what was taken from it
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	private static class Entry{
+		/**
+		 * The interpreter, which has already run the script
+		 * or imported the module
+		 */
+		private final PythonInterpreter interpreter;
+		/**
+		 * Module name, null if it was a script
+		 */
+		private final String module;
+		/**
+		 * Names which were already looked up
+		 */
+		private final HashMap<String,PyObject> resolved = new HashMap<>();
+
+		/**
+		 * Create the interpreter and run the script
+		 *
+		 * @param a script source or module name
+		 * @param asScript whether <i>a</i> is a script
+		 */
+		private Entry(String a,boolean asScript){
+			interpreter = new PythonInterpreter();
+			for(String packageName:CORE_PACKAGES)
+				interpreter.exec("from "+packageName+" import *");
+			if(asScript){
+				module = null;
+				interpreter.exec(PyCodeCache.compile(a));
+			}else{
+				module = a;
+			}
+		}
+
+		/**
+		 * Get a named object, importing it first if needed
+		 *
+		 * @param name name of the object
+		 * @return the object
+		 */
+		private PyObject get(String name){
+			PyObject result = resolved.get(name);
+			if(result==null){
+				if(module!=null)
+					interpreter.exec("from "+module+" import "+name);
+				result = interpreter.get(name);
+				resolved.put(name, result);
+			}
+			return result;
+		}
+
+		/**
+		 * Release the interpreter, objects already taken from it
+		 * remain usable
+		 */
+		private void close(){
+			interpreter.cleanup();
+			interpreter.close();
+		}
+	}
+}
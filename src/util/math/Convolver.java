@@ -0,0 +1,322 @@
+package util.math;
+
+import java.util.*;
+import util.Bits;
+
+/**
+ * Streaming convolution with a long impulse response
+ * <br>
+ * Non-uniformly partitioned overlap-save: the impulse response is split into
+ * levels, where level <i>k</i> uses blocks of <i>blockSize*2^k</i> samples (up to
+ * <i>maxBlockSize</i>) and holds a few uniform partitions of that size. Each
+ * level keeps a frequency-domain delay line of past input spectra, so every
+ * block of input is transformed once per level and convolved with all of
+ * that level's partitions by complex multiplication. The early part of the
+ * response uses short blocks to keep latency down, the late part uses long
+ * blocks to keep the cost per sample low, roughly logarithmic in the length.
+ * <br>
+ * Latency is exactly <i>blockSize</i> samples. Longer levels do all their work on
+ * the block which completes them, so the cost per block is uneven even though
+ * the average is low.
+ * <br>
+ * Uses {@link FFTRadix2}, and unscaled transforms with a single 1/N at the end.
+ * <br>
+ * Not thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class Convolver {
+
+	/**
+	 * Default number of partitions per level before the block size doubles
+	 */
+	public static final int DEFAULT_PARTITIONS_PER_LEVEL = 4;
+	/**
+	 * Default largest block size, FFT size is twice this
+	 */
+	public static final int DEFAULT_MAX_BLOCK_SIZE = 1<<14;
+
+	/**
+	 * Base block size, also the latency
+	 */
+	public final int blockSize;
+	/**
+	 * Length of the impulse response
+	 */
+	public final int length;
+	/**
+	 * Partition levels, from shortest to longest blocks
+	 */
+	protected final Level[] levels;
+
+	/**
+	 * Recent input, indexed by absolute time modulo its length
+	 */
+	protected final double[] history;
+	/**
+	 * Output being accumulated, indexed by absolute time modulo its length
+	 */
+	protected final double[] accumulator;
+	/**
+	 * Input of the incomplete base block
+	 */
+	protected final double[] inputBlock;
+	/**
+	 * Finished output being played back
+	 */
+	protected final double[] outputBlock;
+	/**
+	 * Samples in the incomplete base block
+	 */
+	protected int filled;
+	/**
+	 * Samples of input consumed in complete blocks
+	 */
+	protected long time;
+
+	/**
+	 * Convolver with default partitioning
+	 *
+	 * @param impulse impulse response
+	 * @param blockSize base block size, a power of 2
+	 */
+	public Convolver(double[] impulse,int blockSize){
+		this(impulse,0,impulse.length,blockSize,DEFAULT_PARTITIONS_PER_LEVEL,DEFAULT_MAX_BLOCK_SIZE);
+	}
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param impulse array containing the impulse response
+	 * @param offset index of the start of the impulse response
+	 * @param length length of the impulse response
+	 * @param blockSize base block size, a power of 2
+	 * @param partitionsPerLevel partitions before the block size doubles
+	 * @param maxBlockSize largest block size, a power of 2
+	 */
+	public Convolver(double[] impulse,int offset,int length,int blockSize,int partitionsPerLevel,int maxBlockSize){
+		if(blockSize<1 || !Bits.isPo2(blockSize))throw new IllegalArgumentException("Block size ("+blockSize+") must be a power of 2");
+		if(maxBlockSize<blockSize || !Bits.isPo2(maxBlockSize))throw new IllegalArgumentException("Maximum block size ("+maxBlockSize+") must be a power of 2 at least the block size");
+		if(partitionsPerLevel<1)throw new IllegalArgumentException("Partitions per level ("+partitionsPerLevel+") must be positive");
+		this.blockSize = blockSize;
+		this.length = length;
+		// Level k covers impulse[start, start+partitions*size), and its output lands
+		// start-size samples later than level 0 would put it, which is never early
+		// since start is at least (2^k-1)*blockSize
+		ArrayList<Level> list = new ArrayList<>();
+		int start = 0, size = blockSize;
+		while(start<length || list.isEmpty()){
+			int needed = Math.max((length-start+size-1)/size, 1);
+			int partitions = size==maxBlockSize?needed:Math.min(partitionsPerLevel, needed);
+			list.add(new Level(impulse,offset,length,start,size,partitions));
+			start += partitions*size;
+			if(size<maxBlockSize)size <<= 1;
+		}
+		levels = list.toArray(new Level[list.size()]);
+		Level last = levels[levels.length-1];
+		history = new double[Bits.gePo2(last.size<<1)];
+		accumulator = new double[Bits.gePo2(last.start+last.size+(blockSize<<1))];
+		inputBlock = new double[blockSize];
+		outputBlock = new double[blockSize];
+	}
+
+	/**
+	 * @return latency in samples
+	 */
+	public int getLatency(){
+		return blockSize;
+	}
+
+	/**
+	 * Forget all input, as if newly constructed
+	 */
+	public void reset(){
+		Arrays.fill(history, 0d);
+		Arrays.fill(accumulator, 0d);
+		Arrays.fill(inputBlock, 0d);
+		Arrays.fill(outputBlock, 0d);
+		filled = 0;
+		time = 0;
+		for(Level level:levels)level.reset();
+	}
+
+	/**
+	 * Convolve, writing only the convolved signal
+	 *
+	 * @param input array to read from
+	 * @param inOffset index of first input sample
+	 * @param output array to write to, may be the input array
+	 * @param outOffset index of first output sample
+	 * @param count number of samples
+	 */
+	public void process(double[] input,int inOffset,double[] output,int outOffset,int count){
+		process(input,inOffset,output,outOffset,count,0d,1d);
+	}
+
+	/**
+	 * Convolve and mix with the original signal
+	 * <br>
+	 * Output is <i>dry*input+wet*convolved</i>, where the convolved signal
+	 * lags by the latency
+	 *
+	 * @param input array to read from
+	 * @param inOffset index of first input sample
+	 * @param output array to write to, may be the input array
+	 * @param outOffset index of first output sample
+	 * @param count number of samples
+	 * @param dry gain of the original signal
+	 * @param wet gain of the convolved signal
+	 */
+	public void process(double[] input,int inOffset,double[] output,int outOffset,int count,double dry,double wet){
+		double[] linput = inputBlock, loutput = outputBlock;
+		int lblockSize = blockSize;
+		while(count>0){
+			int n = Math.min(count, lblockSize-filled);
+			for(int i=0,f=filled;i<n;i++,f++){
+				double x = input[inOffset+i];
+				linput[f] = x;
+				output[outOffset+i] = dry*x+wet*loutput[f];
+			}
+			filled += n;
+			inOffset += n;
+			outOffset += n;
+			count -= n;
+			if(filled==lblockSize){
+				filled = 0;
+				nextBlock();
+			}
+		}
+	}
+
+	/**
+	 * Consume a completed base block and produce the next block of output
+	 */
+	protected void nextBlock(){
+		double[] lhistory = history, lacc = accumulator;
+		int hmask = lhistory.length-1, amask = lacc.length-1, lblockSize = blockSize;
+		int hstart = (int)(time&hmask);
+		System.arraycopy(inputBlock, 0, lhistory, hstart, lblockSize);
+		time += lblockSize;
+		for(Level level:levels){
+			if((time&(level.size-1))==0)level.run(lhistory,time,lacc);
+		}
+		// Output covers the block which just finished
+		int astart = (int)((time-lblockSize)&amask);
+		System.arraycopy(lacc, astart, outputBlock, 0, lblockSize);
+		Arrays.fill(lacc, astart, astart+lblockSize, 0d);
+	}
+
+	/**
+	 * Uniformly partitioned part of the impulse response
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	protected static final class Level{
+		/**
+		 * Block size, FFT size is twice this
+		 */
+		final int size;
+		/**
+		 * Index in the impulse response of the first partition
+		 */
+		final int start;
+		/**
+		 * Number of partitions
+		 */
+		final int partitions;
+		/**
+		 * FFT of size <i>2*size</i>
+		 */
+		final FFTRadix2 fft;
+		/**
+		 * Partition spectra
+		 */
+		final double[][] filterReal, filterImag;
+		/**
+		 * Frequency-domain delay line of input spectra
+		 */
+		final double[][] delayReal, delayImag;
+		/**
+		 * Sum of products
+		 */
+		final double[] sumReal, sumImag;
+		/**
+		 * Slot in the delay line for the next input spectrum
+		 */
+		int slot;
+
+		Level(double[] impulse,int offset,int length,int start,int size,int partitions){
+			this.size = size;
+			this.start = start;
+			this.partitions = partitions;
+			int n = size<<1;
+			fft = FFTRadix2.getFft(Bits.binLog(n));
+			filterReal = new double[partitions][n];
+			filterImag = new double[partitions][n];
+			for(int p=0;p<partitions;p++){
+				int from = start+p*size, to = Math.min(from+size, length);
+				if(to>from)System.arraycopy(impulse, offset+from, filterReal[p], 0, to-from);
+				fft.fftUnsafe(filterReal[p], filterImag[p]);
+			}
+			delayReal = new double[partitions][n];
+			delayImag = new double[partitions][n];
+			sumReal = new double[n];
+			sumImag = new double[n];
+		}
+
+		void reset(){
+			for(int p=0;p<partitions;p++){
+				Arrays.fill(delayReal[p], 0d);
+				Arrays.fill(delayImag[p], 0d);
+			}
+			slot = 0;
+		}
+
+		/**
+		 * Process the block ending at <i>time</i>
+		 *
+		 * @param history input history
+		 * @param time absolute time of the end of the block
+		 * @param accumulator output accumulator
+		 */
+		void run(double[] history,long time,double[] accumulator){
+			int n = size<<1, hmask = history.length-1, amask = accumulator.length-1;
+			// Overlap-save input frame, the last 2 blocks
+			double[] xr = delayReal[slot], xi = delayImag[slot];
+			int hstart = (int)((time-n)&hmask);
+			int first = Math.min(n, history.length-hstart);
+			System.arraycopy(history, hstart, xr, 0, first);
+			if(first<n)System.arraycopy(history, 0, xr, first, n-first);
+			Arrays.fill(xi, 0d);
+			fft.fftUnsafe(xr, xi);
+			// Multiply-accumulate against each partition's matching past input
+			double[] sr = sumReal, si = sumImag;
+			Arrays.fill(sr, 0d);
+			Arrays.fill(si, 0d);
+			for(int p=0,s=slot;p<partitions;p++){
+				double[] ar = delayReal[s], ai = delayImag[s], br = filterReal[p], bi = filterImag[p];
+				for(int i=0;i<n;i++){
+					double a = ar[i], b = ai[i], c = br[i], d = bi[i];
+					sr[i] += a*c-b*d;
+					si[i] += a*d+b*c;
+				}
+				if(--s<0)s = partitions-1;
+			}
+			if(++slot==partitions)slot = 0;
+			// Inverse by swapping, the second half is the valid output
+			fft.fftUnsafe(si, sr);
+			double scale = 1d/n;
+			int astart = (int)((time-size+start)&amask);
+			for(int i=0;i<size;i++){
+				accumulator[(astart+i)&amask] += sr[size+i]*scale;
+			}
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "<Convolver length="+length+", block="+blockSize+", "+levels.length+" levels>";
+	}
+}
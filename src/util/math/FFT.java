@@ -2,7 +2,9 @@ package util.math;
 
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 import util.*;
+import util.ds.LhmCache;
 
 /**
  * A Fast Fourier Transform object
@@ -11,13 +13,25 @@ import util.*;
  * but when it does, it guarantees O(NlogN) running time,
  * though the constant may be bad
  * <br>
- * Not thread safe
+ * The implementations here are thread safe, their tables never change and
+ * scratch space is per call or per thread, so the shared instances from
+ * {@link FFTPlanCache} can be used by parallel jobs
  * <br>
  * Currently implemented/supported FFTs:
  * <ul>
- * <li>Radix-2 DIT DFT ({@link FFTRadix2}) - chosen for powers of 2</li>
+ * <li>Radix-2 DIT DFT ({@link FFTRadix2}) - chosen for small powers of 2</li>
+ * <li>Radix-4 Stockham FFT ({@link FFTRadix4}) - chosen for larger powers of 2,
+ * also takes interleaved complex data</li>
+ * <li>Mixed-radix FFT ({@link FFTMixedRadix}) - chosen for other products of 2, 3, 5 and 7</li>
  * <li>Bluestein FFT ({@link FFTBluestein}) - chosen for everything else</li>
  * </ul>
+ * Real input can use {@link #realFft(double[], double[], double[])} and
+ * {@link #realIfft(double[], double[], double[])}, which only keep the
+ * non-negative frequencies and take about half the work
+ * <br>
+ * Many transforms of the same length can be done in one call, spread over
+ * a {@link ForkJoinPool}, see {@link #fftBatch(double[][], double[][])} and
+ * {@link #realFftBatch(double[][], double[][], double[][])}
  * 
  * @author EPICI
  * @version 1.0
@@ -28,11 +42,9 @@ public abstract class FFT {
 	 * Automatically get a usable object to perform the FFT with
 	 * and do the FFT in place
 	 * <br>
-	 * Not thread safe
-	 * <br>
-	 * Fastest case is for powers of 2 using radix-2 FFT, if exact bounds do
+	 * Fastest case is for powers of 2, if exact bounds do
 	 * not need to be preserved, it's advantageous to zero-pad to a power of 2
-	 * length and use {@link FFTRadix2} instead
+	 * length and use {@link FFTRadix4} instead
 	 * 
 	 * @param real the real array
 	 * @param imaginary the matching imaginary array
@@ -43,6 +55,223 @@ public abstract class FFT {
 		getAdaptiveFft(nr).fft(real, imaginary);
 	}
 	
+	/**
+	 * FFT of real data, producing only the non-redundant half of the spectrum
+	 * <br>
+	 * The other half is the complex conjugate mirror image, so for length N,
+	 * bins 0 to N/2 inclusive are kept, N/2+1 of them. For even N the data
+	 * is packed into a complex array of length N/2, transformed, and split
+	 * apart again with one twiddle per bin, which is about half the work of a
+	 * full complex FFT. Odd or very short lengths fall back to the full FFT.
+	 * <br>
+	 * Scaled the same as {@link #adaptiveFft(double[], double[])}
+	 * <br>
+	 * Thread safe
+	 * 
+	 * @param input real data, length N, not modified
+	 * @param real real part of the output, length N/2+1
+	 * @param imaginary imaginary part of the output, length N/2+1
+	 */
+	public static void realFft(double[] input,double[] real,double[] imaginary){
+		realFft(input,real,imaginary,null,null);
+	}
+	
+	/**
+	 * {@link #realFft(double[], double[], double[])} with caller provided scratch,
+	 * so repeated transforms of the same length don't allocate
+	 * 
+	 * @param input real data, length N, not modified
+	 * @param real real part of the output, length N/2+1
+	 * @param imaginary imaginary part of the output, length N/2+1
+	 * @param workReal scratch of length N/2, or null to allocate
+	 * @param workImag scratch of length N/2, or null to allocate
+	 */
+	public static void realFft(double[] input,double[] real,double[] imaginary,double[] workReal,double[] workImag){
+		realFft(null,input,real,imaginary,workReal,workImag);
+	}
+	
+	/**
+	 * {@link #realFft(double[], double[], double[], double[], double[])}
+	 * with a known plan for the half length complex FFT
+	 * 
+	 * @param plan FFT of length N/2, or null to look it up
+	 * @param input real data, length N, not modified
+	 * @param real real part of the output, length N/2+1
+	 * @param imaginary imaginary part of the output, length N/2+1
+	 * @param workReal scratch of length N/2, or null to allocate
+	 * @param workImag scratch of length N/2, or null to allocate
+	 */
+	private static void realFft(FFT plan,double[] input,double[] real,double[] imaginary,double[] workReal,double[] workImag){
+		int n = input.length, bins = (n>>1)+1;
+		if(real.length!=bins || imaginary.length!=bins)
+			throw new IllegalArgumentException("Real FFT of length "+n+" needs "+bins+" bins ("+real.length+","+imaginary.length+")");
+		if((n&1)!=0 || n<4){
+			double[] fullReal = Arrays.copyOf(input, n), fullImag = new double[n];
+			adaptiveFft(fullReal,fullImag);
+			System.arraycopy(fullReal, 0, real, 0, bins);
+			System.arraycopy(fullImag, 0, imaginary, 0, bins);
+			return;
+		}
+		int m = n>>1;
+		double[] zr = scratch(workReal,m), zi = scratch(workImag,m);
+		for(int i=0,j=0;i<m;i++,j+=2){
+			zr[i] = input[j];
+			zi[i] = input[j+1];
+		}
+		(plan==null?getAdaptiveFft(m):plan).fft(zr, zi);
+		double[] twiddles = realTwiddles(n);
+		// Both halves are unitary for length m, this makes it unitary for length n
+		double half = 0.5d*Math.sqrt(0.5d);
+		for(int k=0;k<=m;k++){
+			int a = k==m?0:k, b = k==0?0:m-k;
+			double ar = zr[a], ai = zi[a], br = zr[b], bi = -zi[b];
+			// Even part (Z[k]+conj Z[m-k]), odd part (Z[k]-conj Z[m-k])/i
+			double er = ar+br, ei = ai+bi;
+			double or = ai-bi, oi = br-ar;
+			double wr = twiddles[k], wi = twiddles[k+m+1];
+			real[k] = half*(er+wr*or-wi*oi);
+			imaginary[k] = half*(ei+wr*oi+wi*or);
+		}
+	}
+	
+	/**
+	 * Inverse of {@link #realFft(double[], double[], double[])}
+	 * <br>
+	 * The spectrum is assumed to be the non-negative half of the spectrum of
+	 * real data, the imaginary parts of bin 0 (and bin N/2 for even N) are ignored
+	 * <br>
+	 * Thread safe
+	 * 
+	 * @param real real part of the spectrum, length N/2+1, not modified
+	 * @param imaginary imaginary part of the spectrum, length N/2+1, not modified
+	 * @param output array to write the real data to, length N
+	 */
+	public static void realIfft(double[] real,double[] imaginary,double[] output){
+		realIfft(real,imaginary,output,null,null);
+	}
+	
+	/**
+	 * {@link #realIfft(double[], double[], double[])} with caller provided scratch,
+	 * so repeated transforms of the same length don't allocate
+	 * 
+	 * @param real real part of the spectrum, length N/2+1, not modified
+	 * @param imaginary imaginary part of the spectrum, length N/2+1, not modified
+	 * @param output array to write the real data to, length N
+	 * @param workReal scratch of length N/2, or null to allocate
+	 * @param workImag scratch of length N/2, or null to allocate
+	 */
+	public static void realIfft(double[] real,double[] imaginary,double[] output,double[] workReal,double[] workImag){
+		realIfft(null,real,imaginary,output,workReal,workImag);
+	}
+	
+	/**
+	 * {@link #realIfft(double[], double[], double[], double[], double[])}
+	 * with a known plan for the half length complex FFT
+	 * 
+	 * @param plan FFT of length N/2, or null to look it up
+	 * @param real real part of the spectrum, length N/2+1, not modified
+	 * @param imaginary imaginary part of the spectrum, length N/2+1, not modified
+	 * @param output array to write the real data to, length N
+	 * @param workReal scratch of length N/2, or null to allocate
+	 * @param workImag scratch of length N/2, or null to allocate
+	 */
+	private static void realIfft(FFT plan,double[] real,double[] imaginary,double[] output,double[] workReal,double[] workImag){
+		int n = output.length, bins = (n>>1)+1;
+		if(real.length!=bins || imaginary.length!=bins)
+			throw new IllegalArgumentException("Real FFT of length "+n+" needs "+bins+" bins ("+real.length+","+imaginary.length+")");
+		if((n&1)!=0 || n<4){
+			double[] fullReal = new double[n], fullImag = new double[n];
+			fullReal[0] = real[0];
+			for(int k=1;k<bins;k++){
+				fullReal[k] = fullReal[n-k] = real[k];
+				fullImag[k] = imaginary[k];
+				fullImag[n-k] = -imaginary[k];
+			}
+			if((n&1)==0)fullImag[n>>1] = 0d;
+			getAdaptiveFft(n).ifft(fullReal, fullImag);
+			System.arraycopy(fullReal, 0, output, 0, n);
+			return;
+		}
+		int m = n>>1;
+		double[] zr = scratch(workReal,m), zi = scratch(workImag,m);
+		double[] twiddles = realTwiddles(n);
+		double scale = Math.sqrt(0.5d);
+		for(int k=0;k<m;k++){
+			double ar = real[k], ai = k==0?0d:imaginary[k];
+			double br = real[m-k], bi = m-k==m?0d:-imaginary[m-k];
+			// Even part (X[k]+conj X[m-k]), odd part (X[k]-conj X[m-k]) untwiddled
+			double er = ar+br, ei = ai+bi;
+			double dr = ar-br, di = ai-bi;
+			double wr = twiddles[k], wi = -twiddles[k+m+1];
+			double or = dr*wr-di*wi, oi = dr*wi+di*wr;
+			// Z[k] = E[k]+i*O[k]
+			zr[k] = scale*(er-oi);
+			zi[k] = scale*(ei+or);
+		}
+		(plan==null?getAdaptiveFft(m):plan).ifft(zr, zi);
+		for(int i=0,j=0;i<m;i++,j+=2){
+			output[j] = zr[i];
+			output[j+1] = zi[i];
+		}
+	}
+	
+	/**
+	 * Get a scratch array of an exact length
+	 * <br>
+	 * The FFTs require exact lengths, so a longer array is no good
+	 * 
+	 * @param work provided array, may be null
+	 * @param length required length
+	 * @return <i>work</i> if it fits, otherwise a new array
+	 */
+	private static double[] scratch(double[] work,int length){
+		return work!=null && work.length==length?work:new double[length];
+	}
+	
+	/**
+	 * Get the twiddles for a real FFT, cached
+	 * 
+	 * @param n real FFT length, even
+	 * @return cosines of -2 pi k/n for k from 0 to n/2, followed by the sines
+	 */
+	private static double[] realTwiddles(int n){
+		Integer key = n;
+		double[] result;
+		synchronized(RealTwiddles.cache){
+			result = RealTwiddles.cache.get(key);
+		}
+		if(result==null){
+			int m = n>>1;
+			result = new double[(m+1)<<1];
+			double mult = -2d*Math.PI/n;
+			for(int k=0;k<=m;k++){
+				double angle = mult*k;
+				result[k] = Math.cos(angle);
+				result[k+m+1] = Math.sin(angle);
+			}
+			synchronized(RealTwiddles.cache){
+				RealTwiddles.cache.put(key, result);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Holds the cached real FFT twiddles
+	 * 
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	private static final class RealTwiddles{
+		//Disallow invoking constructor
+		private RealTwiddles(){}
+		
+		/**
+		 * Twiddles by length
+		 */
+		static final LhmCache<Integer,double[]> cache = new LhmCache<>(32,true);
+	}
+	
 	/**
 	 * Get a usable FFT object for this specific length
 	 * 
@@ -52,7 +281,10 @@ public abstract class FFT {
 	public static FFT getAdaptiveFft(int n){
 		if(n<2)throw new IllegalArgumentException("FFT length too short ("+n+"<2)");
 		if(Bits.isPo2(n)){
-			return FFTRadix2.getFft(Bits.binLog(n));
+			int m = Bits.binLog(n);
+			return m<FFTRadix4.ADAPTIVE_MIN_EXPONENT?FFTRadix2.getFft(m):FFTRadix4.getFft(m);
+		}else if(FFTMixedRadix.isSmooth(n)){
+			return FFTMixedRadix.getFft(n);
 		}else{
 			return FFTBluestein.getFft(n);
 		}
@@ -69,6 +301,14 @@ public abstract class FFT {
 	 */
 	public abstract boolean checkBounds(int length);
 	
+	/**
+	 * Memory used by precomputed tables, which is what
+	 * {@link FFTPlanCache} weighs plans by
+	 * 
+	 * @return approximate size in bytes
+	 */
+	public abstract long getTableBytes();
+	
 	/**
 	 * Subclasses should implement this
 	 * <br>
@@ -185,6 +425,235 @@ public abstract class FFT {
 		ifft(both.a,both.b);
 	}
 	
+	/**
+	 * Batches with less total work than this many samples run on the calling thread
+	 */
+	public static final int PARALLEL_MIN_SAMPLES = 1<<15;
+	
+	/**
+	 * Smallest piece of a batch handed to one thread, in samples
+	 */
+	public static final int PARALLEL_GRAIN_SAMPLES = 1<<13;
+	
+	/**
+	 * Some work on a range of frames in a batch
+	 * 
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static interface BatchRange{
+		/**
+		 * Process frames, may be called from any thread, and
+		 * concurrently with other ranges of the same batch
+		 * 
+		 * @param from first frame
+		 * @param to frame after the last one
+		 */
+		public void run(int from,int to);
+	}
+	
+	/**
+	 * Split a batch of frames into ranges and run them on a pool,
+	 * or on this thread if the batch is small
+	 * <br>
+	 * This is what the batch FFT methods use, it's public so per frame
+	 * work around the transforms (windowing, magnitudes) can be
+	 * spread out the same way, with scratch allocated once per range
+	 * 
+	 * @param frames number of frames
+	 * @param frameLength samples per frame, used to judge the amount of work
+	 * @param pool pool to run on, or null to run on this thread
+	 * @param range the work
+	 */
+	public static void runBatch(int frames,int frameLength,ForkJoinPool pool,BatchRange range){
+		if(frames<=0)return;
+		long work = (long)frames*frameLength;
+		if(pool==null || frames<2 || work<PARALLEL_MIN_SAMPLES || pool.getParallelism()<2){
+			range.run(0, frames);
+			return;
+		}
+		// A few ranges per thread so uneven ones balance out
+		int grain = Math.max(PARALLEL_GRAIN_SAMPLES/Math.max(1, frameLength), frames/(pool.getParallelism()<<2));
+		pool.invoke(new BatchTask(range,0,frames,Math.max(1, grain)));
+	}
+	
+	/**
+	 * Splits a batch in half until the pieces are small enough
+	 * 
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	private static final class BatchTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		
+		private final BatchRange range;
+		private final int from, to, grain;
+		
+		BatchTask(BatchRange range,int from,int to,int grain){
+			this.range = range;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+		
+		@Override
+		protected void compute(){
+			if(to-from<=grain){
+				range.run(from, to);
+			}else{
+				int mid = (from+to)>>>1;
+				invokeAll(new BatchTask(range,from,mid,grain), new BatchTask(range,mid,to,grain));
+			}
+		}
+	}
+	
+	/**
+	 * Check that all frames in a batch have the same length
+	 * 
+	 * @param frames the frames
+	 * @param count expected number of frames
+	 * @return the common length, or 0 if there are no frames
+	 */
+	private static int batchLength(double[][] frames,int count){
+		if(frames.length!=count)
+			throw new IllegalArgumentException("Batch has "+frames.length+" frames, expected "+count);
+		if(count==0)return 0;
+		int length = frames[0].length;
+		for(double[] frame:frames){
+			if(frame.length!=length)
+				throw new IllegalArgumentException("Batch frames differ in length ("+length+","+frame.length+")");
+		}
+		return length;
+	}
+	
+	/**
+	 * FFT of many frames, spread over the common pool when there are enough
+	 * <br>
+	 * Same as calling {@link #fft(double[], double[])} on each pair, all
+	 * lengths are checked before anything is transformed
+	 * 
+	 * @param real the real arrays
+	 * @param imaginary the matching imaginary arrays
+	 */
+	public void fftBatch(double[][] real,double[][] imaginary){
+		fftBatch(real,imaginary,ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * FFT of many frames
+	 * 
+	 * @param real the real arrays
+	 * @param imaginary the matching imaginary arrays
+	 * @param pool pool to run on, or null to run on this thread
+	 * @see #fftBatch(double[][], double[][])
+	 */
+	public void fftBatch(double[][] real,double[][] imaginary,ForkJoinPool pool){
+		int count = real.length, n = batchLength(real,count);
+		if(batchLength(imaginary,count)!=n || (count>0 && !checkBounds(n)))
+			throw new IllegalArgumentException("Invalid length for FFT ("+n+","+(count>0?imaginary[0].length:0)+")");
+		runBatch(count, n, pool, (from,to)->{
+			for(int i=from;i<to;i++)fftInternal(real[i],imaginary[i]);
+		});
+	}
+	
+	/**
+	 * Inverse FFT of many frames, spread over the common pool when there are enough
+	 * 
+	 * @param real the real arrays
+	 * @param imaginary the matching imaginary arrays
+	 * @see #fftBatch(double[][], double[][])
+	 */
+	public void ifftBatch(double[][] real,double[][] imaginary){
+		ifftBatch(real,imaginary,ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Inverse FFT of many frames
+	 * 
+	 * @param real the real arrays
+	 * @param imaginary the matching imaginary arrays
+	 * @param pool pool to run on, or null to run on this thread
+	 * @see #fftBatch(double[][], double[][])
+	 */
+	public void ifftBatch(double[][] real,double[][] imaginary,ForkJoinPool pool){
+		int count = real.length, n = batchLength(real,count);
+		if(batchLength(imaginary,count)!=n || (count>0 && !checkBounds(n)))
+			throw new IllegalArgumentException("Invalid length for FFT ("+n+","+(count>0?imaginary[0].length:0)+")");
+		runBatch(count, n, pool, (from,to)->{
+			for(int i=from;i<to;i++)fftInternal(imaginary[i],real[i]);
+		});
+	}
+	
+	/**
+	 * Real FFT of many frames of the same length, spread over the
+	 * common pool when there are enough
+	 * <br>
+	 * Same as {@link #realFft(double[], double[], double[])} on each,
+	 * but the plan and scratch are shared
+	 * 
+	 * @param input real data, K frames of length N, not modified
+	 * @param real real parts of the output, K frames of length N/2+1
+	 * @param imaginary imaginary parts of the output, K frames of length N/2+1
+	 */
+	public static void realFftBatch(double[][] input,double[][] real,double[][] imaginary){
+		realFftBatch(input,real,imaginary,ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Real FFT of many frames of the same length
+	 * 
+	 * @param input real data, K frames of length N, not modified
+	 * @param real real parts of the output, K frames of length N/2+1
+	 * @param imaginary imaginary parts of the output, K frames of length N/2+1
+	 * @param pool pool to run on, or null to run on this thread
+	 * @see #realFftBatch(double[][], double[][], double[][])
+	 */
+	public static void realFftBatch(double[][] input,double[][] real,double[][] imaginary,ForkJoinPool pool){
+		int count = input.length, n = batchLength(input,count), bins = (n>>1)+1;
+		if(count>0 && (batchLength(real,count)!=bins || batchLength(imaginary,count)!=bins))
+			throw new IllegalArgumentException("Real FFT of length "+n+" needs "+bins+" bins ("+real[0].length+","+imaginary[0].length+")");
+		FFT half = count>0 && (n&1)==0 && n>=4?getAdaptiveFft(n>>1):null;
+		runBatch(count, n, pool, (from,to)->{
+			double[] workReal = half==null?null:new double[n>>1], workImag = half==null?null:new double[n>>1];
+			for(int i=from;i<to;i++)realFft(half,input[i],real[i],imaginary[i],workReal,workImag);
+		});
+	}
+	
+	/**
+	 * Inverse real FFT of many frames of the same length, spread over
+	 * the common pool when there are enough
+	 * <br>
+	 * Same as {@link #realIfft(double[], double[], double[])} on each,
+	 * but the plan and scratch are shared
+	 * 
+	 * @param real real parts of the spectra, K frames of length N/2+1, not modified
+	 * @param imaginary imaginary parts of the spectra, K frames of length N/2+1, not modified
+	 * @param output arrays to write the real data to, K frames of length N
+	 */
+	public static void realIfftBatch(double[][] real,double[][] imaginary,double[][] output){
+		realIfftBatch(real,imaginary,output,ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Inverse real FFT of many frames of the same length
+	 * 
+	 * @param real real parts of the spectra, K frames of length N/2+1, not modified
+	 * @param imaginary imaginary parts of the spectra, K frames of length N/2+1, not modified
+	 * @param output arrays to write the real data to, K frames of length N
+	 * @param pool pool to run on, or null to run on this thread
+	 * @see #realIfftBatch(double[][], double[][], double[][])
+	 */
+	public static void realIfftBatch(double[][] real,double[][] imaginary,double[][] output,ForkJoinPool pool){
+		int count = output.length, n = batchLength(output,count), bins = (n>>1)+1;
+		if(count>0 && (batchLength(real,count)!=bins || batchLength(imaginary,count)!=bins))
+			throw new IllegalArgumentException("Real FFT of length "+n+" needs "+bins+" bins ("+real[0].length+","+imaginary[0].length+")");
+		FFT half = count>0 && (n&1)==0 && n>=4?getAdaptiveFft(n>>1):null;
+		runBatch(count, n, pool, (from,to)->{
+			double[] workReal = half==null?null:new double[n>>1], workImag = half==null?null:new double[n>>1];
+			for(int i=from;i<to;i++)realIfft(half,real[i],imaginary[i],output[i],workReal,workImag);
+		});
+	}
+	
 	/**
 	 * Scales down the array values
 	 * 
@@ -32,8 +32,12 @@ import java.util.*;
  * <br>
  * From: https://www.nayuki.io/res/free-small-fft-in-multiple-languages/Fft.java
  * <br>
- * Note that this is many times slower than {@link FFTRadix2},
+ * Note that this is many times slower than {@link FFTRadix2} or {@link FFTRadix4},
  * it's only good because it can handle any size
+ * <br>
+ * Each transform needs two scratch arrays of the convolution length,
+ * which are kept per thread up to {@link #SCRATCH_LIMIT}, or can be passed in
+ * with {@link #fftUnsafe(double[], double[], double[], double[])}
  * 
  * @author Nayuki
  * @author EPICI
@@ -42,31 +46,23 @@ import java.util.*;
 public final class FFTBluestein extends FFT {
 	
 	/**
-	 * Determines the maximum number of Bluestein FFT objects to keep
-	 * even if they aren't being used, because they might be common
-	 * <br>
-	 * After this many are reached, the least used ones are removed
+	 * Longest scratch arrays kept per thread, longer ones are
+	 * allocated for each transform instead of being held forever
 	 * <br>
-	 * Higher = more memory used and slower to access, but less redundant
-	 * work done because memoization
-	 */
-	public static final int REMOVE_THRESHOLD = 1<<6;
-	
-	/**
-	 * The maximum to leave after a default removal
+	 * At this length the two arrays take 16 MB, enough for N up to 2^19
 	 */
-	public static final int KEEP_LIMIT = REMOVE_THRESHOLD>>1;
+	public static final int SCRATCH_LIMIT = 1<<20;
 	
 	/**
-	 * Shared, cached FFTs
+	 * Per thread scratch, real then imaginary, shared by all lengths
+	 * and grown as needed
 	 * <br>
-	 * Loosely maintained to length at most KEEP_LIMIT by deleting stuff
-	 * when there are at least REMOVE_THRESHOLD objects
+	 * Transforms never nest, so one pair per thread is enough
 	 */
-	private static HashMap<Integer,Keyed> sharedFfts = new HashMap<>();
+	private static final ThreadLocal<double[][]> scratch = new ThreadLocal<>();
 	
 	/**
-	 * Get shared FFT object for any length
+	 * Get shared FFT object for any length, from {@link FFTPlanCache#shared}
 	 * 
 	 * @param n the desired FFT length
 	 * @return an FFT object which can process arrays of length n
@@ -77,14 +73,7 @@ public final class FFTBluestein extends FFT {
 		}else if(n>((1<<30)-1)){
 			throw new IllegalArgumentException("FFT length "+n+" is too large. Maximum value is 2^30-1.");
 		}else{
-			Keyed keyed = sharedFfts.get(n);
-			if(keyed==null){
-				keyed = new Keyed(getNewFft(n));
-				sharedFfts.put(n, keyed);
-			}
-			if(sharedFfts.size()>=REMOVE_THRESHOLD)trimTo(KEEP_LIMIT);
-			keyed.key++;
-			return keyed.fft;
+			return FFTPlanCache.shared.get(FFTBluestein.class, n, FFTBluestein::getNewFft);
 		}
 	}
 	
@@ -96,29 +85,7 @@ public final class FFTBluestein extends FFT {
 	 * @param n the length
 	 */
 	public static void removeFft(int n){
-		sharedFfts.remove(n);
-	}
-	
-	/**
-	 * Keep up to <i>limit</i> shared instances, and dereference the others
-	 * <br>
-	 * After this, the size of the list is guaranteed to be at most <i>limit</i>
-	 * 
-	 * @param limit the maximum to keep
-	 */
-	public static void trimTo(int limit){
-		if(limit<0)throw new IllegalArgumentException("Limit ("+limit+") cannot be negative");
-		HashMap<Integer,Keyed> cache = sharedFfts;
-		Keyed[] array = cache.values().toArray(new Keyed[0]);
-		int csize = array.length;
-		if(csize<=limit)return;
-		Arrays.sort(array,I_KEYED_COMPARE);
-		HashMap<Integer,Keyed> replace = new HashMap<>();
-		for(int i=0;i<limit;i++){
-			Keyed k = array[i];
-			replace.put(k.fft.n, k);
-		}
-		sharedFfts = replace;
+		FFTPlanCache.shared.remove(FFTBluestein.class, n);
 	}
 	
 	/**
@@ -131,41 +98,6 @@ public final class FFTBluestein extends FFT {
 		return new FFTBluestein(n);
 	}
 	
-	/**
-	 * Inverse keyed FFT comparator
-	 */
-	private static final Comparator<Keyed> I_KEYED_COMPARE = new Comparator<Keyed>(){
-		public int compare(Keyed a,Keyed b){
-			return Integer.compare(b.key, a.key);
-		}
-	};
-	
-	/**
-	 * Keyed FFT used by cache
-	 * 
-	 * @author EPICI
-	 * @version 1.0
-	 */
-	private static class Keyed{
-		/**
-		 * Retrieve count
-		 */
-		public int key;
-		/**
-		 * Referenced FFT
-		 */
-		public FFTBluestein fft;
-		/**
-		 * Convenience constructor
-		 * 
-		 * @param given the FFT to track
-		 */
-		public Keyed(FFTBluestein given){
-			key=0;
-			fft=given;
-		}
-	}
-	
 	/**
 	 * The length this instance is for
 	 */
@@ -176,6 +108,10 @@ public final class FFTBluestein extends FFT {
 	public final int m;
 	
 	private final double[] cos,sin,kr,ki;
+	/**
+	 * Does the convolution, held so it stays alive as long as this
+	 */
+	private final FFT transformer;
 	
 	public FFTBluestein(int n){
 		this.n=n;
@@ -199,7 +135,8 @@ public final class FFTBluestein extends FFT {
 		}
 		cos[0] = 1d;sin[0] = 0d;
 		kr[0] = cos[0];ki[0] = sin[0];
-		FFTRadix2.getFft(Bits.binLog(m)).fftUnsafe(kr, ki);
+		transformer = getAdaptiveFft(m);
+		transformer.fftUnsafe(kr, ki);
 	}
 
 	@Override
@@ -207,6 +144,11 @@ public final class FFTBluestein extends FFT {
 		return length==n;
 	}
 	
+	@Override
+	public long getTableBytes() {
+		return ((long)n+m)*Double.BYTES*2;
+	}
+	
 	@Override
 	protected void scale(double[] real,double[] imaginary,int iterations) {
 		int n = this.n, m = this.m;
@@ -217,19 +159,54 @@ public final class FFTBluestein extends FFT {
 		}
 	}
 
+	/**
+	 * @return the minimum length of each scratch array for
+	 * {@link #fftUnsafe(double[], double[], double[], double[])}
+	 */
+	public int getWorkspaceLength(){
+		return m;
+	}
+
 	@Override
 	public void fftUnsafe(double[] real, double[] imaginary) {
+		int m = this.m;
+		if(m>SCRATCH_LIMIT){
+			fftUnsafe(real, imaginary, new double[m], new double[m]);
+			return;
+		}
+		double[][] work = scratch.get();
+		if(work==null || work[0].length<m){
+			work = new double[][]{new double[m],new double[m]};
+			scratch.set(work);
+		}
+		fftUnsafe(real, imaginary, work[0], work[1]);
+	}
+	
+	/**
+	 * Same as {@link #fftUnsafe(double[], double[])} but with
+	 * caller provided scratch, so nothing is allocated
+	 * 
+	 * @param real real part
+	 * @param imaginary imaginary part
+	 * @param ar scratch of at least {@link #getWorkspaceLength()}, contents are overwritten
+	 * @param ai scratch of at least {@link #getWorkspaceLength()}, contents are overwritten
+	 */
+	public void fftUnsafe(double[] real, double[] imaginary, double[] ar, double[] ai) {
 		// Preliminary transform
 		int n = this.n, m = this.m;
-		double[] ar = new double[m], ai = new double[m];
+		if(ar.length<m || ai.length<m)
+			throw new IllegalArgumentException("Bluestein FFT of length "+n+" needs scratch of length "+m+" ("+ar.length+","+ai.length+")");
 		double[] kr = this.kr, ki = this.ki, cos = this.cos, sin = this.sin;
 		for(int i=0;i<n;i++){
 			double x = real[i], y = imaginary[i], cs = cos[i], sn = sin[i];
 			ar[i] = x*cs+y*sn;
 			ai[i] = y*cs-x*sn;
 		}
+		// Scratch may be reused, the padding must be zero
+		Arrays.fill(ar, n, m, 0d);
+		Arrays.fill(ai, n, m, 0d);
 		// Convolution
-		FFTRadix2 transformer = FFTRadix2.getFft(Bits.binLog(m));
+		FFT transformer = this.transformer;
 		transformer.fftUnsafe(ar, ai);
 		for(int i=0;i<m;i++){
 			double xr = ar[i], xi = ai[i], yr = kr[i], yi = ki[i];
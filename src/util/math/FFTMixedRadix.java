@@ -0,0 +1,326 @@
+package util.math;
+
+import java.util.*;
+
+/**
+ * Mixed-radix FFT for lengths with no prime factors above 7
+ * <br>
+ * Common audio lengths like 44100, 48000 or 960 are products of 2, 3, 5
+ * and 7, so they can be done directly with Cooley-Tukey one factor at a
+ * time, instead of {@link FFTBluestein}'s two power of 2 transforms of at
+ * least double the length.
+ * <br>
+ * Stockham autosort form: each pass reads one buffer and writes the other,
+ * so no digit reversal is needed at the end. Every radix has its own
+ * butterfly written out, pairing inputs symmetrically so odd radices only
+ * need half the multiplies of a plain DFT.
+ * <br>
+ * Thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class FFTMixedRadix extends FFT {
+
+	/**
+	 * Get shared FFT object for a 7-smooth length, from {@link FFTPlanCache#shared}
+	 *
+	 * @param n the desired FFT length
+	 * @return an FFT object which can process arrays of length n
+	 */
+	public static FFTMixedRadix getFft(int n){
+		if(!isSmooth(n))throw new IllegalArgumentException("FFT length "+n+" has prime factors above 7");
+		return FFTPlanCache.shared.get(FFTMixedRadix.class, n, FFTMixedRadix::new);
+	}
+
+	/**
+	 * Dereference a shared FFT object if present
+	 * <br>
+	 * Only really used to free up memory
+	 *
+	 * @param n the length
+	 */
+	public static void removeFft(int n){
+		FFTPlanCache.shared.remove(FFTMixedRadix.class, n);
+	}
+
+	/**
+	 * Check if a length can be done by this FFT
+	 *
+	 * @param n the length
+	 * @return true if n is at least 2 and has no prime factors above 7
+	 */
+	public static boolean isSmooth(int n){
+		if(n<2)return false;
+		for(int p:new int[]{2,3,5,7}){
+			while(n%p==0)n/=p;
+		}
+		return n==1;
+	}
+
+	/**
+	 * The length this instance is for
+	 */
+	public final int n;
+	/**
+	 * Radix of each pass, in order
+	 */
+	private final int[] factors;
+	/**
+	 * Roots of unity, e^(-2 pi i j/n)
+	 */
+	private final double[] cos, sin;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param n the length, see {@link #isSmooth(int)}
+	 */
+	public FFTMixedRadix(int n){
+		if(!isSmooth(n))throw new IllegalArgumentException("FFT length "+n+" has prime factors above 7");
+		this.n = n;
+		// Radix 4 does the most work per pass, then mop up the rest
+		ArrayList<Integer> list = new ArrayList<>();
+		int rest = n;
+		while(rest%4==0){
+			list.add(4);
+			rest >>= 2;
+		}
+		for(int p:new int[]{2,3,5,7}){
+			while(rest%p==0){
+				list.add(p);
+				rest /= p;
+			}
+		}
+		factors = new int[list.size()];
+		for(int i=0;i<factors.length;i++)factors[i] = list.get(i);
+		cos = new double[n];
+		sin = new double[n];
+		double mult = -2d*Math.PI/n;
+		for(int i=0;i<n;i++){
+			cos[i] = Math.cos(mult*i);
+			sin[i] = Math.sin(mult*i);
+		}
+	}
+
+	@Override
+	public boolean checkBounds(int length){
+		return length==n;
+	}
+
+	@Override
+	public long getTableBytes(){
+		return (long)n*Double.BYTES*2;
+	}
+
+	@Override
+	public void fftUnsafe(double[] real,double[] imaginary){
+		double[] xr = real, xi = imaginary, yr = new double[n], yi = new double[n];
+		int stride = 1, length = n;
+		for(int radix:factors){
+			int m = length/radix;
+			switch(radix){
+			case 2:pass2(m,stride,xr,xi,yr,yi);break;
+			case 3:pass3(m,stride,xr,xi,yr,yi);break;
+			case 4:pass4(m,stride,xr,xi,yr,yi);break;
+			case 5:pass5(m,stride,xr,xi,yr,yi);break;
+			default:pass7(m,stride,xr,xi,yr,yi);
+			}
+			double[] t = xr;xr = yr;yr = t;
+			t = xi;xi = yi;yi = t;
+			stride *= radix;
+			length = m;
+		}
+		if(xr!=real){
+			System.arraycopy(xr, 0, real, 0, n);
+			System.arraycopy(xi, 0, imaginary, 0, n);
+		}
+	}
+
+	/*
+	 * Each pass splits transforms of length radix*m, with stride between
+	 * interleaved transforms. Input element r of butterfly p is at
+	 * q+stride*(p+r*m), output k goes to q+stride*(radix*p+k) multiplied
+	 * by the twiddle e^(-2 pi i p k/(radix*m)), which is root p*k*stride.
+	 */
+
+	private void pass2(int m,int stride,double[] xr,double[] xi,double[] yr,double[] yi){
+		double[] lcos = cos, lsin = sin;
+		int offset = stride*m;
+		for(int p=0;p<m;p++){
+			int w = p*stride;
+			double c = lcos[w], s = lsin[w];
+			int in = stride*p, out = stride*2*p;
+			for(int q=0;q<stride;q++){
+				int i0 = in+q, i1 = i0+offset, o0 = out+q, o1 = o0+stride;
+				double ar = xr[i0], ai = xi[i0], br = xr[i1], bi = xi[i1];
+				yr[o0] = ar+br;
+				yi[o0] = ai+bi;
+				double dr = ar-br, di = ai-bi;
+				yr[o1] = dr*c-di*s;
+				yi[o1] = dr*s+di*c;
+			}
+		}
+	}
+
+	private void pass3(int m,int stride,double[] xr,double[] xi,double[] yr,double[] yi){
+		final double s3 = Math.sqrt(0.75d);
+		double[] lcos = cos, lsin = sin;
+		int offset = stride*m;
+		for(int p=0;p<m;p++){
+			int w1 = p*stride, w2 = w1<<1;
+			double c1 = lcos[w1], s1 = lsin[w1], c2 = lcos[w2], s2 = lsin[w2];
+			int in = stride*p, out = stride*3*p;
+			for(int q=0;q<stride;q++){
+				int i0 = in+q, i1 = i0+offset, i2 = i1+offset;
+				double a0r = xr[i0], a0i = xi[i0], a1r = xr[i1], a1i = xi[i1], a2r = xr[i2], a2i = xi[i2];
+				double tr = a1r+a2r, ti = a1i+a2i;
+				double mr = a0r-0.5d*tr, mi = a0i-0.5d*ti;
+				// -i*sin(2pi/3)*(a1-a2)
+				double nr = s3*(a1i-a2i), ni = -s3*(a1r-a2r);
+				int o0 = out+q, o1 = o0+stride, o2 = o1+stride;
+				yr[o0] = a0r+tr;
+				yi[o0] = a0i+ti;
+				double br = mr+nr, bi = mi+ni;
+				yr[o1] = br*c1-bi*s1;
+				yi[o1] = br*s1+bi*c1;
+				br = mr-nr;
+				bi = mi-ni;
+				yr[o2] = br*c2-bi*s2;
+				yi[o2] = br*s2+bi*c2;
+			}
+		}
+	}
+
+	private void pass4(int m,int stride,double[] xr,double[] xi,double[] yr,double[] yi){
+		double[] lcos = cos, lsin = sin;
+		int offset = stride*m;
+		for(int p=0;p<m;p++){
+			int w1 = p*stride, w2 = w1<<1, w3 = w1+w2;
+			double c1 = lcos[w1], s1 = lsin[w1], c2 = lcos[w2], s2 = lsin[w2], c3 = lcos[w3], s3 = lsin[w3];
+			int in = stride*p, out = stride*4*p;
+			for(int q=0;q<stride;q++){
+				int i0 = in+q, i1 = i0+offset, i2 = i1+offset, i3 = i2+offset;
+				double a0r = xr[i0], a0i = xi[i0], a1r = xr[i1], a1i = xi[i1];
+				double a2r = xr[i2], a2i = xi[i2], a3r = xr[i3], a3i = xi[i3];
+				double t0r = a0r+a2r, t0i = a0i+a2i, t1r = a0r-a2r, t1i = a0i-a2i;
+				double t2r = a1r+a3r, t2i = a1i+a3i, t3r = a1r-a3r, t3i = a1i-a3i;
+				int o0 = out+q, o1 = o0+stride, o2 = o1+stride, o3 = o2+stride;
+				yr[o0] = t0r+t2r;
+				yi[o0] = t0i+t2i;
+				// b1 = t1-i*t3, b3 = t1+i*t3
+				double br = t1r+t3i, bi = t1i-t3r;
+				yr[o1] = br*c1-bi*s1;
+				yi[o1] = br*s1+bi*c1;
+				br = t0r-t2r;
+				bi = t0i-t2i;
+				yr[o2] = br*c2-bi*s2;
+				yi[o2] = br*s2+bi*c2;
+				br = t1r-t3i;
+				bi = t1i+t3r;
+				yr[o3] = br*c3-bi*s3;
+				yi[o3] = br*s3+bi*c3;
+			}
+		}
+	}
+
+	private void pass5(int m,int stride,double[] xr,double[] xi,double[] yr,double[] yi){
+		final double k1 = Math.cos(0.4d*Math.PI), k2 = Math.cos(0.8d*Math.PI);
+		final double j1 = Math.sin(0.4d*Math.PI), j2 = Math.sin(0.8d*Math.PI);
+		double[] lcos = cos, lsin = sin;
+		int offset = stride*m;
+		for(int p=0;p<m;p++){
+			int w1 = p*stride, w2 = w1<<1, w3 = w1+w2, w4 = w2<<1;
+			double c1 = lcos[w1], s1 = lsin[w1], c2 = lcos[w2], s2 = lsin[w2];
+			double c3 = lcos[w3], s3 = lsin[w3], c4 = lcos[w4], s4 = lsin[w4];
+			int in = stride*p, out = stride*5*p;
+			for(int q=0;q<stride;q++){
+				int i0 = in+q, i1 = i0+offset, i2 = i1+offset, i3 = i2+offset, i4 = i3+offset;
+				double a0r = xr[i0], a0i = xi[i0];
+				double t1r = xr[i1]+xr[i4], t1i = xi[i1]+xi[i4], t3r = xr[i1]-xr[i4], t3i = xi[i1]-xi[i4];
+				double t2r = xr[i2]+xr[i3], t2i = xi[i2]+xi[i3], t4r = xr[i2]-xr[i3], t4i = xi[i2]-xi[i3];
+				double m1r = a0r+k1*t1r+k2*t2r, m1i = a0i+k1*t1i+k2*t2i;
+				double m2r = a0r+k2*t1r+k1*t2r, m2i = a0i+k2*t1i+k1*t2i;
+				double n1r = j1*t3r+j2*t4r, n1i = j1*t3i+j2*t4i;
+				double n2r = j2*t3r-j1*t4r, n2i = j2*t3i-j1*t4i;
+				int o0 = out+q, o1 = o0+stride, o2 = o1+stride, o3 = o2+stride, o4 = o3+stride;
+				yr[o0] = a0r+t1r+t2r;
+				yi[o0] = a0i+t1i+t2i;
+				// b1 = m1-i*n1, b4 = m1+i*n1, b2 = m2-i*n2, b3 = m2+i*n2
+				double br = m1r+n1i, bi = m1i-n1r;
+				yr[o1] = br*c1-bi*s1;
+				yi[o1] = br*s1+bi*c1;
+				br = m2r+n2i;
+				bi = m2i-n2r;
+				yr[o2] = br*c2-bi*s2;
+				yi[o2] = br*s2+bi*c2;
+				br = m2r-n2i;
+				bi = m2i+n2r;
+				yr[o3] = br*c3-bi*s3;
+				yi[o3] = br*s3+bi*c3;
+				br = m1r-n1i;
+				bi = m1i+n1r;
+				yr[o4] = br*c4-bi*s4;
+				yi[o4] = br*s4+bi*c4;
+			}
+		}
+	}
+
+	private void pass7(int m,int stride,double[] xr,double[] xi,double[] yr,double[] yi){
+		final double k1 = Math.cos(2d*Math.PI/7d), k2 = Math.cos(4d*Math.PI/7d), k3 = Math.cos(6d*Math.PI/7d);
+		final double j1 = Math.sin(2d*Math.PI/7d), j2 = Math.sin(4d*Math.PI/7d), j3 = Math.sin(6d*Math.PI/7d);
+		double[] lcos = cos, lsin = sin;
+		int offset = stride*m;
+		for(int p=0;p<m;p++){
+			int w1 = p*stride, w2 = w1<<1, w3 = w1+w2, w4 = w2<<1, w5 = w4+w1, w6 = w3<<1;
+			double c1 = lcos[w1], s1 = lsin[w1], c2 = lcos[w2], s2 = lsin[w2], c3 = lcos[w3], s3 = lsin[w3];
+			double c4 = lcos[w4], s4 = lsin[w4], c5 = lcos[w5], s5 = lsin[w5], c6 = lcos[w6], s6 = lsin[w6];
+			int in = stride*p, out = stride*7*p;
+			for(int q=0;q<stride;q++){
+				int i0 = in+q, i1 = i0+offset, i2 = i1+offset, i3 = i2+offset, i4 = i3+offset, i5 = i4+offset, i6 = i5+offset;
+				double a0r = xr[i0], a0i = xi[i0];
+				double t1r = xr[i1]+xr[i6], t1i = xi[i1]+xi[i6], u1r = xr[i1]-xr[i6], u1i = xi[i1]-xi[i6];
+				double t2r = xr[i2]+xr[i5], t2i = xi[i2]+xi[i5], u2r = xr[i2]-xr[i5], u2i = xi[i2]-xi[i5];
+				double t3r = xr[i3]+xr[i4], t3i = xi[i3]+xi[i4], u3r = xr[i3]-xr[i4], u3i = xi[i3]-xi[i4];
+				double m1r = a0r+k1*t1r+k2*t2r+k3*t3r, m1i = a0i+k1*t1i+k2*t2i+k3*t3i;
+				double m2r = a0r+k2*t1r+k3*t2r+k1*t3r, m2i = a0i+k2*t1i+k3*t2i+k1*t3i;
+				double m3r = a0r+k3*t1r+k1*t2r+k2*t3r, m3i = a0i+k3*t1i+k1*t2i+k2*t3i;
+				double n1r = j1*u1r+j2*u2r+j3*u3r, n1i = j1*u1i+j2*u2i+j3*u3i;
+				double n2r = j2*u1r-j3*u2r-j1*u3r, n2i = j2*u1i-j3*u2i-j1*u3i;
+				double n3r = j3*u1r-j1*u2r+j2*u3r, n3i = j3*u1i-j1*u2i+j2*u3i;
+				int o0 = out+q, o1 = o0+stride, o2 = o1+stride, o3 = o2+stride, o4 = o3+stride, o5 = o4+stride, o6 = o5+stride;
+				yr[o0] = a0r+t1r+t2r+t3r;
+				yi[o0] = a0i+t1i+t2i+t3i;
+				// b(j) = m(j)-i*n(j), b(7-j) = m(j)+i*n(j)
+				double br = m1r+n1i, bi = m1i-n1r;
+				yr[o1] = br*c1-bi*s1;
+				yi[o1] = br*s1+bi*c1;
+				br = m2r+n2i;
+				bi = m2i-n2r;
+				yr[o2] = br*c2-bi*s2;
+				yi[o2] = br*s2+bi*c2;
+				br = m3r+n3i;
+				bi = m3i-n3r;
+				yr[o3] = br*c3-bi*s3;
+				yi[o3] = br*s3+bi*c3;
+				br = m3r-n3i;
+				bi = m3i+n3r;
+				yr[o4] = br*c4-bi*s4;
+				yi[o4] = br*s4+bi*c4;
+				br = m2r-n2i;
+				bi = m2i+n2r;
+				yr[o5] = br*c5-bi*s5;
+				yi[o5] = br*s5+bi*c5;
+				br = m1r-n1i;
+				bi = m1i+n1r;
+				yr[o6] = br*c6-bi*s6;
+				yi[o6] = br*s6+bi*c6;
+			}
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "<Mixed radix FFT for N="+n+" "+Arrays.toString(factors)+">";
+	}
+}
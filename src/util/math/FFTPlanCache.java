@@ -0,0 +1,288 @@
+package util.math;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.IntFunction;
+
+/**
+ * Shared cache of FFT objects (plans) by type and length
+ * <br>
+ * Each plan is built once even if several threads ask for it at the same
+ * time, the others wait for it instead of building their own. When the
+ * total size of the plans' tables (see {@link FFT#getTableBytes()}) goes
+ * over the budget, the least recently used plans are dropped. Plans which
+ * are dropped keep working for whoever still holds them.
+ * <br>
+ * Thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class FFTPlanCache {
+
+	/**
+	 * Default table memory budget, 64 MB
+	 */
+	public static final long DEFAULT_BUDGET = 64L<<20;
+
+	/**
+	 * The cache used by all the FFTs' <i>getFft</i> methods
+	 */
+	public static final FFTPlanCache shared = new FFTPlanCache(DEFAULT_BUDGET);
+
+	/**
+	 * Plans by type and length
+	 */
+	private final ConcurrentHashMap<Key,Entry> plans = new ConcurrentHashMap<>();
+	/**
+	 * Total table bytes of built plans
+	 */
+	private final AtomicLong bytes = new AtomicLong();
+	/**
+	 * Advances when a plan is built, entries remember the value when last used
+	 */
+	private final AtomicLong clock = new AtomicLong();
+	/**
+	 * Statistics
+	 */
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+	/**
+	 * Maximum table bytes to keep
+	 */
+	private volatile long budget;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param budget maximum total table bytes to keep
+	 */
+	public FFTPlanCache(long budget){
+		setBudget(budget);
+	}
+
+	/**
+	 * Plan type and length
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	private static final class Key{
+		final Class<?> type;
+		final int n;
+		Key(Class<?> type,int n){
+			this.type = type;
+			this.n = n;
+		}
+		@Override
+		public boolean equals(Object o){
+			if(!(o instanceof Key))return false;
+			Key other = (Key)o;
+			return type==other.type && n==other.n;
+		}
+		@Override
+		public int hashCode(){
+			return type.hashCode()*31+n;
+		}
+	}
+
+	/**
+	 * Slot for a plan which may still be under construction
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	private static final class Entry{
+		/**
+		 * The plan, null until built
+		 */
+		volatile FFT plan;
+		/**
+		 * Table bytes counted for the plan
+		 */
+		long weight;
+		/**
+		 * Clock value when last used
+		 */
+		volatile long lastUsed;
+	}
+
+	/**
+	 * Get a plan, building it if needed
+	 * <br>
+	 * Threads asking for the same plan while it is built wait for it,
+	 * and if building fails each of them tries again
+	 *
+	 * @param type the plan class, part of the key
+	 * @param n the plan's parameter, usually the length
+	 * @param factory makes the plan from <i>n</i>, must return an instance of <i>type</i>
+	 * @return the plan
+	 */
+	public <T extends FFT> T get(Class<T> type,int n,IntFunction<? extends T> factory){
+		Key key = new Key(type,n);
+		while(true){
+			Entry entry = plans.get(key);
+			if(entry==null){
+				Entry created = new Entry();
+				entry = plans.putIfAbsent(key, created);
+				if(entry==null)entry = created;
+			}
+			FFT plan = entry.plan;
+			if(plan!=null){
+				hits.increment();
+				entry.lastUsed = clock.get();
+				return type.cast(plan);
+			}
+			boolean built = false;
+			synchronized(entry){
+				// Whoever built it first may have failed or been evicted already
+				if(plans.get(key)!=entry)continue;
+				plan = entry.plan;
+				if(plan==null){
+					try{
+						plan = factory.apply(n);
+					}catch(RuntimeException|Error e){
+						plans.remove(key, entry);
+						throw e;
+					}
+					entry.weight = plan.getTableBytes();
+					entry.lastUsed = clock.incrementAndGet();
+					entry.plan = plan;
+					bytes.addAndGet(entry.weight);
+					built = true;
+				}
+			}
+			if(built){
+				misses.increment();
+				trimTo(budget, entry);
+			}else{
+				hits.increment();
+				entry.lastUsed = clock.get();
+			}
+			return type.cast(plan);
+		}
+	}
+
+	/**
+	 * Drop a plan if present
+	 *
+	 * @param type the plan class
+	 * @param n the plan's parameter
+	 */
+	public void remove(Class<? extends FFT> type,int n){
+		Key key = new Key(type,n);
+		Entry entry = plans.get(key);
+		if(entry!=null)drop(key, entry);
+	}
+
+	/**
+	 * Drop least recently used plans until the tables fit in some size
+	 *
+	 * @param limit maximum total table bytes to keep
+	 */
+	public void trimTo(long limit){
+		trimTo(limit, null);
+	}
+
+	/**
+	 * Drop all plans
+	 */
+	public void clear(){
+		trimTo(0L);
+	}
+
+	/**
+	 * Drop least recently used plans until the tables fit in some size
+	 *
+	 * @param limit maximum total table bytes to keep
+	 * @param keep a plan which must not be dropped, or null
+	 */
+	private void trimTo(long limit,Entry keep){
+		if(bytes.get()<=limit)return;
+		ArrayList<Map.Entry<Key,Entry>> built = new ArrayList<>();
+		for(Map.Entry<Key,Entry> pair:plans.entrySet()){
+			Entry entry = pair.getValue();
+			if(entry!=keep && entry.plan!=null)built.add(pair);
+		}
+		built.sort((a,b)->Long.compare(a.getValue().lastUsed, b.getValue().lastUsed));
+		for(Map.Entry<Key,Entry> pair:built){
+			if(bytes.get()<=limit)break;
+			drop(pair.getKey(), pair.getValue());
+		}
+	}
+
+	/**
+	 * Remove a built plan and stop counting its tables
+	 *
+	 * @param key the key
+	 * @param entry the entry expected for the key
+	 */
+	private void drop(Key key,Entry entry){
+		// Only counted once, by whoever actually removes it
+		synchronized(entry){
+			if(entry.plan!=null && plans.remove(key, entry)){
+				bytes.addAndGet(-entry.weight);
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * @return maximum total table bytes to keep
+	 */
+	public long getBudget(){
+		return budget;
+	}
+
+	/**
+	 * Change the budget, dropping plans if now over it
+	 *
+	 * @param budget maximum total table bytes to keep
+	 */
+	public void setBudget(long budget){
+		if(budget<0)throw new IllegalArgumentException("Budget ("+budget+") cannot be negative");
+		this.budget = budget;
+		trimTo(budget);
+	}
+
+	/**
+	 * @return number of requests answered with an existing plan
+	 */
+	public long getHits(){
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of plans built
+	 */
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	/**
+	 * @return number of plans dropped, whether to fit the budget or by request
+	 */
+	public long getEvictions(){
+		return evictions.sum();
+	}
+
+	/**
+	 * @return total table bytes of the plans currently held
+	 */
+	public long getBytes(){
+		return bytes.get();
+	}
+
+	/**
+	 * @return number of plans currently held, including ones under construction
+	 */
+	public int size(){
+		return plans.size();
+	}
+
+	@Override
+	public String toString(){
+		return "<FFTPlanCache of "+size()+" plans, "+getBytes()+"/"+budget+" bytes, "
+				+getHits()+" hits, "+getMisses()+" misses, "+getEvictions()+" evictions>";
+	}
+}
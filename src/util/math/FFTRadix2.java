@@ -37,10 +37,8 @@ import util.Bits;
  */
 public final class FFTRadix2 extends FFT {
 	
-	private static FFTRadix2[] sharedFFTs = new FFTRadix2[29];
-	
 	/**
-	 * Get shared FFT object for known power of 2
+	 * Get shared FFT object for known power of 2, from {@link FFTPlanCache#shared}
 	 * 
 	 * @param m the exponent of 2
 	 * @return an FFT object which can process arrays of length 1&lt;&lt;m
@@ -51,11 +49,7 @@ public final class FFTRadix2 extends FFT {
 		}else if(m>30){
 			throw new IllegalArgumentException("FFT length exponent "+Integer.toString(m)+" is too large. Maximum value is 30.");
 		}else{
-			int index = m-1;
-			if(sharedFFTs[index]==null){
-				sharedFFTs[index]=getNewFft(m);
-			}
-			return sharedFFTs[index];
+			return FFTPlanCache.shared.get(FFTRadix2.class, m, FFTRadix2::getNewFft);
 		}
 	}
 	
@@ -69,7 +63,7 @@ public final class FFTRadix2 extends FFT {
 	public static void removeFft(int m){
 		//Fail-safe
 		if(m>=1&&m<=30){
-			sharedFFTs[m-1]=null;
+			FFTPlanCache.shared.remove(FFTRadix2.class, m);
 		}
 	}
 	
@@ -181,6 +175,11 @@ public final class FFTRadix2 extends FFT {
 	public boolean checkBounds(int length) {
 		return length==n;
 	}
+	
+	@Override
+	public long getTableBytes() {
+		return (long)cos.length*Double.BYTES*2+(long)bitreversecount*Integer.BYTES*2;
+	}
 
 	/*
 	**************************************************************
@@ -0,0 +1,286 @@
+package util.math;
+
+/**
+ * Radix-4 FFT for powers of 2, working on interleaved complex data
+ * <br>
+ * Alternative to {@link FFTRadix2} for large transforms. Stockham autosort
+ * form, so there is no bit reversal pass and every pass streams through
+ * memory in order. Each pass has its own twiddle table laid out in the order
+ * it is read, instead of striding through one shared table, and does half
+ * as many passes as radix 2 with one extra radix 2 pass for odd powers.
+ * <br>
+ * The native layout is interleaved, real and imaginary parts alternating,
+ * see {@link #fftInterleaved(double[])}. Split arrays also work through the
+ * usual {@link FFT} methods, they are interleaved into scratch first.
+ * <br>
+ * Thread safe, scratch is kept per thread
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public final class FFTRadix4 extends FFT {
+
+	/**
+	 * Longest scratch kept per thread, in doubles, longer ones are
+	 * allocated for each transform instead of being held forever
+	 */
+	public static final int SCRATCH_LIMIT = 1<<22;
+
+	/**
+	 * Smallest exponent of 2 {@link FFT#getAdaptiveFft(int)} uses this for,
+	 * below it {@link FFTRadix2} is as fast
+	 */
+	public static final int ADAPTIVE_MIN_EXPONENT = 8;
+
+	/**
+	 * Per thread scratch, grown as needed
+	 */
+	private static final ThreadLocal<double[][]> scratch = new ThreadLocal<>();
+
+	/**
+	 * Get shared FFT object for known power of 2, from {@link FFTPlanCache#shared}
+	 *
+	 * @param m the exponent of 2
+	 * @return an FFT object which can process arrays of length 1&lt;&lt;m
+	 */
+	public static FFTRadix4 getFft(int m){
+		if(m<1){
+			throw new IllegalArgumentException("FFT length exponent "+m+" is too small. Minimum value is 1.");
+		}else if(m>29){
+			throw new IllegalArgumentException("FFT length exponent "+m+" is too large. Maximum value is 29.");
+		}else{
+			return FFTPlanCache.shared.get(FFTRadix4.class, m, FFTRadix4::getNewFft);
+		}
+	}
+
+	/**
+	 * Dereference a shared FFT object
+	 * <br>
+	 * Only really used to free up memory
+	 *
+	 * @param m the exponent of 2
+	 */
+	public static void removeFft(int m){
+		FFTPlanCache.shared.remove(FFTRadix4.class, m);
+	}
+
+	/**
+	 * Gets a new FFT object for a known power of 2
+	 *
+	 * @param m the exponent of 2
+	 * @return an FFT object which can process arrays of length 1&lt;&lt;m
+	 */
+	public static FFTRadix4 getNewFft(int m){
+		return new FFTRadix4(1<<m);
+	}
+
+	/**
+	 * The length this instance is for
+	 */
+	public final int n;
+	/**
+	 * Twiddles of each radix 4 pass, for butterfly p the cosines and sines
+	 * of the 3 nontrivial outputs are at 6p to 6p+5
+	 */
+	private final double[][] twiddles;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param n the length, a power of 2 at least 2
+	 */
+	public FFTRadix4(int n){
+		if(n<2 || Integer.bitCount(n)!=1)
+			throw new IllegalArgumentException("FFT length must be power of 2");
+		this.n = n;
+		int passes = Integer.numberOfTrailingZeros(n)>>1;
+		twiddles = new double[passes][];
+		for(int pass=0,length=n;pass<passes;pass++,length>>=2){
+			int m = length>>2;
+			double[] table = twiddles[pass] = new double[m*6];
+			double mult = -2d*Math.PI/length;
+			for(int p=0,i=0;p<m;p++){
+				for(int k=1;k<4;k++){
+					double angle = mult*p*k;
+					table[i++] = Math.cos(angle);
+					table[i++] = Math.sin(angle);
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean checkBounds(int length){
+		return length==n;
+	}
+
+	@Override
+	public long getTableBytes(){
+		long result = 0;
+		for(double[] table:twiddles)result += (long)table.length*Double.BYTES;
+		return result;
+	}
+
+	/**
+	 * Get scratch arrays for this thread
+	 *
+	 * @param count how many arrays
+	 * @param length minimum length of each
+	 * @return the arrays
+	 */
+	private static double[][] scratch(int count,int length){
+		if(length>SCRATCH_LIMIT){
+			return new double[count][length];
+		}
+		double[][] result = scratch.get();
+		if(result==null || result.length<count || result[0].length<length){
+			result = new double[Math.max(count, result==null?0:result.length)][length];
+			scratch.set(result);
+		}
+		return result;
+	}
+
+	/**
+	 * In-place unscaled FFT of interleaved complex data
+	 *
+	 * @param data real and imaginary parts alternating, length 2N
+	 */
+	public void fftInterleavedUnsafe(double[] data){
+		double[] result = transform(data, scratch(1, n<<1)[0]);
+		if(result!=data)System.arraycopy(result, 0, data, 0, n<<1);
+	}
+
+	/**
+	 * In-place FFT of interleaved complex data, scaled the same
+	 * as {@link #fft(double[], double[])}
+	 *
+	 * @param data real and imaginary parts alternating, length 2N
+	 */
+	public void fftInterleaved(double[] data){
+		if(data.length!=n<<1)
+			throw new IllegalArgumentException("Invalid length for interleaved FFT ("+data.length+"), should be "+(n<<1));
+		fftInterleavedUnsafe(data);
+		scaleInterleaved(data);
+	}
+
+	/**
+	 * In-place inverse FFT of interleaved complex data, scaled the same
+	 * as {@link #ifft(double[], double[])}
+	 *
+	 * @param data real and imaginary parts alternating, length 2N
+	 */
+	public void ifftInterleaved(double[] data){
+		if(data.length!=n<<1)
+			throw new IllegalArgumentException("Invalid length for interleaved FFT ("+data.length+"), should be "+(n<<1));
+		// Conjugate, transform, conjugate
+		for(int i=1;i<data.length;i+=2)data[i] = -data[i];
+		fftInterleavedUnsafe(data);
+		for(int i=1;i<data.length;i+=2)data[i] = -data[i];
+		scaleInterleaved(data);
+	}
+
+	/**
+	 * Scale interleaved data by 1/sqrt(N), N being complex values not doubles
+	 *
+	 * @param data real and imaginary parts alternating, length 2N
+	 */
+	private void scaleInterleaved(double[] data){
+		double mult = 1d/Math.sqrt(n);
+		for(int i=0;i<data.length;i++)data[i] *= mult;
+	}
+
+	@Override
+	public void fftUnsafe(double[] real,double[] imaginary){
+		int n = this.n;
+		double[][] work = scratch(2, n<<1);
+		double[] a = work[0];
+		for(int i=0,j=0;i<n;i++,j+=2){
+			a[j] = real[i];
+			a[j+1] = imaginary[i];
+		}
+		double[] result = transform(a, work[1]);
+		for(int i=0,j=0;i<n;i++,j+=2){
+			real[i] = result[j];
+			imaginary[i] = result[j+1];
+		}
+	}
+
+	/**
+	 * Do all the passes, alternating between two buffers
+	 *
+	 * @param x the input, overwritten
+	 * @param y scratch, at least 2N
+	 * @return whichever of x or y has the output
+	 */
+	private double[] transform(double[] x,double[] y){
+		int stride = 1, length = n;
+		for(double[] table:twiddles){
+			int m = length>>2;
+			pass4(m, stride, table, x, y);
+			double[] t = x;x = y;y = t;
+			stride <<= 2;
+			length = m;
+		}
+		if(length==2){
+			pass2(stride, x, y);
+			double[] t = x;x = y;y = t;
+		}
+		return x;
+	}
+
+	/*
+	 * Same indexing as FFTMixedRadix, with element e at 2e and 2e+1.
+	 * Input r of butterfly p is element q+stride*(p+r*m),
+	 * output k goes to q+stride*(4p+k).
+	 */
+
+	private static void pass4(int m,int stride,double[] table,double[] x,double[] y){
+		int offset = (stride*m)<<1, step = stride<<1;
+		for(int p=0,t=0;p<m;p++,t+=6){
+			double c1 = table[t], s1 = table[t+1], c2 = table[t+2], s2 = table[t+3], c3 = table[t+4], s3 = table[t+5];
+			int in = (stride*p)<<1, out = (stride*p)<<3;
+			for(int q=0;q<step;q+=2){
+				int i0 = in+q, i1 = i0+offset, i2 = i1+offset, i3 = i2+offset;
+				double a0r = x[i0], a0i = x[i0+1], a1r = x[i1], a1i = x[i1+1];
+				double a2r = x[i2], a2i = x[i2+1], a3r = x[i3], a3i = x[i3+1];
+				double t0r = a0r+a2r, t0i = a0i+a2i, t1r = a0r-a2r, t1i = a0i-a2i;
+				double t2r = a1r+a3r, t2i = a1i+a3i, t3r = a1r-a3r, t3i = a1i-a3i;
+				int o0 = out+q, o1 = o0+step, o2 = o1+step, o3 = o2+step;
+				y[o0] = t0r+t2r;
+				y[o0+1] = t0i+t2i;
+				// b1 = t1-i*t3, b3 = t1+i*t3
+				double br = t1r+t3i, bi = t1i-t3r;
+				y[o1] = br*c1-bi*s1;
+				y[o1+1] = br*s1+bi*c1;
+				br = t0r-t2r;
+				bi = t0i-t2i;
+				y[o2] = br*c2-bi*s2;
+				y[o2+1] = br*s2+bi*c2;
+				br = t1r-t3i;
+				bi = t1i+t3r;
+				y[o3] = br*c3-bi*s3;
+				y[o3+1] = br*s3+bi*c3;
+			}
+		}
+	}
+
+	/**
+	 * Last pass for odd powers of 2, length 2 transforms need no twiddles
+	 */
+	private static void pass2(int stride,double[] x,double[] y){
+		int offset = stride<<1;
+		for(int i0=0;i0<offset;i0+=2){
+			int i1 = i0+offset;
+			double ar = x[i0], ai = x[i0+1], br = x[i1], bi = x[i1+1];
+			y[i0] = ar+br;
+			y[i0+1] = ai+bi;
+			y[i1] = ar-br;
+			y[i1+1] = ai-bi;
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "<Radix-4 Stockham FFT for N="+n+">";
+	}
+}
@@ -0,0 +1,335 @@
+package util.math;
+
+import java.util.*;
+import util.ds.LhmCache;
+
+/**
+ * Bank of 2-pole resonant filters processing many channels at once
+ * <br>
+ * Each channel is a biquad in topology-preserving state variable form
+ * (see Andrew Simper, "Linear Trapezoidal Integrated State Variable Filter"),
+ * which unlike the direct form stays stable while its coefficients change,
+ * so cutoff and resonance are ramped linearly across each block instead
+ * of jumping.
+ * <br>
+ * Data is struct-of-arrays: coefficients and state for all channels are in
+ * parallel arrays, and audio is frame-major, channel <i>c</i> of frame <i>f</i>
+ * at <i>f*size()+c</i>, so the inner loop runs over channels with no dependency
+ * between iterations and can be vectorized. Channels are kept packed;
+ * removing one moves the last channel into its place.
+ * <br>
+ * Coefficients are cached by cutoff and resonance bucket, cutoff in
+ * <i>1/CUTOFF_BUCKETS_PER_OCTAVE</i> octave steps and resonance in
+ * <i>1/RESONANCE_BUCKETS</i> steps, which is finer than is audible.
+ * <br>
+ * Not thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class FilterBank {
+
+	/**
+	 * Filter response
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static enum Mode{
+		LOWPASS(0d,0d,0d,1d),
+		BANDPASS(0d,1d,0d,0d),
+		HIGHPASS(1d,0d,-1d,-1d),
+		NOTCH(1d,0d,-1d,0d);
+
+		/**
+		 * Output is <i>input*c0+band*(c1+ck*k)+low*c2</i>
+		 */
+		final double c0, c1, ck, c2;
+
+		private Mode(double c0,double c1,double ck,double c2){
+			this.c0 = c0;
+			this.c1 = c1;
+			this.ck = ck;
+			this.c2 = c2;
+		}
+	}
+
+	/**
+	 * Cutoff buckets per octave
+	 */
+	public static final int CUTOFF_BUCKETS_PER_OCTAVE = 48;
+	/**
+	 * Resonance buckets per unit of Q
+	 */
+	public static final int RESONANCE_BUCKETS = 64;
+	/**
+	 * Maximum number of cached coefficient pairs
+	 */
+	public static final int CACHE_LIMIT = 1<<12;
+	/**
+	 * Lowest allowed cutoff in Hz, also the reference for bucketing
+	 */
+	public static final double MIN_CUTOFF = 10d;
+
+	/**
+	 * Sample rate in Hz
+	 */
+	public final int sampleRate;
+	/**
+	 * Response shared by all channels
+	 */
+	public Mode mode;
+	/**
+	 * Number of channels in use
+	 */
+	protected int size;
+	/**
+	 * Current coefficients
+	 */
+	protected double[] g, k;
+	/**
+	 * Target coefficients
+	 */
+	protected double[] gTarget, kTarget;
+	/**
+	 * Coefficient change per frame in the current block
+	 */
+	protected double[] gStep, kStep;
+	/**
+	 * Integrator states
+	 */
+	protected double[] s1, s2;
+	/**
+	 * Channels whose coefficients should jump instead of ramp
+	 */
+	protected boolean[] jump;
+	/**
+	 * Cached coefficients by bucket, value is {g, k}
+	 */
+	protected final LhmCache<Long,double[]> cache = new LhmCache<>(CACHE_LIMIT,true);
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param sampleRate sample rate in Hz
+	 * @param mode filter response
+	 * @param capacity initial channel capacity
+	 */
+	public FilterBank(int sampleRate,Mode mode,int capacity){
+		this.sampleRate = sampleRate;
+		this.mode = mode;
+		if(capacity<1)capacity = 1;
+		g = new double[capacity];
+		k = new double[capacity];
+		gTarget = new double[capacity];
+		kTarget = new double[capacity];
+		gStep = new double[capacity];
+		kStep = new double[capacity];
+		s1 = new double[capacity];
+		s2 = new double[capacity];
+		jump = new boolean[capacity];
+	}
+
+	/**
+	 * @return number of channels in use
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Add a channel with cleared state
+	 *
+	 * @param cutoff initial cutoff in Hz
+	 * @param resonance initial Q
+	 * @return index of the new channel
+	 */
+	public int add(double cutoff,double resonance){
+		if(size==g.length)grow(size<<1);
+		int c = size++;
+		s1[c] = 0d;
+		s2[c] = 0d;
+		setTarget(c,cutoff,resonance);
+		jump[c] = true;
+		return c;
+	}
+
+	/**
+	 * Remove a channel, the last channel takes its index
+	 *
+	 * @param channel channel to remove
+	 */
+	public void remove(int channel){
+		int last = --size;
+		if(channel!=last){
+			g[channel] = g[last];
+			k[channel] = k[last];
+			gTarget[channel] = gTarget[last];
+			kTarget[channel] = kTarget[last];
+			s1[channel] = s1[last];
+			s2[channel] = s2[last];
+			jump[channel] = jump[last];
+		}
+	}
+
+	/**
+	 * Remove all channels
+	 */
+	public void clear(){
+		size = 0;
+	}
+
+	/**
+	 * Change capacity
+	 *
+	 * @param capacity new capacity, at least the size
+	 */
+	protected void grow(int capacity){
+		g = Arrays.copyOf(g, capacity);
+		k = Arrays.copyOf(k, capacity);
+		gTarget = Arrays.copyOf(gTarget, capacity);
+		kTarget = Arrays.copyOf(kTarget, capacity);
+		gStep = Arrays.copyOf(gStep, capacity);
+		kStep = Arrays.copyOf(kStep, capacity);
+		s1 = Arrays.copyOf(s1, capacity);
+		s2 = Arrays.copyOf(s2, capacity);
+		jump = Arrays.copyOf(jump, capacity);
+	}
+
+	/**
+	 * Set the cutoff and resonance to reach by the end of the next block
+	 *
+	 * @param channel channel index
+	 * @param cutoff cutoff in Hz
+	 * @param resonance Q, 1/sqrt(2) is flat
+	 */
+	public void setTarget(int channel,double cutoff,double resonance){
+		double[] coefficients = coefficients(cutoff,resonance);
+		gTarget[channel] = coefficients[0];
+		kTarget[channel] = coefficients[1];
+	}
+
+	/**
+	 * Get the coefficients for a cutoff and resonance, rounded
+	 * to the nearest bucket, using the cache if possible
+	 *
+	 * @param cutoff cutoff in Hz
+	 * @param resonance Q
+	 * @return {g, k}, must not be modified
+	 */
+	public double[] coefficients(double cutoff,double resonance){
+		double nyquist = 0.5d*sampleRate;
+		if(!(cutoff>MIN_CUTOFF))cutoff = MIN_CUTOFF;
+		if(cutoff>nyquist*0.99d)cutoff = nyquist*0.99d;
+		if(!(resonance>0.05d))resonance = 0.05d;
+		long cutoffBucket = Math.round(Math.log(cutoff/MIN_CUTOFF)*(CUTOFF_BUCKETS_PER_OCTAVE/Math.log(2d)));
+		long resonanceBucket = Math.round(resonance*RESONANCE_BUCKETS);
+		Long key = (cutoffBucket<<32)|resonanceBucket;
+		double[] result = cache.get(key);
+		if(result==null){
+			double bucketCutoff = MIN_CUTOFF*Math.pow(2d, (double)cutoffBucket/CUTOFF_BUCKETS_PER_OCTAVE);
+			double bucketResonance = (double)resonanceBucket/RESONANCE_BUCKETS;
+			result = new double[]{
+					Math.tan(Math.PI*Math.min(bucketCutoff, nyquist*0.99d)/sampleRate),
+					1d/bucketResonance};
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Filter a block in place
+	 * <br>
+	 * Coefficients ramp from their current values to the targets over the block
+	 *
+	 * @param block frame-major audio, <i>frames*size()</i> values
+	 * @param offset index of the first value
+	 * @param frames number of frames
+	 */
+	public void process(double[] block,int offset,int frames){
+		int n = size;
+		if(n==0 || frames<=0)return;
+		double[] lg = g, lk = k, lgs = gStep, lks = kStep, ls1 = s1, ls2 = s2;
+		double invFrames = 1d/frames;
+		for(int c=0;c<n;c++){
+			if(jump[c]){
+				jump[c] = false;
+				lg[c] = gTarget[c];
+				lk[c] = kTarget[c];
+			}
+			lgs[c] = (gTarget[c]-lg[c])*invFrames;
+			lks[c] = (kTarget[c]-lk[c])*invFrames;
+		}
+		Mode lmode = mode;
+		double c0 = lmode.c0, c1 = lmode.c1, ck = lmode.ck, c2 = lmode.c2;
+		for(int f=0,i=offset;f<frames;f++,i+=n){
+			for(int c=0;c<n;c++){
+				double gg = lg[c]+lgs[c], kk = lk[c]+lks[c];
+				lg[c] = gg;
+				lk[c] = kk;
+				double a1 = 1d/(1d+gg*(gg+kk)), a2 = gg*a1, a3 = gg*a2;
+				double ic1 = ls1[c], ic2 = ls2[c];
+				double v0 = block[i+c];
+				double v3 = v0-ic2;
+				double v1 = a1*ic1+a2*v3;
+				double v2 = ic2+a2*ic1+a3*v3;
+				ls1[c] = 2d*v1-ic1;
+				ls2[c] = 2d*v2-ic2;
+				block[i+c] = c0*v0+(c1+ck*kk)*v1+c2*v2;
+			}
+		}
+		// Land exactly on the targets and flush denormals
+		for(int c=0;c<n;c++){
+			lg[c] = gTarget[c];
+			lk[c] = kTarget[c];
+			if(Math.abs(ls1[c])<1e-30d)ls1[c] = 0d;
+			if(Math.abs(ls2[c])<1e-30d)ls2[c] = 0d;
+		}
+	}
+
+	/**
+	 * Filter a single channel in place, as if it were the only one
+	 * <br>
+	 * Useful for per-track filtering, where each channel has its own buffer
+	 *
+	 * @param channel channel index
+	 * @param buffer audio to filter
+	 * @param offset index of the first sample
+	 * @param count number of samples
+	 */
+	public void process(int channel,double[] buffer,int offset,int count){
+		if(count<=0)return;
+		int c = channel;
+		if(jump[c]){
+			jump[c] = false;
+			g[c] = gTarget[c];
+			k[c] = kTarget[c];
+		}
+		double gg = g[c], kk = k[c];
+		double gs = (gTarget[c]-gg)/count, ks = (kTarget[c]-kk)/count;
+		double ic1 = s1[c], ic2 = s2[c];
+		Mode lmode = mode;
+		double c0 = lmode.c0, c1 = lmode.c1, ck = lmode.ck, c2 = lmode.c2;
+		for(int i=offset,end=offset+count;i<end;i++){
+			gg += gs;
+			kk += ks;
+			double a1 = 1d/(1d+gg*(gg+kk)), a2 = gg*a1, a3 = gg*a2;
+			double v0 = buffer[i];
+			double v3 = v0-ic2;
+			double v1 = a1*ic1+a2*v3;
+			double v2 = ic2+a2*ic1+a3*v3;
+			ic1 = 2d*v1-ic1;
+			ic2 = 2d*v2-ic2;
+			buffer[i] = c0*v0+(c1+ck*kk)*v1+c2*v2;
+		}
+		g[c] = gTarget[c];
+		k[c] = kTarget[c];
+		s1[c] = Math.abs(ic1)<1e-30d?0d:ic1;
+		s2[c] = Math.abs(ic2)<1e-30d?0d:ic2;
+	}
+
+	@Override
+	public String toString(){
+		return "<FilterBank "+mode+", "+size+" channels at "+sampleRate+"Hz>";
+	}
+}
@@ -0,0 +1,245 @@
+package util.math;
+
+import java.util.Arrays;
+
+/**
+ * Interpolation kernels for reading sampled data at fractional positions,
+ * with batch reads which fill a whole array at once
+ * <br>
+ * Positions are in index units, so position 2.5 is halfway between
+ * index 2 and index 3. Anything outside the data is treated as 0.
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public enum Interpolation {
+	/**
+	 * 2 point linear interpolation, cheapest
+	 */
+	LINEAR,
+	/**
+	 * 4 point cubic Hermite (Catmull-Rom), continuous first derivative
+	 */
+	HERMITE,
+	/**
+	 * 4 point, 3rd order Lagrange polynomial, passes through all 4 points
+	 */
+	LAGRANGE;
+
+	/**
+	 * Interpolate between <i>y1</i> and <i>y2</i>
+	 *
+	 * @param y0 value at -1
+	 * @param y1 value at 0
+	 * @param y2 value at 1
+	 * @param y3 value at 2
+	 * @param t position, between 0 and 1
+	 * @return the interpolated value
+	 */
+	public double interpolate(double y0,double y1,double y2,double y3,double t){
+		switch(this){
+		case LINEAR:
+			return y1+t*(y2-y1);
+		case HERMITE:{
+			double c1 = 0.5d*(y2-y0);
+			double c2 = y0-2.5d*y1+2d*y2-0.5d*y3;
+			double c3 = 0.5d*(y3-y0)+1.5d*(y1-y2);
+			return ((c3*t+c2)*t+c1)*t+y1;
+		}
+		default:{
+			double tp = t+1d, tm = t-1d, tmm = t-2d;
+			return tmm*(0.5d*tp*tm*y1-(1d/6d)*t*tm*y0)+tp*t*((1d/6d)*tm*y3-0.5d*tmm*y2);
+		}
+		}
+	}
+
+	/**
+	 * Get the weights of the 4 points at -1, 0, 1 and 2 for some position
+	 *
+	 * @param t position, between 0 and 1
+	 * @param weights array of length at least 4 to write to
+	 */
+	public void weights(double t,double[] weights){
+		switch(this){
+		case LINEAR:
+			weights[0] = 0d;
+			weights[1] = 1d-t;
+			weights[2] = t;
+			weights[3] = 0d;
+			break;
+		case HERMITE:{
+			double t2 = t*t, t3 = t2*t;
+			weights[0] = -0.5d*t+t2-0.5d*t3;
+			weights[1] = 1d-2.5d*t2+1.5d*t3;
+			weights[2] = 0.5d*t+2d*t2-1.5d*t3;
+			weights[3] = -0.5d*t2+0.5d*t3;
+			break;
+		}
+		default:{
+			double tp = t+1d, tm = t-1d, tmm = t-2d;
+			weights[0] = -t*tm*tmm*(1d/6d);
+			weights[1] = tp*tm*tmm*0.5d;
+			weights[2] = -tp*t*tmm*0.5d;
+			weights[3] = tp*t*tm*(1d/6d);
+			break;
+		}
+		}
+	}
+
+	/**
+	 * Read many evenly spaced values at once
+	 * <br>
+	 * When <i>step</i> is exactly 1 the weights are the same for every output,
+	 * so they are computed once, and if <i>start</i> is also a whole number
+	 * the data is copied directly
+	 *
+	 * @param data sampled data to read from
+	 * @param start position of the first value to read
+	 * @param step distance between consecutive positions
+	 * @param out array to write to
+	 * @param offset index in <i>out</i> of the first value
+	 * @param count number of values to write
+	 */
+	public void fill(double[] data,double start,double step,double[] out,int offset,int count){
+		if(!(Double.isFinite(start)&&Double.isFinite(step)))throw new IllegalArgumentException("Start ("+start+") and step ("+step+") must be finite");
+		if(step==1d){
+			fillUnitStep(data,start,out,offset,count);
+		}else if(this==LINEAR){
+			fillLinear(data,start,step,out,offset,count);
+		}else{
+			fillCubic(data,start,step,out,offset,count);
+		}
+	}
+
+	/**
+	 * Step 1 case of {@link #fill(double[], double, double, double[], int, int)}
+	 */
+	private void fillUnitStep(double[] data,double start,double[] out,int offset,int count){
+		double floor = Math.floor(start);
+		double frac = start-floor;
+		int n = data.length, end = offset+count;
+		if(floor<-count-2 || floor>n+1){
+			Arrays.fill(out, offset, end, 0d);
+			return;
+		}
+		int first = (int)floor;
+		if(frac==0d){
+			// Aligned, plain copy with zeros on either side
+			int from = Math.max(first, 0), to = Math.min(first+count, n);
+			int i = offset, lead = Math.min(from-first, count);
+			for(;i<offset+lead;i++)out[i] = 0d;
+			if(to>from){
+				System.arraycopy(data, from, out, i, to-from);
+				i += to-from;
+			}
+			for(;i<end;i++)out[i] = 0d;
+			return;
+		}
+		// Same as weights(frac, ...) but into locals, no array per call
+		double w0, w1, w2, w3;
+		switch(this){
+		case LINEAR:
+			w0 = 0d;
+			w1 = 1d-frac;
+			w2 = frac;
+			w3 = 0d;
+			break;
+		case HERMITE:{
+			double t2 = frac*frac, t3 = t2*frac;
+			w0 = -0.5d*frac+t2-0.5d*t3;
+			w1 = 1d-2.5d*t2+1.5d*t3;
+			w2 = 0.5d*frac+2d*t2-1.5d*t3;
+			w3 = -0.5d*t2+0.5d*t3;
+			break;
+		}
+		default:{
+			double tp = frac+1d, tm = frac-1d, tmm = frac-2d;
+			w0 = -frac*tm*tmm*(1d/6d);
+			w1 = tp*tm*tmm*0.5d;
+			w2 = -tp*frac*tmm*0.5d;
+			w3 = tp*frac*tm*(1d/6d);
+			break;
+		}
+		}
+		for(int i=offset,j=first;i<end;i++,j++){
+			if(j>=1 && j<n-2){
+				out[i] = w0*data[j-1]+w1*data[j]+w2*data[j+1]+w3*data[j+2];
+			}else{
+				out[i] = w0*at(data,j-1)+w1*at(data,j)+w2*at(data,j+1)+w3*at(data,j+2);
+			}
+		}
+	}
+
+	/**
+	 * Linear case of {@link #fill(double[], double, double, double[], int, int)}
+	 */
+	private static void fillLinear(double[] data,double start,double step,double[] out,int offset,int count){
+		int n = data.length;
+		for(int i=0;i<count;i++){
+			double position = start+i*step;
+			double floor = Math.floor(position);
+			double t = position-floor;
+			if(floor>=0d && floor<n-1){
+				int j = (int)floor;
+				double a = data[j];
+				out[offset+i] = a+t*(data[j+1]-a);
+			}else if(floor>=-1d && floor<n){
+				int j = (int)floor;
+				double a = at(data,j);
+				out[offset+i] = a+t*(at(data,j+1)-a);
+			}else{
+				out[offset+i] = 0d;
+			}
+		}
+	}
+
+	/**
+	 * 4 point case of {@link #fill(double[], double, double, double[], int, int)}
+	 */
+	private void fillCubic(double[] data,double start,double step,double[] out,int offset,int count){
+		int n = data.length;
+		boolean hermite = this==HERMITE;
+		for(int i=0;i<count;i++){
+			double position = start+i*step;
+			double floor = Math.floor(position);
+			double t = position-floor;
+			double y0, y1, y2, y3;
+			if(floor>=1d && floor<n-2){
+				int j = (int)floor;
+				y0 = data[j-1];
+				y1 = data[j];
+				y2 = data[j+1];
+				y3 = data[j+2];
+			}else if(floor>=-2d && floor<n+1){
+				int j = (int)floor;
+				y0 = at(data,j-1);
+				y1 = at(data,j);
+				y2 = at(data,j+1);
+				y3 = at(data,j+2);
+			}else{
+				out[offset+i] = 0d;
+				continue;
+			}
+			if(hermite){
+				double c1 = 0.5d*(y2-y0);
+				double c2 = y0-2.5d*y1+2d*y2-0.5d*y3;
+				double c3 = 0.5d*(y3-y0)+1.5d*(y1-y2);
+				out[offset+i] = ((c3*t+c2)*t+c1)*t+y1;
+			}else{
+				double tp = t+1d, tm = t-1d, tmm = t-2d;
+				out[offset+i] = tmm*(0.5d*tp*tm*y1-(1d/6d)*t*tm*y0)+tp*t*((1d/6d)*tm*y3-0.5d*tmm*y2);
+			}
+		}
+	}
+
+	/**
+	 * Bounds checked read
+	 *
+	 * @param data array to read from
+	 * @param index index to read
+	 * @return the value, or 0 if out of bounds
+	 */
+	private static double at(double[] data,int index){
+		return index>=0 && index<data.length?data[index]:0d;
+	}
+}
@@ -0,0 +1,336 @@
+package util.math;
+
+import util.*;
+
+/**
+ * Streaming phase vocoder, for changing length and pitch independently
+ * <br>
+ * Input is analyzed by an {@link STFT} every <i>analysisHop</i> samples and
+ * resynthesized every <i>synthesisHop</i> samples, which stretches time by
+ * their ratio. Each bin's phase is advanced by its measured frequency times
+ * the synthesis hop so partials stay continuous, and bins around each
+ * spectral peak keep their phase relative to the peak
+ * (see Laroche and Dolson, "Improved phase vocoder time-scale modification
+ * of audio"), which reduces the smeared, phasey sound of the plain vocoder.
+ * <br>
+ * Pitch shifting stretches time by the pitch ratio, then resamples back
+ * to the requested length with a {@link Resampler}. The hops are whole
+ * numbers, so the resampling ratio also absorbs the rounding, leaving the
+ * length exact and the pitch off by the rounding of the shorter hop,
+ * a few cents with the default size.
+ * <br>
+ * Normally the synthesis hop is fixed at <i>size/OVERLAP</i> and the
+ * analysis hop varies. When stretch times pitch is below <i>1/OVERLAP</i>
+ * the analysis hop would be longer than a frame, so it is fixed instead
+ * and the synthesis hop shrinks, the synthesis normalization takes care of
+ * the denser overlap. The shorter the synthesis hop gets, the more its
+ * rounding shows in the pitch.
+ * <br>
+ * The frame size must be a power of 2 so transforms take the power of 2
+ * paths of {@link FFT#getAdaptiveFft(int)}, {@link FFTRadix2} for small
+ * frames and {@link FFTRadix4} for larger ones.
+ * Latency is about one frame. Each channel needs its own instance.
+ * <br>
+ * Not thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class PhaseVocoder {
+
+	/**
+	 * Default frame size, about 46ms at 44100Hz
+	 */
+	public static final int DEFAULT_SIZE = 1<<11;
+	/**
+	 * Synthesis hops per frame
+	 */
+	public static final int OVERLAP = 4;
+
+	/**
+	 * Output length divided by input length
+	 */
+	public final double stretch;
+	/**
+	 * Output frequency divided by input frequency
+	 */
+	public final double pitch;
+	/**
+	 * Frame size
+	 */
+	public final int size;
+	/**
+	 * Input samples between frames
+	 */
+	public final int analysisHop;
+	/**
+	 * Output samples between frames, before resampling
+	 */
+	public final int synthesisHop;
+	/**
+	 * Analysis side
+	 */
+	protected final STFT analysis;
+	/**
+	 * Synthesis side
+	 */
+	protected final STFT synthesis;
+	/**
+	 * Resamples the stretched signal, or null if no resampling is needed
+	 */
+	protected final Resampler resampler;
+	/**
+	 * Frame spectrum
+	 */
+	protected final double[] real, imag;
+	/**
+	 * Frame magnitudes and phases
+	 */
+	protected final double[] magnitude, phase;
+	/**
+	 * Analysis phases of the last frame
+	 */
+	protected final double[] lastPhase;
+	/**
+	 * Synthesis phases of the last frame
+	 */
+	protected final double[] synthesisPhase;
+	/**
+	 * Peak bin each bin is locked to
+	 */
+	protected final int[] peakOf;
+	/**
+	 * Holds stretched output on its way to the resampler
+	 */
+	protected final double[] transfer;
+	/**
+	 * True until the first frame, which keeps its analysis phases
+	 */
+	protected boolean first;
+
+	/**
+	 * Constructor using the default frame size
+	 *
+	 * @param stretch output length divided by input length
+	 * @param pitch output frequency divided by input frequency
+	 */
+	public PhaseVocoder(double stretch,double pitch){
+		this(stretch,pitch,DEFAULT_SIZE);
+	}
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param stretch output length divided by input length
+	 * @param pitch output frequency divided by input frequency
+	 * @param size frame size, a power of 2
+	 * @throws IllegalArgumentException if stretch times pitch is so far from 1
+	 * that one of the hops would be under a sample
+	 */
+	public PhaseVocoder(double stretch,double pitch,int size){
+		if(!(stretch>0d && pitch>0d) || Double.isInfinite(stretch) || Double.isInfinite(pitch))
+			throw new IllegalArgumentException("Stretch ("+stretch+") and pitch ("+pitch+") must be positive");
+		if(size<(OVERLAP<<1) || !Bits.isPo2(size))
+			throw new IllegalArgumentException("Frame size ("+size+") must be a power of 2 of at least "+(OVERLAP<<1));
+		this.stretch = stretch;
+		this.pitch = pitch;
+		this.size = size;
+		int hop = size/OVERLAP;
+		double factor = stretch*pitch;
+		long idealHop = Math.round(hop/factor);
+		if(idealHop<=size){
+			synthesisHop = hop;
+			analysisHop = (int)idealHop;
+		}else{
+			// Analysis frames can't be further apart than a frame, overlap the output more instead
+			analysisHop = hop;
+			synthesisHop = (int)Math.round(hop*factor);
+		}
+		if(analysisHop<1 || synthesisHop<1)
+			throw new IllegalArgumentException("Stretch ("+stretch+") times pitch ("+pitch+") must be from "
+					+(0.5d/hop)+" to "+(hop*2d)+" for frame size "+size);
+		analysis = new STFT(size,analysisHop,STFT.Window.HANN);
+		synthesis = new STFT(size,synthesisHop,STFT.Window.HANN);
+		// Resample by whatever is left to get the exact length
+		double ratio = (double)synthesisHop/(analysisHop*stretch);
+		resampler = Math.abs(ratio-1d)<1e-9d?null:new Resampler(ratio,1d,Resampler.Quality.MEDIUM);
+		int bins = analysis.getBins();
+		real = new double[bins];
+		imag = new double[bins];
+		magnitude = new double[bins];
+		phase = new double[bins];
+		lastPhase = new double[bins];
+		synthesisPhase = new double[bins];
+		peakOf = new int[bins];
+		transfer = new double[size];
+		first = true;
+	}
+
+	/**
+	 * Forget all input, as if newly constructed
+	 */
+	public void reset(){
+		analysis.reset();
+		synthesis.reset();
+		if(resampler!=null)resampler.reset();
+		first = true;
+	}
+
+	/**
+	 * Add input
+	 *
+	 * @param input array to read from
+	 * @param offset index of first sample
+	 * @param count number of samples
+	 */
+	public void push(double[] input,int offset,int count){
+		while(count>0){
+			// Push in pieces so the analysis buffer stays small
+			int piece = Math.min(count, analysisHop);
+			analysis.push(input, offset, piece);
+			offset += piece;
+			count -= piece;
+			processFrames();
+		}
+	}
+
+	/**
+	 * Add silence so everything pushed so far can be pulled
+	 */
+	public void flush(){
+		analysis.flush();
+		processFrames();
+		synthesis.flushOutput();
+		if(resampler!=null){
+			drainSynthesis();
+			resampler.flush();
+		}
+	}
+
+	/**
+	 * Get as much output as is available, up to some limit
+	 *
+	 * @param output array to write to
+	 * @param offset index of first sample
+	 * @param count maximum number of samples
+	 * @return number of samples written
+	 */
+	public int pull(double[] output,int offset,int count){
+		if(resampler==null)return synthesis.pull(output, offset, count);
+		drainSynthesis();
+		return resampler.pull(output, offset, count);
+	}
+
+	/**
+	 * Move stretched output into the resampler
+	 */
+	protected void drainSynthesis(){
+		int count;
+		while((count = synthesis.pull(transfer, 0, transfer.length))>0){
+			resampler.push(transfer, 0, count);
+		}
+	}
+
+	/**
+	 * Run every frame the input so far allows
+	 */
+	protected void processFrames(){
+		while(analysis.analyze(real, imag)){
+			processFrame();
+			synthesis.synthesize(real, imag);
+		}
+		if(resampler!=null)drainSynthesis();
+	}
+
+	/**
+	 * Replace the phases of the current frame
+	 */
+	protected void processFrame(){
+		int bins = real.length;
+		double[] lreal = real, limag = imag, lmagnitude = magnitude, lphase = phase;
+		double[] llast = lastPhase, lsynth = synthesisPhase;
+		for(int k=0;k<bins;k++){
+			lmagnitude[k] = Math.hypot(lreal[k], limag[k]);
+			lphase[k] = Math.atan2(limag[k], lreal[k]);
+		}
+		if(first){
+			first = false;
+			System.arraycopy(lphase, 0, lsynth, 0, bins);
+			System.arraycopy(lphase, 0, llast, 0, bins);
+			return;
+		}
+		// Each bin belongs to a peak, regions split at the lowest bin between peaks
+		int[] lpeak = peakOf;
+		int regionStart = 0, lastPeak = -1;
+		for(int k=0;k<bins;k++){
+			double m = lmagnitude[k];
+			boolean peak = (k==0 || m>lmagnitude[k-1]) && (k==bins-1 || m>=lmagnitude[k+1]);
+			if(peak){
+				if(lastPeak>=0){
+					// Boundary at the lowest bin between the two peaks
+					int boundary = lastPeak;
+					for(int j=lastPeak+1;j<k;j++){
+						if(lmagnitude[j]<lmagnitude[boundary])boundary = j;
+					}
+					for(int j=regionStart;j<=boundary;j++)lpeak[j] = lastPeak;
+					regionStart = boundary+1;
+				}
+				lastPeak = k;
+			}
+		}
+		for(int j=regionStart;j<bins;j++)lpeak[j] = Math.max(lastPeak, 0);
+		// Advance the peaks by their measured frequency
+		double binStep = 2d*Math.PI/size, ha = analysisHop, hs = synthesisHop;
+		for(int k=0;k<bins;k++){
+			if(lpeak[k]!=k)continue;
+			double expected = binStep*k*ha;
+			double deviation = Angles.limit(lphase[k]-llast[k]-expected);
+			double frequency = binStep*k+deviation/ha;
+			lsynth[k] = Angles.limit(lsynth[k]+frequency*hs);
+		}
+		// Lock the other bins to their peak
+		for(int k=0;k<bins;k++){
+			int p = lpeak[k];
+			if(p!=k){
+				lsynth[k] = lsynth[p]+lphase[k]-lphase[p];
+			}
+		}
+		for(int k=0;k<bins;k++){
+			llast[k] = lphase[k];
+			double m = lmagnitude[k], p = lsynth[k];
+			lreal[k] = m*Math.cos(p);
+			limag[k] = m*Math.sin(p);
+		}
+	}
+
+	/**
+	 * Process a whole signal at once
+	 *
+	 * @param input the signal
+	 * @param stretch output length divided by input length
+	 * @param pitch output frequency divided by input frequency
+	 * @return the processed signal, <i>stretch</i> times as long
+	 */
+	public static double[] process(double[] input,double stretch,double pitch){
+		PhaseVocoder vocoder = new PhaseVocoder(stretch,pitch);
+		int length = (int)Math.round(input.length*stretch);
+		double[] result = new double[length];
+		int written = 0;
+		for(int i=0;i<input.length;i+=DEFAULT_SIZE){
+			vocoder.push(input, i, Math.min(DEFAULT_SIZE, input.length-i));
+			written += vocoder.pull(result, written, length-written);
+		}
+		vocoder.flush();
+		while(written<length){
+			int count = vocoder.pull(result, written, length-written);
+			if(count<=0)break;
+			written += count;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString(){
+		return "<PhaseVocoder stretch "+stretch+" pitch "+pitch+", size "+size+">";
+	}
+}
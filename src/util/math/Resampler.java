@@ -0,0 +1,301 @@
+package util.math;
+
+import java.util.*;
+
+/**
+ * Streaming sample rate converter
+ * <br>
+ * Polyphase windowed-sinc interpolation: the Kaiser-windowed sinc kernel
+ * is tabulated at a number of fractional offsets (phases) ahead of time,
+ * and each output sample is a dot product of the input with the nearest
+ * two phases, blended linearly. When converting down, the cutoff is
+ * lowered to the output Nyquist frequency to prevent aliasing.
+ * <br>
+ * Input is given with <i>push</i> and output taken with <i>pull</i>, in
+ * blocks of any size. All state is kept between calls, so a long signal
+ * can be converted piece by piece with the same result as all at once.
+ * Output is delayed by half the kernel width, use <i>flush</i> at the end
+ * to get the tail.
+ * <br>
+ * Not thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class Resampler {
+
+	/**
+	 * Preset quality levels
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static enum Quality{
+		/**
+		 * Short kernel, for previews
+		 */
+		LOW(8,64,6d),
+		/**
+		 * Reasonable default
+		 */
+		MEDIUM(16,256,8d),
+		/**
+		 * Long kernel, for final renders
+		 */
+		HIGH(32,1024,10d);
+
+		/**
+		 * Zero crossings of the sinc on each side
+		 */
+		public final int zeroCrossings;
+		/**
+		 * Number of tabulated fractional offsets
+		 */
+		public final int phases;
+		/**
+		 * Kaiser window shape parameter
+		 */
+		public final double beta;
+
+		private Quality(int zeroCrossings,int phases,double beta){
+			this.zeroCrossings = zeroCrossings;
+			this.phases = phases;
+			this.beta = beta;
+		}
+	}
+
+	/**
+	 * Input sample rate in Hz
+	 */
+	public final double inputRate;
+	/**
+	 * Output sample rate in Hz
+	 */
+	public final double outputRate;
+	/**
+	 * Quality used to make the kernel
+	 */
+	public final Quality quality;
+	/**
+	 * Input samples per output sample
+	 */
+	protected final double step;
+	/**
+	 * Taps on each side of the output position
+	 */
+	protected final int half;
+	/**
+	 * Taps per phase
+	 */
+	protected final int taps;
+	/**
+	 * Number of phases
+	 */
+	protected final int phases;
+	/**
+	 * Kernel table, <i>phases+1</i> rows of <i>taps</i> coefficients
+	 */
+	protected final double[] table;
+
+	/**
+	 * Input not yet fully consumed
+	 */
+	protected double[] buffer;
+	/**
+	 * Number of valid samples in <i>buffer</i>
+	 */
+	protected int buffered;
+	/**
+	 * Index in <i>buffer</i> of the input sample at or just before
+	 * the next output position
+	 */
+	protected int position;
+	/**
+	 * Fractional part of the next output position
+	 */
+	protected double fraction;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param inputRate input sample rate
+	 * @param outputRate output sample rate
+	 * @param quality quality preset
+	 */
+	public Resampler(double inputRate,double outputRate,Quality quality){
+		if(!(inputRate>0&&outputRate>0))throw new IllegalArgumentException("Sample rates ("+inputRate+", "+outputRate+") must be positive");
+		this.inputRate = inputRate;
+		this.outputRate = outputRate;
+		this.quality = quality;
+		step = inputRate/outputRate;
+		// Lower the cutoff when downsampling, which also widens the kernel
+		double cutoff = Math.min(1d, outputRate/inputRate);
+		half = (int)Math.ceil(quality.zeroCrossings/cutoff);
+		taps = half<<1;
+		phases = quality.phases;
+		table = makeTable(half,phases,cutoff,quality.beta);
+		buffer = new double[Math.max(taps<<2, 1<<10)];
+		reset();
+	}
+
+	/**
+	 * Tabulate the kernel
+	 * <br>
+	 * Row <i>p</i> holds h(j-p/phases) for j from -(half-1) to half, normalized
+	 * so each row sums to 1, which keeps DC gain exact
+	 *
+	 * @param half taps on each side
+	 * @param phases number of phases
+	 * @param cutoff cutoff as a fraction of the input Nyquist frequency
+	 * @param beta Kaiser window shape parameter
+	 * @return the table
+	 */
+	protected static double[] makeTable(int half,int phases,double cutoff,double beta){
+		int taps = half<<1;
+		double[] result = new double[(phases+1)*taps];
+		double invI0 = 1d/besselI0(beta);
+		for(int p=0;p<=phases;p++){
+			double frac = (double)p/phases, sum = 0d;
+			int row = p*taps;
+			for(int k=0;k<taps;k++){
+				double t = k-(half-1)-frac;
+				double u = t/half;
+				double w = u*u<1d?besselI0(beta*Math.sqrt(1d-u*u))*invI0:0d;
+				double x = Math.PI*cutoff*t;
+				double sinc = Math.abs(x)<Floats.D_EPSILON?1d:Math.sin(x)/x;
+				sum += result[row+k] = cutoff*sinc*w;
+			}
+			double norm = 1d/sum;
+			for(int k=0;k<taps;k++)
+				result[row+k] *= norm;
+		}
+		return result;
+	}
+
+	/**
+	 * Modified Bessel function of the first kind, order 0,
+	 * by power series
+	 *
+	 * @param x argument
+	 * @return I0(x)
+	 */
+	protected static double besselI0(double x){
+		double sum = 1d, term = 1d, q = x*x*0.25d;
+		for(int k=1;k<64 && term>sum*1e-17;k++){
+			term *= q/((double)k*k);
+			sum += term;
+		}
+		return sum;
+	}
+
+	/**
+	 * Forget all input, as if newly constructed
+	 */
+	public void reset(){
+		// Pretend there was silence before the start
+		Arrays.fill(buffer, 0d);
+		buffered = half-1;
+		position = half-1;
+		fraction = 0d;
+	}
+
+	/**
+	 * Add input
+	 *
+	 * @param input array to read from
+	 * @param offset index of first sample
+	 * @param count number of samples
+	 */
+	public void push(double[] input,int offset,int count){
+		// Drop samples which can no longer be reached
+		int drop = position-(half-1);
+		if(drop>0){
+			System.arraycopy(buffer, drop, buffer, 0, buffered-drop);
+			buffered -= drop;
+			position -= drop;
+		}
+		if(buffered+count>buffer.length){
+			buffer = Arrays.copyOf(buffer, Math.max(buffered+count, buffer.length<<1));
+		}
+		System.arraycopy(input, offset, buffer, buffered, count);
+		buffered += count;
+	}
+
+	/**
+	 * Add silence so everything pushed so far can be pulled
+	 */
+	public void flush(){
+		double[] zeros = new double[half+(int)Math.ceil(step)];
+		push(zeros,0,zeros.length);
+	}
+
+	/**
+	 * Get as much output as is available, up to some limit
+	 *
+	 * @param output array to write to
+	 * @param offset index of first sample
+	 * @param count maximum number of samples
+	 * @return number of samples written
+	 */
+	public int pull(double[] output,int offset,int count){
+		double[] lbuffer = buffer, ltable = table;
+		int lposition = position, ltaps = taps, lphases = phases, last = buffered-half;
+		double lfraction = fraction, lstep = step;
+		int written = 0;
+		while(written<count && lposition<last){
+			double scaled = lfraction*lphases;
+			int phase = (int)scaled;
+			double blend = scaled-phase;
+			int row0 = phase*ltaps, row1 = row0+ltaps, base = lposition-(half-1);
+			double sum0 = 0d, sum1 = 0d;
+			for(int k=0;k<ltaps;k++){
+				double x = lbuffer[base+k];
+				sum0 += x*ltable[row0+k];
+				sum1 += x*ltable[row1+k];
+			}
+			output[offset+written++] = sum0+(sum1-sum0)*blend;
+			lfraction += lstep;
+			int whole = (int)lfraction;
+			lposition += whole;
+			lfraction -= whole;
+		}
+		position = lposition;
+		fraction = lfraction;
+		return written;
+	}
+
+	/**
+	 * Number of output samples which the input so far is guaranteed to
+	 * provide, may be off by one due to rounding
+	 *
+	 * @return available output count
+	 */
+	public int available(){
+		double remaining = buffered-half-position-fraction;
+		return remaining<=0d?0:(int)Math.ceil(remaining/step);
+	}
+
+	/**
+	 * Convert a whole signal at once
+	 *
+	 * @param input the signal
+	 * @param inputRate input sample rate
+	 * @param outputRate output sample rate
+	 * @param quality quality preset
+	 * @return the converted signal, with length scaled by the rate ratio
+	 */
+	public static double[] resample(double[] input,double inputRate,double outputRate,Quality quality){
+		Resampler resampler = new Resampler(inputRate,outputRate,quality);
+		int length = (int)Math.floor(input.length*outputRate/inputRate);
+		double[] result = new double[length];
+		resampler.push(input, 0, input.length);
+		resampler.flush();
+		resampler.pull(result, 0, length);
+		return result;
+	}
+
+	@Override
+	public String toString(){
+		return "<Resampler "+inputRate+"Hz to "+outputRate+"Hz, "+quality+">";
+	}
+}
@@ -0,0 +1,521 @@
+package util.math;
+
+import java.util.*;
+
+/**
+ * Streaming short-time Fourier transform, and its inverse
+ * <br>
+ * Analysis: samples are pushed in any amount, and every <i>hop</i> samples
+ * a frame of <i>size</i> samples is windowed and transformed into the
+ * non-negative half spectrum, see {@link FFT#realFft(double[], double[], double[])}.
+ * Synthesis: frames are added back, inverse transformed, windowed again and
+ * overlap-added, and finished samples pulled out. Memory is bounded by the
+ * frame size no matter how long the stream is.
+ * <br>
+ * The start of the stream is padded with <i>size-hop</i> zeros so every
+ * sample is covered by the same number of frames, and synthesis drops the
+ * same amount, so for unmodified frames the output equals the input.
+ * Synthesis normalizes by the summed squared window, which allows any
+ * window and hop where the frames overlap enough to cover every sample.
+ * Samples where the sum is negligible, below {@link #NORM_EPSILON} of the
+ * largest, are not covered and come out silent instead of amplified.
+ * <br>
+ * Analysis and synthesis are independent, either can be used alone,
+ * for example analysis only for a spectrogram. Single frames of a whole
+ * signal can also be read and written in place, see {@link #edit(double[], int, int, FrameEditor)},
+ * so an edit only costs as much as the frames it touches.
+ * <br>
+ * Not thread safe
+ *
+ * @author EPICI
+ * @version 1.0
+ */
+public class STFT {
+
+	/**
+	 * Window functions, all periodic so overlapping copies sum evenly
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static enum Window{
+		RECTANGULAR{
+			@Override
+			public double valueAt(double x){
+				return 1d;
+			}
+		},
+		HANN{
+			@Override
+			public double valueAt(double x){
+				return 0.5d-0.5d*Math.cos(2d*Math.PI*x);
+			}
+		},
+		HAMMING{
+			@Override
+			public double valueAt(double x){
+				return 0.54d-0.46d*Math.cos(2d*Math.PI*x);
+			}
+		},
+		BLACKMAN{
+			@Override
+			public double valueAt(double x){
+				double t = 2d*Math.PI*x;
+				return 0.42d-0.5d*Math.cos(t)+0.08d*Math.cos(2d*t);
+			}
+		};
+
+		/**
+		 * Evaluate the window
+		 *
+		 * @param x position in the frame, from 0 inclusive to 1 exclusive
+		 * @return the window value
+		 */
+		public abstract double valueAt(double x);
+
+		/**
+		 * Fill an array with the window
+		 *
+		 * @param size frame size
+		 * @return the window values
+		 */
+		public double[] table(int size){
+			double[] result = new double[size];
+			double mult = 1d/size;
+			for(int i=0;i<size;i++){
+				result[i] = valueAt(i*mult);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Modifies frames for {@link STFT#edit(double[], int, int, FrameEditor)}
+	 *
+	 * @author EPICI
+	 * @version 1.0
+	 */
+	public static interface FrameEditor{
+		/**
+		 * Modify a frame's spectrum in place
+		 *
+		 * @param frame frame index, see {@link STFT#frameStart(long)}
+		 * @param real real part of the spectrum
+		 * @param imaginary imaginary part of the spectrum
+		 */
+		public void edit(long frame,double[] real,double[] imaginary);
+	}
+
+	/**
+	 * Summed squared window below this fraction of the largest sum
+	 * counts as not covered by any frame
+	 */
+	public static final double NORM_EPSILON = 1e-9d;
+
+	/**
+	 * Frame size, also the FFT length
+	 */
+	public final int size;
+	/**
+	 * Samples between frames
+	 */
+	public final int hop;
+	/**
+	 * Window used for both analysis and synthesis
+	 */
+	public final Window window;
+	/**
+	 * Tabulated analysis window
+	 */
+	protected final double[] analysisWindow;
+	/**
+	 * Tabulated synthesis window, already divided by the summed squared window
+	 */
+	protected final double[] synthesisWindow;
+	/**
+	 * Frame and FFT scratch
+	 */
+	protected final double[] frame, workReal, workImag;
+
+	/**
+	 * Analysis input not yet fully consumed
+	 */
+	protected double[] input;
+	/**
+	 * Number of valid samples in <i>input</i>
+	 */
+	protected int inputCount;
+	/**
+	 * Index in <i>input</i> of the next frame
+	 */
+	protected int inputStart;
+	/**
+	 * Number of frames analyzed since the last reset
+	 */
+	protected long framesAnalyzed;
+
+	/**
+	 * Synthesis accumulator
+	 */
+	protected double[] output;
+	/**
+	 * Index in <i>output</i> where the next frame gets added
+	 */
+	protected int outputFrame;
+	/**
+	 * Index in <i>output</i> of the next sample to pull
+	 */
+	protected int outputRead;
+	/**
+	 * Samples in <i>output</i> before this index are final
+	 */
+	protected int outputFinished;
+	/**
+	 * Leading samples still to be dropped
+	 */
+	protected int outputSkip;
+
+	/**
+	 * Standard constructor
+	 *
+	 * @param size frame size, even sizes are faster
+	 * @param hop samples between frames, at most <i>size</i>
+	 * @param window window function
+	 */
+	public STFT(int size,int hop,Window window){
+		if(size<2)throw new IllegalArgumentException("Frame size ("+size+") must be at least 2");
+		if(hop<1 || hop>size)throw new IllegalArgumentException("Hop ("+hop+") must be from 1 to the frame size ("+size+")");
+		this.size = size;
+		this.hop = hop;
+		this.window = window;
+		analysisWindow = window.table(size);
+		synthesisWindow = new double[size];
+		double maxNorm = 0d;
+		for(int i=0;i<size;i++){
+			double norm = 0d;
+			for(int j=i%hop;j<size;j+=hop){
+				double w = analysisWindow[j];
+				norm += w*w;
+			}
+			synthesisWindow[i] = norm;
+			maxNorm = Math.max(maxNorm, norm);
+		}
+		// Rounding leaves tiny sums where the windows don't really overlap, dividing would blow up
+		double minNorm = NORM_EPSILON*maxNorm;
+		for(int i=0;i<size;i++){
+			double norm = synthesisWindow[i];
+			synthesisWindow[i] = norm>minNorm?analysisWindow[i]/norm:0d;
+		}
+		frame = new double[size];
+		workReal = new double[size>>1];
+		workImag = new double[size>>1];
+		input = new double[size<<1];
+		output = new double[size<<1];
+		reset();
+	}
+
+	/**
+	 * @return number of bins in each frame's spectrum
+	 */
+	public int getBins(){
+		return (size>>1)+1;
+	}
+
+	/**
+	 * Frequency of a bin
+	 *
+	 * @param bin bin index
+	 * @param sampleRate sample rate in Hz
+	 * @return frequency in Hz
+	 */
+	public double binFrequency(int bin,double sampleRate){
+		return bin*sampleRate/size;
+	}
+
+	/**
+	 * Forget all analysis and synthesis state
+	 */
+	public void reset(){
+		Arrays.fill(input, 0d);
+		inputStart = 0;
+		inputCount = size-hop;
+		framesAnalyzed = 0;
+		Arrays.fill(output, 0d);
+		outputFrame = 0;
+		outputRead = 0;
+		outputFinished = 0;
+		outputSkip = size-hop;
+	}
+
+	/**
+	 * Add analysis input
+	 *
+	 * @param samples array to read from
+	 * @param offset index of first sample
+	 * @param count number of samples
+	 */
+	public void push(double[] samples,int offset,int count){
+		ensureInput(count);
+		System.arraycopy(samples, offset, input, inputCount, count);
+		inputCount += count;
+	}
+
+	/**
+	 * Add silence so every sample pushed so far is covered by all of its frames
+	 */
+	public void flush(){
+		if(inputCount<=inputStart)return;
+		int lastFrame = inputStart+(inputCount-1-inputStart)/hop*hop;
+		int pad = lastFrame+size-inputCount;
+		if(pad>0){
+			ensureInput(pad);
+			Arrays.fill(input, inputCount, inputCount+pad, 0d);
+			inputCount += pad;
+		}
+	}
+
+	/**
+	 * Make room for more input, discarding what no frame needs anymore
+	 *
+	 * @param count number of samples to make room for
+	 */
+	protected void ensureInput(int count){
+		if(inputCount+count<=input.length)return;
+		int keep = inputCount-inputStart;
+		double[] target = input;
+		if(keep+count>input.length){
+			target = new double[Math.max(keep+count, input.length<<1)];
+		}
+		System.arraycopy(input, inputStart, target, 0, keep);
+		input = target;
+		inputStart = 0;
+		inputCount = keep;
+	}
+
+	/**
+	 * @return number of frames which can be analyzed now
+	 */
+	public int framesAvailable(){
+		int remain = inputCount-inputStart;
+		return remain<size?0:(remain-size)/hop+1;
+	}
+
+	/**
+	 * @return number of frames analyzed since the last reset,
+	 * frame <i>k</i> is centered on input sample <i>k*hop+size/2-(size-hop)</i>
+	 */
+	public long getFramesAnalyzed(){
+		return framesAnalyzed;
+	}
+
+	/**
+	 * Analyze the next frame, if there is enough input
+	 *
+	 * @param real array for the real part of the spectrum, length {@link #getBins()}
+	 * @param imaginary array for the imaginary part of the spectrum, length {@link #getBins()}
+	 * @return true if a frame was analyzed, false if more input is needed
+	 */
+	public boolean analyze(double[] real,double[] imaginary){
+		if(inputCount-inputStart<size)return false;
+		double[] lframe = frame, lwindow = analysisWindow, linput = input;
+		for(int i=0,j=inputStart;i<size;i++,j++){
+			lframe[i] = linput[j]*lwindow[i];
+		}
+		FFT.realFft(lframe, real, imaginary, workReal, workImag);
+		inputStart += hop;
+		framesAnalyzed++;
+		return true;
+	}
+
+	/**
+	 * Overlap-add a frame to the synthesis output
+	 *
+	 * @param real real part of the spectrum, length {@link #getBins()}, not modified
+	 * @param imaginary imaginary part of the spectrum, length {@link #getBins()}, not modified
+	 */
+	public void synthesize(double[] real,double[] imaginary){
+		FFT.realIfft(real, imaginary, frame, workReal, workImag);
+		ensureOutput();
+		double[] lframe = frame, lwindow = synthesisWindow, loutput = output;
+		for(int i=0,j=outputFrame;i<size;i++,j++){
+			loutput[j] += lframe[i]*lwindow[i];
+		}
+		outputFrame += hop;
+		outputFinished = outputFrame;
+		skipOutput();
+	}
+
+	/**
+	 * Mark all synthesis output as final, for the end of the stream
+	 * <br>
+	 * Call after analysis {@link #flush()} and synthesizing the remaining frames.
+	 * The output may then run up to <i>hop</i> samples past the input,
+	 * these are near silent and can be dropped.
+	 */
+	public void flushOutput(){
+		outputFinished = outputFrame-hop+size;
+		skipOutput();
+	}
+
+	/**
+	 * Drop leading padding as it becomes final
+	 */
+	protected void skipOutput(){
+		if(outputSkip>0){
+			int skip = Math.min(outputSkip, outputFinished-outputRead);
+			outputRead += skip;
+			outputSkip -= skip;
+		}
+	}
+
+	/**
+	 * Make room for another frame, discarding what was already pulled
+	 */
+	protected void ensureOutput(){
+		if(outputFrame+size<=output.length)return;
+		int keep = outputFrame-hop+size-outputRead;
+		if(keep<0)keep = 0;
+		double[] target = output;
+		if(outputFrame-outputRead+size>output.length){
+			target = new double[Math.max(outputFrame-outputRead+size, output.length<<1)];
+		}
+		System.arraycopy(output, outputRead, target, 0, keep);
+		Arrays.fill(target, keep, target.length, 0d);
+		output = target;
+		outputFrame -= outputRead;
+		outputFinished -= outputRead;
+		outputRead = 0;
+	}
+
+	/**
+	 * @return number of synthesized samples which can be pulled now
+	 */
+	public int available(){
+		return outputFinished-outputRead;
+	}
+
+	/**
+	 * Get finished synthesis output, up to some limit
+	 *
+	 * @param samples array to write to
+	 * @param offset index of first sample
+	 * @param count maximum number of samples
+	 * @return number of samples written
+	 */
+	public int pull(double[] samples,int offset,int count){
+		int result = Math.min(count, outputFinished-outputRead);
+		if(result<=0)return 0;
+		System.arraycopy(output, outputRead, samples, offset, result);
+		outputRead += result;
+		return result;
+	}
+
+	/**
+	 * Where a frame starts, consistent with streaming analysis
+	 *
+	 * @param frame frame index
+	 * @return index of its first sample, may be negative
+	 */
+	public long frameStart(long frame){
+		return frame*hop-(size-hop);
+	}
+
+	/**
+	 * Number of frames streaming analysis gives for a whole signal
+	 * which is pushed and then flushed
+	 *
+	 * @param length number of samples
+	 * @return number of frames
+	 */
+	public long frameCount(long length){
+		long padded = length+size-hop;
+		return padded<=0?0:(padded-1)/hop+1;
+	}
+
+	/**
+	 * Analyze one frame of a whole signal, samples outside it count as 0
+	 *
+	 * @param data the signal, not modified
+	 * @param start index of the frame's first sample, see {@link #frameStart(long)}
+	 * @param real array for the real part of the spectrum, length {@link #getBins()}
+	 * @param imaginary array for the imaginary part of the spectrum, length {@link #getBins()}
+	 */
+	public void analyzeAt(double[] data,long start,double[] real,double[] imaginary){
+		double[] lframe = frame, lwindow = analysisWindow;
+		for(int i=0;i<size;i++){
+			long j = start+i;
+			lframe[i] = j>=0 && j<data.length?data[(int)j]*lwindow[i]:0d;
+		}
+		FFT.realFft(lframe, real, imaginary, workReal, workImag);
+	}
+
+	/**
+	 * Overlap-add one frame into a whole signal, samples outside it are dropped
+	 *
+	 * @param real real part of the spectrum, length {@link #getBins()}, not modified
+	 * @param imaginary imaginary part of the spectrum, length {@link #getBins()}, not modified
+	 * @param data the signal to add to
+	 * @param start index of the frame's first sample, see {@link #frameStart(long)}
+	 */
+	public void synthesizeAt(double[] real,double[] imaginary,double[] data,long start){
+		FFT.realIfft(real, imaginary, frame, workReal, workImag);
+		double[] lframe = frame, lwindow = synthesisWindow;
+		int from = (int)Math.max(0L, -start), to = (int)Math.min(size, data.length-start);
+		for(int i=from;i<to;i++){
+			data[(int)(start+i)] += lframe[i]*lwindow[i];
+		}
+	}
+
+	/**
+	 * Edit the spectrum of part of a signal in place
+	 * <br>
+	 * Every frame centered in the range is analyzed from the unedited signal
+	 * and passed to the editor, then the difference the editor made is
+	 * resynthesized and added back. Since unedited frames would resynthesize
+	 * to exactly the original, this equals a full analysis, edit and
+	 * resynthesis, but only the edited frames are transformed.
+	 * <br>
+	 * The edit fades in and out over about one frame at each end
+	 *
+	 * @param data the signal
+	 * @param from index of the first sample in the range
+	 * @param to index after the last sample in the range
+	 * @param editor modifies each frame
+	 * @return {start, end} of the samples which were changed, or null if none
+	 */
+	public int[] edit(double[] data,int from,int to,FrameEditor editor){
+		if(to<=from)return null;
+		// Frames centered in the range
+		long offset = size-hop-(size>>1);
+		long first = Math.floorDiv(from+offset+hop-1, hop), last = Math.floorDiv(to-1+offset, hop);
+		if(last<first)return null;
+		long spanStart = Math.max(0L, frameStart(first)), spanEnd = Math.min(data.length, frameStart(last)+size);
+		if(spanEnd<=spanStart)return null;
+		int bins = getBins();
+		double[] real = new double[bins], imag = new double[bins];
+		double[] editReal = new double[bins], editImag = new double[bins];
+		// Collect the changes first so later frames still see the original
+		double[] delta = new double[(int)(spanEnd-spanStart)];
+		for(long k=first;k<=last;k++){
+			long start = frameStart(k);
+			analyzeAt(data, start, real, imag);
+			System.arraycopy(real, 0, editReal, 0, bins);
+			System.arraycopy(imag, 0, editImag, 0, bins);
+			editor.edit(k, editReal, editImag);
+			for(int i=0;i<bins;i++){
+				editReal[i] -= real[i];
+				editImag[i] -= imag[i];
+			}
+			synthesizeAt(editReal, editImag, delta, start-spanStart);
+		}
+		for(int i=0,j=(int)spanStart;i<delta.length;i++,j++){
+			data[j] += delta[i];
+		}
+		return new int[]{(int)spanStart,(int)spanEnd};
+	}
+
+	@Override
+	public String toString(){
+		return "<STFT "+window+" size "+size+" hop "+hop+">";
+	}
+}